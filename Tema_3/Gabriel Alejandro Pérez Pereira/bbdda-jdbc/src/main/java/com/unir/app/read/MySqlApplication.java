@@ -1,54 +1,269 @@
 package com.unir.app.read;
 
 import com.unir.config.MySqlConnector;
+import com.unir.config.ResultStream;
+import com.unir.config.RoutingConfig;
+import com.unir.config.RoutingMySqlConnector;
+import com.unir.config.SqlDialect;
+import com.unir.config.metrics.JdbcMetrics;
+import com.unir.config.pool.PoolConfig;
+import com.unir.model.MySqlEmployee;
+import com.unir.model.MySqlSalary;
+import com.unir.query.HeadcountAggregates;
+import com.unir.query.HireHistogram;
+import com.unir.query.KeysetPager;
+import com.unir.query.QueryBatch;
+import com.unir.query.QueryCache;
+import com.unir.query.QueryExecutor;
+import com.unir.query.SalaryRanking;
 import lombok.extern.slf4j.Slf4j;
 
 import java.sql.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 @Slf4j
 public class MySqlApplication {
 
     private static final String DATABASE = "employees";
 
+    /**
+     * Posiciones del ranking de salarios que se guardan por departamento.
+     */
+    private static final int TOP_SALARIOS = 10;
+
+    /**
+     * Resultados de consultas que se guardan en memoria, y durante cuanto tiempo.
+     * Nuestras escrituras los descartan antes; las de otros procesos solo se ven al caducar.
+     */
+    private static final QueryCache CONSULTAS = new QueryCache(1000, Duration.ofMinutes(5));
+
+    /**
+     * Filas por página en las consultas paginadas.
+     */
+    private static final int TAMANO_PAGINA = 500;
+
+    /**
+     * Consultas de informes que se ejecutan a la vez como mucho (no más que conexiones tiene el pool),
+     * y tiempo máximo de cada una.
+     */
+    private static final int CONSULTAS_CONCURRENTES = 8;
+    private static final Duration TIEMPO_MAXIMO_CONSULTA = Duration.ofSeconds(30);
+
+    /**
+     * Latencias de las sentencias SQL. Las que tardan más de 200 ms se registran como lentas, con sus parámetros.
+     */
+    private static final JdbcMetrics METRICAS = new JdbcMetrics(Duration.ofMillis(200), 100);
+
+    /**
+     * Conexiones del pool del panel, el único con allowMultiQueries.
+     */
+    private static final int CONEXIONES_PANEL = 2;
+
+    /**
+     * Réplicas de lectura, separadas por comas (por ejemplo localhost:3307,localhost:3308).
+     * Sin réplicas todas las consultas van al primario.
+     */
+    private static final String REPLICAS = "MYSQL_REPLICAS";
+
     public static void main(String[] args) {
 
         //Creamos conexion. No es necesario indicar puerto en host si usamos el default, 1521
-        //Try-with-resources. Se cierra la conexión automáticamente al salir del bloque try
-        try(Connection connection = new MySqlConnector("localhost", DATABASE).getConnection()) {
+        //Try-with-resources. La conexión vuelve al pool y el pool se cierra automáticamente al salir del bloque try
+
+        //Las consultas van a las réplicas; las que van más de 10 s por detrás del primario no se usan
+        try(RoutingMySqlConnector connector = new RoutingMySqlConnector("localhost", replicas(), DATABASE,
+                PoolConfig.builder().statementMetrics(METRICAS).build(),
+                RoutingConfig.builder().build());
+            Connection connection = connector.getReadConnection()) {
 
             log.info("Conexión establecida con la base de datos MySQL");
 
+            //dashboard("d005");
+            //departmentReports(connector);
+
             //selectAllEmployeesOfDepartment(connection, "d001");
             //selectAllEmployeesOfDepartment(connection, "d002");
+            //selectAllEmployeesOfDepartment(connection, "d001"); // Desde la cache
+            //log.debug("{}", CONSULTAS);
+            //selectAllEmployeesByPages(connection);
+            //String token = selectSalariesPage(connection, null);
+            //selectSalariesPage(connection, token);
 
             /*Uncomment to test the methods below
-            countByGender(connection);
-            bestPaidEmployee(connection, "d005");
-            secondBestPaidEmployee(connection, "d005");
-            countHiredEmployeesByMonth(connection, 6);
+            HeadcountAggregates aggregates = HeadcountAggregates.load(connection)
+                    .reconcileEvery(connector.getReadDataSource(), Duration.ofMinutes(10));
+            countByGender(aggregates);
+            SalaryRanking ranking = new SalaryRanking(connector.getReadDataSource(), TOP_SALARIOS, Duration.ofMinutes(5));
+            bestPaidEmployee(ranking, "d005");
+            secondBestPaidEmployee(ranking, "d005");
+            HireHistogram hires = HireHistogram.load(connection, SqlDialect.MYSQL, false);
+            countHiredEmployeesByMonth(hires, 6);
             */
 
+            log.info("{}", METRICAS.report(10));
+            log.info("{}", connector);
+
         } catch (Exception e) {
             log.error("Error al tratar con la base de datos", e);
         }
     }
 
+    private static List<String> replicas() {
+        String replicas = System.getenv(REPLICAS);
+        if (replicas == null || replicas.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(replicas.split(",")).map(String::strip).filter(host -> !host.isEmpty()).toList();
+    }
+
     /**
-     * Ejemplo de consulta a la base de datos usando Statement.
-     * Statement es la forma más básica de ejecutar consultas a la base de datos.
-     * Es la más insegura, ya que no se protege de ataques de inyección SQL.
-     * No obstante es útil para sentencias DDL.
+     * Ejemplo de consulta de una tabla completa leyendo en streaming con {@link ResultStream}.
+     * Por defecto el driver lee el resultado entero en memoria antes de devolver la primera fila;
+     * en streaming la memoria es constante aunque la tabla tenga millones de filas.
      * @param connection
      * @throws SQLException
      */
     private static void selectAllEmployees(Connection connection) throws SQLException {
-        Statement selectEmployees = connection.createStatement();
-        ResultSet employees = selectEmployees.executeQuery("select * from employees");
+        // La tabla se lee en streaming: las filas se procesan a medida que llegan, sin cargarlas todas en memoria.
+        // El try-with-resources cierra el ResultSet y la sentencia aunque se deje de leer a medias
+        try (Stream<String> employees = ResultStream.of(connection, SqlDialect.MYSQL, "select first_name, last_name from employees",
+                resultSet -> resultSet.getString("first_name") + " " + resultSet.getString("last_name"))) {
+            employees.forEach(employee -> log.debug("Employee: {}", employee));
+        }
+    }
+
+    /**
+     * Recorre la tabla employees de TAMANO_PAGINA en TAMANO_PAGINA empleados.
+     * Cada página continúa desde el emp_no de la última fila de la anterior, en lugar de usar LIMIT/OFFSET:
+     * las últimas páginas cuestan lo mismo que la primera.
+     * @param connection
+     * @throws SQLException
+     */
+    private static void selectAllEmployeesByPages(Connection connection) throws SQLException {
+        KeysetPager<MySqlEmployee> pager = KeysetPager.employees(SqlDialect.MYSQL);
+        String token = null;
+        int pages = 0;
+        do {
+            KeysetPager.Page<MySqlEmployee> page = pager.page(connection, token, TAMANO_PAGINA);
+            page.rows().forEach(employee -> log.debug("Employee: {} {} {}",
+                    employee.getEmployeeId(),
+                    employee.getFirstName(),
+                    employee.getLastName()));
+            token = page.next();
+            pages++;
+        } while (token != null);
+        log.debug("Empleados leidos en {} paginas", pages);
+    }
+
+    /**
+     * Una página de la tabla salaries, por (emp_no, from_date).
+     * El token es opaco: se devuelve al cliente (por ejemplo, en una API) y este lo envía para pedir la siguiente.
+     * @param connection
+     * @param token - Token de la página anterior, o null para la primera
+     * @return - Token de la página siguiente, o null si es la última
+     * @throws SQLException
+     */
+    private static String selectSalariesPage(Connection connection, String token) throws SQLException {
+        KeysetPager.Page<MySqlSalary> page = KeysetPager.salaries(SqlDialect.MYSQL).page(connection, token, TAMANO_PAGINA);
+        page.rows().forEach(salary -> log.debug("Employee: {}, Salary: {}, From: {}",
+                salary.getEmployeeId(),
+                salary.getSalary(),
+                salary.getFromDate()));
+        return page.next();
+    }
 
-        while (employees.next()) {
-            log.debug("Employee: {} {}",
-                    employees.getString("first_name"),
-                    employees.getString("last_name"));
+    /**
+     * Muestra el panel de control con una conexión de un pool propio, que solo existe mientras se muestra.
+     * allowMultiQueries es necesario para enviar varias consultas en un solo viaje. Solo lo tiene este pool pequeño:
+     * el resto de conexiones conservan la protección del driver contra varias sentencias en una.
+     * @param department - Departamento del que se muestran los detalles
+     * @throws SQLException
+     */
+    private static void dashboard(String department) throws SQLException {
+        Properties multiQueries = new Properties();
+        multiQueries.setProperty(QueryBatch.MYSQL_MULTI_QUERIES, "true");
+        try (MySqlConnector panelConnector = new MySqlConnector("localhost", DATABASE,
+                PoolConfig.builder().minSize(0).maxSize(CONEXIONES_PANEL).driverProperties(multiQueries)
+                        .statementMetrics(METRICAS).build());
+             Connection panel = panelConnector.getConnection()) {
+            dashboard(panel, department);
+        }
+    }
+
+    /**
+     * Cifras de un panel de control, pedidas en un único viaje a la base de datos con {@link QueryBatch}
+     * en lugar de una consulta tras otra. Cada cifra llega en su propio future, con su tipo.
+     * @param connection - Conexión con allowMultiQueries=true
+     * @param department - Departamento del que se muestran los detalles
+     * @throws SQLException
+     */
+    private static void dashboard(Connection connection, String department) throws SQLException {
+        QueryBatch batch = new QueryBatch(SqlDialect.MYSQL);
+        CompletableFuture<Long> employees = batch.single("SELECT COUNT(*) FROM employees",
+                resultSet -> resultSet.getLong(1));
+        CompletableFuture<Long> departments = batch.single("SELECT COUNT(*) FROM departments",
+                resultSet -> resultSet.getLong(1));
+        CompletableFuture<Long> inDepartment = batch.single("SELECT COUNT(*) FROM dept_emp " +
+                        "WHERE dept_no = ? AND to_date = DATE '9999-01-01'",
+                resultSet -> resultSet.getLong(1), department);
+        CompletableFuture<Double> averageSalary = batch.single("SELECT AVG(s.salary) FROM salaries s " +
+                        "JOIN dept_emp de ON de.emp_no = s.emp_no AND de.to_date = DATE '9999-01-01' " +
+                        "WHERE de.dept_no = ? AND s.to_date = DATE '9999-01-01'",
+                resultSet -> resultSet.getDouble(1), department);
+        CompletableFuture<List<String>> managers = batch.list("SELECT e.first_name, e.last_name FROM dept_manager dm " +
+                        "JOIN employees e ON e.emp_no = dm.emp_no WHERE dm.dept_no = ? ORDER BY dm.from_date",
+                resultSet -> resultSet.getString("first_name") + " " + resultSet.getString("last_name"), department);
+        batch.execute(connection);
+
+        log.debug("Empleados: {}, Departamentos: {}", employees.join(), departments.join());
+        log.debug("Departamento {}: {} empleados, salario medio {}, managers {}",
+                department,
+                inDepartment.join(),
+                averageSalary.join(),
+                managers.join());
+    }
+
+    /**
+     * Informe de todos los departamentos, con sus consultas ejecutadas a la vez en hilos virtuales
+     * sobre las conexiones del pool, en lugar de una tras otra en una única conexión.
+     * Si alguna tarda más de TIEMPO_MAXIMO_CONSULTA, se cancela en la base de datos y el resto del informe sigue.
+     * @param connector - Conector con los pools del primario y las réplicas
+     */
+    private static void departmentReports(RoutingMySqlConnector connector) {
+        try (QueryExecutor executor = new QueryExecutor(connector.getReadDataSource(), CONSULTAS_CONCURRENTES,
+                TIEMPO_MAXIMO_CONSULTA, true)) {
+            List<String> departments = executor.submit("SELECT dept_no FROM departments ORDER BY dept_no", resultSet -> {
+                List<String> rows = new ArrayList<>();
+                while (resultSet.next()) {
+                    rows.add(resultSet.getString(1));
+                }
+                return rows;
+            }).join();
+
+            List<CompletableFuture<String>> reports = new ArrayList<>();
+            for (String department : departments) {
+                reports.add(executor.submit("SELECT COUNT(*), AVG(s.salary), MAX(s.salary) FROM dept_emp de " +
+                                "JOIN salaries s ON s.emp_no = de.emp_no AND s.to_date = DATE '9999-01-01' " +
+                                "WHERE de.dept_no = ? AND de.to_date = DATE '9999-01-01'",
+                        resultSet -> resultSet.next()
+                                ? department + ": " + resultSet.getLong(1) + " empleados, salario medio "
+                                + resultSet.getDouble(2) + ", maximo " + resultSet.getLong(3)
+                                : department + ": sin empleados",
+                        department));
+            }
+            for (CompletableFuture<String> report : reports) {
+                report.handle((line, error) -> error == null ? line : "Error: " + error.getMessage())
+                        .thenAccept(line -> log.debug("{}", line))
+                        .join();
+            }
+            log.debug("{}", executor);
         }
     }
 
@@ -57,81 +272,81 @@ public class MySqlApplication {
      * PreparedStatement es la forma más segura de ejecutar consultas a la base de datos.
      * Se protege de ataques de inyección SQL.
      * Es útil para sentencias DML.
+     * El resultado se guarda en la cache de consultas: repetir la consulta con el mismo departamento no va a la
+     * base de datos hasta que caduca o alguien de este proceso modifica employees, dept_emp o departments.
      * @param connection
      * @throws SQLException
      */
     private static void selectAllEmployeesOfDepartment(Connection connection, String department) throws SQLException {
-        PreparedStatement selectEmployees = connection.prepareStatement("select count(*) as 'Total'\n" +
+        List<String> employees = CONSULTAS.query(connection, "select count(*) as 'Total'\n" +
                 "from employees emp\n" +
                 "inner join dept_emp dep_rel on emp.emp_no = dep_rel.emp_no\n" +
                 "inner join departments dep on dep_rel.dept_no = dep.dept_no\n" +
-                "where dep_rel.dept_no = ?;\n");
-        selectEmployees.setString(1, department);
-        ResultSet employees = selectEmployees.executeQuery();
+                "where dep_rel.dept_no = ?;\n",
+                Set.of("employees", "dept_emp", "departments"),
+                resultSet -> resultSet.getString("Total"),
+                department);
 
-        while (employees.next()) {
+        for (String total : employees) {
             log.debug("Empleados del departamento {}: {}",
                     department,
-                    employees.getString("Total"));
+                    total);
         }
     }
 
-    private static void countByGender(Connection connection) throws SQLException {
-        Statement selectEmployees = connection.createStatement();
-        ResultSet employees = selectEmployees.executeQuery("SELECT gender,count(*) AS total FROM employees.employees GROUP BY gender ORDER BY total DESC");
-
-        while (employees.next()) {
-            log.debug("Gender: {}, Total: {}",
-                    employees.getString("gender"),
-                    employees.getInt("total"));
-        }
+    /**
+     * Empleados por género, de mayor a menor.
+     * Se leen de los recuentos en memoria, en lugar de agrupar la tabla employees entera en cada llamada.
+     * @param aggregates - Recuentos de empleados
+     */
+    private static void countByGender(HeadcountAggregates aggregates) {
+        aggregates.counts(HeadcountAggregates.Dimension.GENDER).forEach((gender, total) ->
+                log.debug("Gender: {}, Total: {}",
+                        gender,
+                        total));
     }
 
-    private static void bestPaidEmployee(Connection connection,String department) throws SQLException {
-        PreparedStatement selectEmployees = connection.prepareStatement("SELECT first_name,last_name,salary,dept_no FROM employees.employees\n" +
-                "JOIN employees.salaries ON employees.employees.emp_no = employees.salaries.emp_no\n" +
-                "JOIN employees.dept_emp ON employees.employees.emp_no = employees.dept_emp.emp_no\n" +
-                "WHERE dept_no = ? ORDER BY salary DESC LIMIT 1;");
-
-        selectEmployees.setString(1, department);
-        ResultSet employees = selectEmployees.executeQuery();
-
-        while (employees.next()) {
-            log.debug("Employee: {} {}, Salary: {}",
-                    employees.getString("first_name"),
-                    employees.getString("last_name"),
-                    employees.getInt("salary"));
-        }
+    /**
+     * Empleado con el salario actual más alto de un departamento.
+     * Se consulta en el ranking en memoria, que calcula con una sola consulta los TOP_SALARIOS mejores salarios
+     * de todos los departamentos, en lugar de ordenar los salarios del departamento en cada llamada.
+     * @param ranking - Ranking de salarios
+     * @param department - Departamento
+     * @throws SQLException - Error al calcular el ranking
+     */
+    private static void bestPaidEmployee(SalaryRanking ranking, String department) throws SQLException {
+        logRankedEmployee(ranking, department, 1);
     }
 
-    private static void secondBestPaidEmployee(Connection connection,String department) throws SQLException {
-        PreparedStatement selectEmployees = connection.prepareStatement("SELECT first_name,last_name,salary,dept_no FROM employees.employees\n" +
-                "JOIN employees.salaries ON employees.employees.emp_no = employees.salaries.emp_no\n" +
-                "JOIN employees.dept_emp ON employees.employees.emp_no = employees.dept_emp.emp_no\n" +
-                "WHERE dept_no = ? ORDER BY salary DESC LIMIT 1 OFFSET 1;");
-
-        selectEmployees.setString(1, department);
-        ResultSet employees = selectEmployees.executeQuery();
-
-        while (employees.next()) {
-            log.debug("Employee: {} {}, Salary: {}",
-                    employees.getString("first_name"),
-                    employees.getString("last_name"),
-                    employees.getInt("salary"));
-        }
+    /**
+     * Empleado con el segundo salario actual más alto de un departamento. Ver {@link #bestPaidEmployee}.
+     * @param ranking - Ranking de salarios
+     * @param department - Departamento
+     * @throws SQLException - Error al calcular el ranking
+     */
+    private static void secondBestPaidEmployee(SalaryRanking ranking, String department) throws SQLException {
+        logRankedEmployee(ranking, department, 2);
     }
 
-    private static void countHiredEmployeesByMonth(Connection connection,int month) throws SQLException {
-        PreparedStatement selectEmployees = connection.prepareStatement("SELECT count(*) AS total FROM employees.employees WHERE MONTH(hire_date) = ?");
-
-        selectEmployees.setInt(1, month);
-        ResultSet employees = selectEmployees.executeQuery();
-
-        while (employees.next()) {
-            log.debug("Total de empleados contratados en el mes {}: {}",
-                    month,
-                    employees.getInt("total"));
-        }
+    private static void logRankedEmployee(SalaryRanking ranking, String department, int position) throws SQLException {
+        ranking.employee(department, position).ifPresentOrElse(
+                employee -> log.debug("Employee: {} {}, Salary: {}",
+                        employee.firstName(),
+                        employee.lastName(),
+                        employee.salary()),
+                () -> log.debug("El departamento {} no tiene {} empleados", department, position));
+    }
 
+    /**
+     * Empleados contratados en un mes de cualquier año.
+     * Se consulta en el histograma de contrataciones en memoria: WHERE MONTH(hire_date) = ? no puede usar
+     * ningún índice y recorreria la tabla employees entera en cada llamada.
+     * @param hires - Histograma de contrataciones
+     * @param month - Mes, de 1 a 12
+     */
+    private static void countHiredEmployeesByMonth(HireHistogram hires, int month) {
+        log.debug("Total de empleados contratados en el mes {}: {}",
+                month,
+                hires.hiredInMonth(month));
     }
 }
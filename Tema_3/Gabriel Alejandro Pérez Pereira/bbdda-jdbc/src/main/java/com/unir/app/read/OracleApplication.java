@@ -1,65 +1,107 @@
 package com.unir.app.read;
 
 import com.unir.config.OracleDatabaseConnector;
+import com.unir.config.ResultStream;
+import com.unir.config.SqlDialect;
+import com.unir.config.XmlReport;
+import com.unir.config.metrics.JdbcMetrics;
+import com.unir.config.pool.PoolConfig;
+import com.unir.query.KeysetPager;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.xml.stream.XMLStreamConstants;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
 
 @Slf4j
 public class OracleApplication {
 
     private static final String SERVICE_NAME = "orcl";
 
+    /**
+     * Latencias de las sentencias SQL. Las que tardan más de 200 ms se registran como lentas, con sus parámetros.
+     */
+    private static final JdbcMetrics METRICAS = new JdbcMetrics(Duration.ofMillis(200), 100);
+
     public static void main(String[] args) {
 
         //Creamos conexion. No es necesario indicar puerto en host si usamos el default, 1521
-        //Try-with-resources. Se cierra la conexión automáticamente al salir del bloque try
-        try(Connection connection = new OracleDatabaseConnector("localhost", SERVICE_NAME).getConnection()) {
+        //Try-with-resources. La conexión vuelve al pool y el pool se cierra automáticamente al salir del bloque try
+        try(OracleDatabaseConnector connector = new OracleDatabaseConnector("localhost", SERVICE_NAME,
+                PoolConfig.builder().statementMetrics(METRICAS).build());
+            Connection connection = connector.getConnection()) {
 
             log.debug("Conexión establecida con la base de datos Oracle");
 
             //selectAllEmployees(connection);
+            //selectAllEmployeesByPages(connection, 50);
             //selectAllCountriesAsXml(connection);
 
             /*Uncomment to test the methods below
             selectEmployeesDepartmentsXML(connection);
-            selectManagersXML(connection);
+            selectManagersXML(connection, Path.of("managers.xml"));
+            selectManagersXMLRows(connection, Path.of("managers.xml"));
             */
 
+            log.info("{}", METRICAS.report(10));
+
         } catch (Exception e) {
             log.error("Error al tratar con la base de datos", e);
         }
     }
 
     /**
-     * Ejemplo de consulta a la base de datos usando Statement.
-     * Statement es la forma más básica de ejecutar consultas a la base de datos.
-     * Es la más insegura, ya que no se protege de ataques de inyección SQL.
-     * No obstante, es útil para sentencias DDL.
+     * Ejemplo de consulta de una tabla completa leyendo en streaming con {@link ResultStream}.
+     * Por defecto el driver de Oracle lee de 10 en 10 filas (un viaje por cada 10 filas);
+     * aquí se leen de ResultStream.ORACLE_PREFETCH en ResultStream.ORACLE_PREFETCH, en memoria constante.
      * @param connection
      * @throws SQLException
      */
     private static void selectAllEmployees(Connection connection) throws SQLException {
-        Statement selectEmployees = connection.createStatement();
-        ResultSet employees = selectEmployees.executeQuery("select * from EMPLOYEES");
-
-        while (employees.next()) {
-            log.debug("Employee: {} {}",
-                    employees.getString("FIRST_NAME"),
-                    employees.getString("LAST_NAME"));
+        // Las filas se procesan a medida que llegan, sin cargarlas todas en memoria.
+        // El try-with-resources cierra el ResultSet y la sentencia aunque se deje de leer a medias
+        try (Stream<String> employees = ResultStream.of(connection, SqlDialect.ORACLE, "select FIRST_NAME, LAST_NAME from EMPLOYEES",
+                resultSet -> resultSet.getString("FIRST_NAME") + " " + resultSet.getString("LAST_NAME"))) {
+            employees.forEach(employee -> log.debug("Employee: {}", employee));
         }
     }
 
+    /**
+     * Recorre la tabla EMPLOYEES por páginas, continuando cada una desde el EMPLOYEE_ID de la última fila
+     * de la anterior (FETCH FIRST n ROWS ONLY), en lugar de OFFSET.
+     * @param connection
+     * @param pageSize - Filas por página
+     * @throws SQLException
+     */
+    private static void selectAllEmployeesByPages(Connection connection, int pageSize) throws SQLException {
+        KeysetPager<String> pager = new KeysetPager<>(SqlDialect.ORACLE, "EMPLOYEES", "EMPLOYEE_ID, FIRST_NAME, LAST_NAME",
+                List.of(new KeysetPager.Key("EMPLOYEE_ID", Integer.class)),
+                resultSet -> resultSet.getString("FIRST_NAME") + " " + resultSet.getString("LAST_NAME"));
+        String token = null;
+        do {
+            KeysetPager.Page<String> page = pager.page(connection, token, pageSize);
+            page.rows().forEach(employee -> log.debug("Employee: {}", employee));
+            token = page.next();
+        } while (token != null);
+    }
+
     /**
      * Ejemplo de consulta a la base de datos usando PreparedStatement y SQL/XML.
      * Para usar SQL/XML, es necesario que la base de datos tenga instalado el módulo XDB.
      * En Oracle 19c, XDB viene instalado por defecto.
      * Ademas, se necesitan las dependencias que se encuentran en el pom.xml.
+     * Cada fila se lee como SQLXML con un lector StAX de {@link XmlReport}, sin convertirla en String.
      * @param connection
      * @throws SQLException
      */
     private static void selectAllCountriesAsXml(Connection connection) throws SQLException {
-        PreparedStatement selectCountries = connection.prepareStatement("SELECT\n" +
+        XmlReport.rows(connection, "SELECT\n" +
                 "  XMLELEMENT(\"countryXml\",\n" +
                 "       XMLATTRIBUTES(\n" +
                 "         c.country_name AS \"name\",\n" +
@@ -67,13 +109,18 @@ public class OracleApplication {
                 "         c.country_id AS \"id\"))\n" +
                 "  AS CountryXml\n" +
                 "FROM  countries c\n" +
-                "WHERE c.country_name LIKE ?");
-        selectCountries.setString(1, "S%");
-
-        ResultSet countries = selectCountries.executeQuery();
-        while (countries.next()) {
-            log.debug("Country as XML: {}", countries.getString("CountryXml"));
-        }
+                "WHERE c.country_name LIKE ?",
+                country -> {
+                    while (country.hasNext()) {
+                        if (country.next() == XMLStreamConstants.START_ELEMENT) {
+                            log.debug("Country: {} ({}), region {}",
+                                    country.getAttributeValue(null, "name"),
+                                    country.getAttributeValue(null, "id"),
+                                    country.getAttributeValue(null, "code"));
+                        }
+                    }
+                },
+                "S%");
     }
 
     private static void selectEmployeesDepartmentsXML(Connection connection) throws SQLException{
@@ -94,35 +141,76 @@ public class OracleApplication {
         }
     }
 
-    private static void selectManagersXML(Connection connection) throws SQLException{
-        PreparedStatement selectEmployeesDepartments = connection.prepareStatement("SELECT XMLELEMENT(\n" +
-                "               \"managers\",\n" +
-                "               XMLAGG(\n" +
-                "                       XMLELEMENT(\n" +
-                "                               \"manager\",\n" +
-                "                               XMLELEMENT(\n" +
-                "                                       \"nombreCompleto\",\n" +
-                "                                       XMLFOREST(\n" +
-                "                                               EMPLOYEES.first_name AS \"nombre\",\n" +
-                "                                               EMPLOYEES.last_name AS \"apellido\"\n" +
-                "                                       )\n" +
-                "                               ),\n" +
-                "                               XMLFOREST(\n" +
-                "                                       DEPARTMENTS.department_name AS \"department\",\n" +
-                "                                       LOCATIONS.city AS \"city\",\n" +
-                "                                       COUNTRIES.country_name AS \"country\"\n" +
-                "                               )\n" +
-                "                       )\n" +
-                "               )\n" +
-                "       ) AS managers_xml\n" +
-                "FROM employees\n" +
-                "         JOIN DEPARTMENTS ON EMPLOYEES.department_id = DEPARTMENTS.department_id\n" +
-                "         JOIN LOCATIONS ON DEPARTMENTS.location_id = LOCATIONS.location_id\n" +
-                "         JOIN COUNTRIES ON LOCATIONS.country_id = COUNTRIES.country_id");
-
-        ResultSet managers = selectEmployeesDepartments.executeQuery();
-        while (managers.next()) {
-            log.debug("Manager as XML: {}", managers.getString("managers_xml"));
+    /**
+     * Documento con todos los managers, construido en la base de datos con XMLAGG.
+     * El documento se copia al fichero a medida que se lee (SQLXML como flujo de bytes), sin cargarlo en memoria.
+     * @param connection
+     * @param file - Fichero de salida
+     * @throws SQLException
+     */
+    private static void selectManagersXML(Connection connection, Path file) throws SQLException{
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long bytes = XmlReport.pipe(connection, "SELECT XMLELEMENT(\n" +
+                    "               \"managers\",\n" +
+                    "               XMLAGG(\n" +
+                    "                       XMLELEMENT(\n" +
+                    "                               \"manager\",\n" +
+                    "                               XMLELEMENT(\n" +
+                    "                                       \"nombreCompleto\",\n" +
+                    "                                       XMLFOREST(\n" +
+                    "                                               EMPLOYEES.first_name AS \"nombre\",\n" +
+                    "                                               EMPLOYEES.last_name AS \"apellido\"\n" +
+                    "                                       )\n" +
+                    "                               ),\n" +
+                    "                               XMLFOREST(\n" +
+                    "                                       DEPARTMENTS.department_name AS \"department\",\n" +
+                    "                                       LOCATIONS.city AS \"city\",\n" +
+                    "                                       COUNTRIES.country_name AS \"country\"\n" +
+                    "                               )\n" +
+                    "                       )\n" +
+                    "               )\n" +
+                    "       ) AS managers_xml\n" +
+                    "FROM employees\n" +
+                    "         JOIN DEPARTMENTS ON EMPLOYEES.department_id = DEPARTMENTS.department_id\n" +
+                    "         JOIN LOCATIONS ON DEPARTMENTS.location_id = LOCATIONS.location_id\n" +
+                    "         JOIN COUNTRIES ON LOCATIONS.country_id = COUNTRIES.country_id", out);
+            log.debug("Managers as XML: {} bytes en {}", bytes, file);
+        } catch (IOException e) {
+            throw new SQLException("Error al escribir " + file, e);
+        }
+    }
+
+    /**
+     * Igual que {@link #selectManagersXML}, pero con un XMLELEMENT por fila en lugar de un XMLAGG: la base de datos
+     * no construye el documento completo, y el elemento raíz managers se añade al escribir el fichero.
+     * @param connection
+     * @param file - Fichero de salida
+     * @throws SQLException
+     */
+    private static void selectManagersXMLRows(Connection connection, Path file) throws SQLException{
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long managers = XmlReport.rows(connection, "SELECT XMLELEMENT(\n" +
+                    "               \"manager\",\n" +
+                    "               XMLELEMENT(\n" +
+                    "                       \"nombreCompleto\",\n" +
+                    "                       XMLFOREST(\n" +
+                    "                               EMPLOYEES.first_name AS \"nombre\",\n" +
+                    "                               EMPLOYEES.last_name AS \"apellido\"\n" +
+                    "                       )\n" +
+                    "               ),\n" +
+                    "               XMLFOREST(\n" +
+                    "                       DEPARTMENTS.department_name AS \"department\",\n" +
+                    "                       LOCATIONS.city AS \"city\",\n" +
+                    "                       COUNTRIES.country_name AS \"country\"\n" +
+                    "               )\n" +
+                    "       ) AS manager_xml\n" +
+                    "FROM employees\n" +
+                    "         JOIN DEPARTMENTS ON EMPLOYEES.department_id = DEPARTMENTS.department_id\n" +
+                    "         JOIN LOCATIONS ON DEPARTMENTS.location_id = LOCATIONS.location_id\n" +
+                    "         JOIN COUNTRIES ON LOCATIONS.country_id = COUNTRIES.country_id", "managers", out);
+            log.debug("Managers as XML: {} managers en {}", managers, file);
+        } catch (IOException e) {
+            throw new SQLException("Error al escribir " + file, e);
         }
     }
 
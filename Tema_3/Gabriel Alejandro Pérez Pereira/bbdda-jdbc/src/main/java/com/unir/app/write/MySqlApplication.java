@@ -1,20 +1,49 @@
 package com.unir.app.write;
 
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-import com.opencsv.exceptions.CsvValidationException;
 import com.unir.config.MySqlConnector;
+import com.unir.config.SqlDialect;
+import com.unir.config.metrics.JdbcMetrics;
+import com.unir.config.pool.PoolConfig;
+import com.unir.ingest.AdaptiveBatchSizer;
+import com.unir.ingest.BatchResult;
+import com.unir.ingest.BatchSizer;
+import com.unir.ingest.BatchWriter;
+import com.unir.ingest.BlockIdAllocator;
+import com.unir.ingest.ChangeDetector;
+import com.unir.ingest.CheckpointStore;
+import com.unir.ingest.CheckpointedLoad;
+import com.unir.ingest.CsvRowSource;
+import com.unir.ingest.GraphLoader;
+import com.unir.ingest.IngestMode;
+import com.unir.ingest.InsertOrUpdateWriter;
+import com.unir.ingest.KeyExistence;
+import com.unir.ingest.IngestionPipeline;
+import com.unir.ingest.MappedCsvSource;
+import com.unir.ingest.MySqlBulkLoader;
+import com.unir.ingest.PartitionedLoader;
+import com.unir.ingest.QuarantineSource;
+import com.unir.ingest.QuarantineWriter;
+import com.unir.ingest.RejectFile;
+import com.unir.ingest.RowSource;
+import com.unir.ingest.TableMapping;
+import com.unir.ingest.TableWriter;
+import com.unir.ingest.UpsertEngine;
 import com.unir.model.MySQLDepartment;
 import com.unir.model.MySqlEmployee;
+import com.unir.model.MySqlMappings;
+import com.unir.query.HeadcountAggregates;
+import com.unir.query.HireHistogram;
+import com.unir.query.TableChanges;
 import lombok.extern.slf4j.Slf4j;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.LinkedList;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 
 /**
  * La version para Oracle seria muy similar a esta, cambiando únicamente el Driver y los datos de sentencias.
@@ -24,42 +53,93 @@ import java.util.List;
 public class MySqlApplication {
 
     private static final String DATABASE = "employees";
+    // Tamaño de lote adaptativo: se empieza con LOTE_INICIAL filas y se ajusta segun la latencia de cada lote
+    private static final int LOTE_INICIAL = 100;
+    private static final int LOTE_MAXIMO = 5000;
+    private static final Duration LATENCIA_MAXIMA_LOTE = Duration.ofMillis(500);
+    private static final long MEMORIA_MAXIMA_LOTE = 8L * 1024 * 1024;
+    private static final int QUEUE_DEPTH = IngestionPipeline.DEFAULT_QUEUE_DEPTH;
+    private static final int WORKERS = 4;
+    // En la carga en paralelo, el CSV de empleados se parte en LECTORES tramos que se leen a la vez
+    private static final int LECTORES = 2;
+    private static final int COMMIT_INTERVAL = 1000;
+    // Con UPSERT_NATIVO = false se usan INSERT y UPDATE por separado, resolviendo que claves existen por lotes
+    private static final boolean UPSERT_NATIVO = true;
+    // Probabilidad de falso positivo del filtro de Bloom de claves que se construye al empezar cada carga
+    private static final double FALSOS_POSITIVOS = 0.01;
+    // Cada cuanto se recalculan en segundo plano los contadores en memoria (histograma de contrataciones y recuentos)
+    private static final Duration RECONCILIACION = Duration.ofMinutes(10);
+    // Identificadores (emp_no) que se reservan de una vez para los nuevos empleados
+    private static final int BLOQUE_IDS = 1000;
+    // Las cargas confirman cada COMMIT_INTERVAL filas y guardan aqui su checkpoint para poder reanudarse
+    private static final CheckpointStore CHECKPOINTS = new CheckpointStore(Path.of("checkpoints"));
+    // Latencias de las sentencias, tamaño de los lotes y tiempo de los commits. Las de mas de 1 s se registran como lentas
+    private static final JdbcMetrics METRICAS = new JdbcMetrics(Duration.ofSeconds(1), 100);
 
     public static void main(String[] args) {
 
         //Creamos conexion. No es necesario indicar puerto en host si usamos el default, 1521
-        //Try-with-resources. Se cierra la conexión automáticamente al salir del bloque try
-        try(Connection connection = new MySqlConnector("localhost", DATABASE).getConnection()) {
+        //Try-with-resources. La conexión vuelve al pool y el pool se cierra automáticamente al salir del bloque try
+        //El pool admite una conexion por worker de la carga en paralelo, mas la conexion principal
+        //y otra para las reconciliaciones en segundo plano
+        //allowLoadLocalInfile es necesario para el modo de carga LOAD_DATA
+        Properties driverProperties = new Properties();
+        driverProperties.setProperty("allowLoadLocalInfile", "true");
+
+        try(MySqlConnector connector = new MySqlConnector("localhost", DATABASE,
+                PoolConfig.builder().maxSize(WORKERS + 2).driverProperties(driverProperties)
+                        .statementMetrics(METRICAS).build());
+            Connection connection = connector.getConnection();
+            // Un unico histograma y unos unicos recuentos para todo el proceso: las altas sueltas los actualizan
+            // y las cargas los recalculan
+            HireHistogram hires = HireHistogram.load(connection, SqlDialect.MYSQL, false)
+                    .reconcileEvery(connector.getDataSource(), RECONCILIACION);
+            HeadcountAggregates aggregates = HeadcountAggregates.load(connection)
+                    .reconcileEvery(connector.getDataSource(), RECONCILIACION)) {
 
             log.warn("Recuerda que el fichero unirEmployees.csv debe estar en la raíz del proyecto, es decir, en la carpeta {}"
                     , System.getProperty("user.dir"));
             log.info("Conexión establecida con la base de datos MySQL");
 
-            // Leemos los datos del fichero CSV
-            //List<MySqlEmployee> employees = readData();
+            // Las cargas insertan sus propios emp_no: tras cada una se adelanta la secuencia de employeeIds
+            TableChanges.subscribe(changed -> advanceEmployeeIds(connector, changed));
 
-            // Introducimos los datos en la base de datos
-            //intake(connection, employees);
+            // Leemos los datos del fichero CSV y los introducimos en la base de datos a medida que se leen
+            //intake(connection, readData());
 
 
             /*1. Inserción en la tabla employees: Gabriel Alejandro Pérez Pereira
+            El emp_no del nuevo empleado lo genera employeeIds, sin colisiones aunque haya varias cargas a la vez
 
             SimpleDateFormat format = new SimpleDateFormat("yyy-MM-dd");
 
-            MySqlEmployee employee = new MySqlEmployee(99999,
+            BlockIdAllocator ids = employeeIds(connector);
+            MySqlEmployee employee = new MySqlEmployee((int) ids.nextId(),
                     "Pedro",
                     "Grillo",
                     "M",
                     new Date(format.parse("2024-09-01").getTime()),
                     new Date(format.parse("1995-09-27").getTime()));
 
-            upsertByMe(connection, employee);
+            upsertByMe(connection, employee, hires, aggregates);
 
              */
 
-            // 2. CSV Ingestion:
+            // 2. CSV Ingestion. Con IngestMode.LOAD_DATA se usa el cargador nativo de MySQL (cargas iniciales):
 
-            addDeptEmployees(connection);
+            addDeptEmployees(connection, IngestMode.BATCH);
+
+            // 3. CSV Ingestion en paralelo, repartiendo las filas entre WORKERS conexiones:
+            //addDeptEmployeesParallel(connector);
+
+            // 4. CSV Ingestion de las tres tablas a la vez, respetando las claves ajenas:
+            //addDeptEmployeesGraph(connector);
+
+            // Las cargas no anotan sus filas una a una en el histograma ni en los recuentos: se recalculan enteros
+            hires.reconcile(connection);
+            aggregates.reconcile(connection);
+
+            log.info("{}", METRICAS.report(10));
 
 
 
@@ -73,112 +153,58 @@ public class MySqlApplication {
 
 
     /**
-     * Lee los datos del fichero CSV y los devuelve en una lista de empleados.
+     * Abre el fichero CSV para leer los empleados de uno en uno.
      * El fichero CSV debe estar en la raíz del proyecto.
      *
-     * @return - Lista de empleados
+     * @return - Origen de empleados. Los empleados se leen a medida que se consumen, no se cargan todos en memoria.
      */
-
-    /*
-    private static List<MySqlEmployee> readData() {
-
-        // Try-with-resources. Se cierra el reader automáticamente al salir del bloque try
-        // CSVReader nos permite leer el fichero CSV linea a linea
-        try (CSVReader reader = new CSVReaderBuilder(
-                new FileReader("unirEmployees.csv"))
-                .withCSVParser(
-                        new CSVParserBuilder()
-                                .withSeparator(',')
-                                .build())
-                .build()) {
-
-            // Creamos la lista de empleados y el formato de fecha
-            List<MySqlEmployee> employees = new LinkedList<>();
-            SimpleDateFormat format = new SimpleDateFormat("yyy-MM-dd");
-
-            // Saltamos la primera linea, que contiene los nombres de las columnas del CSV
-            reader.skip(1);
-            String[] nextLine;
-
-            // Leemos el fichero linea a linea
-            while((nextLine = reader.readNext()) != null) {
-
-                // Creamos el empleado y lo añadimos a la lista
-                MySqlEmployee employee = new MySqlEmployee(
-                        Integer.parseInt(nextLine[0]),
-                        nextLine[1],
-                        nextLine[2],
-                        nextLine[3],
-                        new Date(format.parse(nextLine[4]).getTime()),
-                        new Date(format.parse(nextLine[5]).getTime())
-                );
-                employees.add(employee);
-            }
-            return employees;
+    private static RowSource<MySqlEmployee> readData() {
+
+        // El fichero se lee mapeado en memoria: enteros y fechas se leen directamente de los bytes
+        try {
+            return new MappedCsvSource<>("unirEmployees.csv", ',', row -> new MySqlEmployee(
+                    row.getInt(0),
+                    row.getString(1),
+                    row.getString(2),
+                    row.getString(3),
+                    row.getDate(4),
+                    row.getDate(5),
+                    null
+            ));
         } catch (IOException e) {
             log.error("Error al leer el fichero CSV", e);
             throw new RuntimeException(e);
-        } catch (CsvValidationException | ParseException e) {
-            throw new RuntimeException(e);
         }
     }
 
-     */
-
     /**
      * Introduce los datos en la base de datos.
      * Si el empleado ya existe, se actualiza.
      * Si no existe, se inserta.
      * Toma como referencia el campo emp_no para determinar si el empleado existe o no.
+     * La decision la toma la propia base de datos (INSERT ... ON DUPLICATE KEY UPDATE), asi que cada lote
+     * supone un unico viaje, en lugar de un SELECT COUNT(*) por empleado.
+     * Los empleados se escriben a medida que se leen del fichero, con una cola de QUEUE_DEPTH filas entre la lectura y la escritura.
      * @param connection - Conexión a la base de datos
-     * @param employees - Lista de empleados
+     * @param employees - Origen de empleados
      * @throws SQLException - Error al ejecutar la consulta
      */
-    private static void intake(Connection connection, List<MySqlEmployee> employees) throws SQLException {
-
-        String selectSql = "SELECT COUNT(*) FROM employees WHERE emp_no = ?";
-        String insertSql = "INSERT INTO employees (emp_no, first_name, last_name, gender, hire_date, birth_date) "
-                + "VALUES (?, ?, ?, ?, ?, ?)";
-        String updateSql = "UPDATE employees SET first_name = ?, last_name = ?, gender = ?, hire_date = ?, birth_date = ? WHERE emp_no = ?";
-        int lote = 5;
-        int contador = 0;
-
-        // Preparamos las consultas, una unica vez para poder reutilizarlas en el batch
-        PreparedStatement insertStatement = connection.prepareStatement(insertSql);
-        PreparedStatement updateStatement = connection.prepareStatement(updateSql);
+    private static void intake(Connection connection, RowSource<MySqlEmployee> employees) throws SQLException {
 
         // Desactivamos el autocommit para poder ejecutar el batch y hacer commit al final
         connection.setAutoCommit(false);
 
-        for (MySqlEmployee employee : employees) {
-
-            // Comprobamos si el empleado existe
-            PreparedStatement selectStatement = connection.prepareStatement(selectSql);
-            selectStatement.setInt(1, employee.getEmployeeId()); // Código del empleado
-            ResultSet resultSet = selectStatement.executeQuery();
-            resultSet.next(); // Nos movemos a la primera fila
-            int rowCount = resultSet.getInt(1);
-
-            // Si existe, actualizamos. Si no, insertamos
-            if(rowCount > 0) {
-                fillUpdateStatement(updateStatement, employee);
-                updateStatement.addBatch();
-            } else {
-                fillInsertStatement(insertStatement, employee);
-                insertStatement.addBatch();
-            }
-
-            // Ejecutamos el batch cada lote de registros
-            if (++contador % lote == 0) {
-                updateStatement.executeBatch();
-                insertStatement.executeBatch();
-            }
+        // Preparamos las sentencias una unica vez y las reutilizamos en cada lote
+        KeyExistence<MySqlEmployee> existence = keyExistence(connection, MySqlMappings.EMPLOYEES);
+        try (TableWriter<MySqlEmployee> engine = tableWriter(connection, MySqlMappings.EMPLOYEES, existence)) {
+            // Solo se envian los empleados nuevos o con cambios
+            BatchResult total = new IngestionPipeline<>(employees,
+                    new ChangeDetector<>(connection, MySqlMappings.EMPLOYEES, engine, existence),
+                    QUEUE_DEPTH, adaptiveBatchSize("employees")).run();
+            log.info("Empleados: {} insertados, {} actualizados, {} sin cambios. {}",
+                    total.inserted(), total.updated(), total.unchanged(), existence);
         }
 
-        // Ejecutamos el batch final
-        insertStatement.executeBatch();
-        updateStatement.executeBatch();
-
         /**
          * Para probar en modo DEBUG
          * Hasta que no se hace commit, los cambios no se reflejan en la base de datos
@@ -191,7 +217,7 @@ public class MySqlApplication {
          * Veras que, tras ejecutarse los batch, el empleado con emp_no 99 si existe en esta conexion contra la DB.
          * Sin embargo, si ejecutas la consulta SELECT * FROM employees en DataGrip, no verás a ese empleado aun.
          */
-        //PreparedStatement selectStatement = connection.prepareStatement(selectSql);
+        //PreparedStatement selectStatement = connection.prepareStatement("SELECT COUNT(*) FROM employees WHERE emp_no = ?");
         //selectStatement.setInt(1, 99); // Código del empleado
         //ResultSet resultSet = selectStatement.executeQuery();
         //resultSet.next(); // Nos movemos a la primera fila
@@ -202,22 +228,37 @@ public class MySqlApplication {
         // Hacemos commit y volvemos a activar el autocommit
         connection.commit();
         connection.setAutoCommit(true);
+        // Avisamos a las caches de consultas de este proceso de que employees ha cambiado
+        TableChanges.committed("employees");
     }
 
     ///////////////////////////////////// Gabriel Alejandro Pérez Pereira /////////////////////////////////////
 
-    private static void upsertByMe(Connection connection, MySqlEmployee employee) throws SQLException {
-        String selectSql = "SELECT COUNT(*) FROM employees WHERE emp_no = ?";
+    /**
+     * Inserta el empleado si no existe y lo actualiza si existe.
+     * Anota el cambio en el histograma de contrataciones y en los recuentos por género, para que no haya que recalcularlos.
+     * La conexión está en autocommit: cada sentencia ya está confirmada al terminar, y se avisa a las caches de consultas.
+     * @param connection - Conexión a la base de datos
+     * @param employee - Empleado
+     * @param hires - Histograma de contrataciones
+     * @param aggregates - Recuentos de empleados
+     * @throws SQLException - Error al ejecutar la consulta
+     */
+    private static void upsertByMe(Connection connection, MySqlEmployee employee, HireHistogram hires,
+                                   HeadcountAggregates aggregates) throws SQLException {
+        String selectSql = "SELECT hire_date, gender FROM employees WHERE emp_no = ?";
         String updateSql = "UPDATE employees SET first_name = ?, last_name=?,gender=?,hire_date=?,birth_date=? WHERE emp_no = ?";
         String insertSql = "INSERT INTO employees (emp_no, birth_date, first_name, last_name, gender,hire_date) VALUES (?,?,?,?,?,?)";
 
+        // Leemos la fecha de contratacion y el genero actuales: sirven para saber si existe y para actualizar los recuentos
         PreparedStatement selectStatement = connection.prepareStatement(selectSql);
         selectStatement.setInt(1, employee.getEmployeeId());
         ResultSet resultSet = selectStatement.executeQuery();
-        resultSet.next();
-        int rowCount = resultSet.getInt(1);
+        boolean exists = resultSet.next();
+        Date previousHireDate = exists ? resultSet.getDate(1) : null;
+        String previousGender = exists ? resultSet.getString(2) : null;
 
-        if (rowCount > 0) {
+        if (exists) {
             PreparedStatement updateStatement = connection.prepareStatement(updateSql);
             updateStatement.setString(1, employee.getFirstName());
             updateStatement.setString(2, employee.getLastName());
@@ -227,6 +268,8 @@ public class MySqlApplication {
             updateStatement.setInt(6, employee.getEmployeeId());
             int filasActualizadas = updateStatement.executeUpdate();
             log.debug("Filas Actualizadas: {}", filasActualizadas);
+            hires.moved(previousHireDate == null ? null : previousHireDate.toLocalDate(), employee.getHireDate().toLocalDate());
+            aggregates.moved(HeadcountAggregates.Dimension.GENDER, previousGender, employee.getGender());
         } else {
             PreparedStatement insertStatement = connection.prepareStatement(insertSql);
             insertStatement.setInt(1, employee.getEmployeeId());
@@ -237,226 +280,348 @@ public class MySqlApplication {
             insertStatement.setDate(6, employee.getHireDate());
             int filasInsertadas = insertStatement.executeUpdate();
             log.debug("Filas Insertadas: {}", filasInsertadas);
+            hires.hired(employee.getHireDate().toLocalDate());
+            aggregates.added(HeadcountAggregates.Dimension.GENDER, employee.getGender());
         }
+        TableChanges.committed("employees");
     }
 
-    private static void addDeptEmployees(Connection connection) throws SQLException, ParseException {
-        connection.setAutoCommit(false);
-
-        upsertDepartments(connection,"newDepartments.csv");
-        upsertEmployees(connection,"newEmployees.csv");
-
-        connection.commit();
-        connection.setAutoCommit(true);
-    }
-
-    private static void upsertDepartments(Connection connection, String fileName) throws SQLException{
-        List<MySQLDepartment> newDepartments = readDepartments(fileName);
-
-        String selectSql = "SELECT COUNT(*) FROM departments WHERE dept_no = ?";
-        String insertSql = "INSERT INTO departments (dept_no, dept_name) VALUES (?, ?)";
-        String updateSql = "UPDATE departments SET dept_name = ? WHERE dept_no = ?";
-
-        PreparedStatement insertStatement = connection.prepareStatement(insertSql);
-        PreparedStatement updateStatement = connection.prepareStatement(updateSql);
-
-        for (MySQLDepartment dept: newDepartments){
-            PreparedStatement selectStatement = connection.prepareStatement(selectSql);
-            selectStatement.setString(1, dept.getDpt_no());
-            ResultSet resultSet = selectStatement.executeQuery();
-            resultSet.next();
-
-            int rowCount = resultSet.getInt(1);
-
-            if (rowCount > 0){
-                updateStatement.setString(1, dept.getDpt_name());
-                updateStatement.setString(2, dept.getDpt_no());
-                updateStatement.addBatch();
-            } else {
-                insertStatement.setString(1, dept.getDpt_no());
-                insertStatement.setString(2, dept.getDpt_name());
-                insertStatement.addBatch();
+    /**
+     * Carga los departamentos y los empleados (con su relacion dept_emp) de los CSV.
+     * En modo BATCH cada fichero se confirma por tramos de COMMIT_INTERVAL filas con un checkpoint tras cada tramo:
+     * si la carga falla, la siguiente ejecucion continua desde el ultimo tramo confirmado.
+     * En modo LOAD_DATA todo va en una unica transaccion.
+     * @param connection - Conexión a la base de datos
+     * @param mode - Modo de carga
+     * @throws SQLException - Error al cargar
+     */
+    private static void addDeptEmployees(Connection connection, IngestMode mode) throws SQLException {
+        switch (mode) {
+            case BATCH -> {
+                // Cada tramo se confirma por separado: aunque la carga falle, ya hay cambios confirmados
+                try {
+                    upsertDepartments(connection,"newDepartments.csv");
+                    upsertEmployees(connection,"newEmployees.csv");
+                } finally {
+                    TableChanges.committed("departments", "employees", "dept_emp");
+                }
+            }
+            case LOAD_DATA -> {
+                connection.setAutoCommit(false);
+                // El CSV de empleados se lee dos veces: una para employees y otra para dept_emp
+                new MySqlBulkLoader<>(connection, MySqlMappings.DEPARTMENTS).load(readDepartments("newDepartments.csv"));
+                new MySqlBulkLoader<>(connection, MySqlMappings.EMPLOYEES).load(readEmployee("newEmployees.csv"));
+                new MySqlBulkLoader<>(connection, MySqlMappings.DEPT_EMP).load(readEmployee("newEmployees.csv"));
+                connection.commit();
+                connection.setAutoCommit(true);
+                TableChanges.committed("departments", "employees", "dept_emp");
             }
-
-            updateStatement.executeBatch();
-            insertStatement.executeBatch();
         }
     }
 
-    private static void upsertEmployees(Connection connection, String fileName) throws SQLException, ParseException {
-
-        List<MySqlEmployee> newEmployees = readEmployee(fileName);
-
-        String selectSql = "SELECT COUNT(*) FROM employees WHERE emp_no = ?";
-        String insertSql = "INSERT INTO employees (emp_no, first_name, last_name, gender,hire_date, birth_date) VALUES (?,?,?,?,?,?)";
-        String updateSql = "UPDATE employees SET first_name = ?, last_name=?, gender=?, hire_date=?, birth_date=? WHERE emp_no = ?";
+    /**
+     * Igual que addDeptEmployees, pero repartiendo las filas entre WORKERS conexiones por el hash de su clave.
+     * El CSV de empleados se lee en LECTORES tramos a la vez.
+     * Se respeta el orden de las claves ajenas: no se empieza una tabla hasta que la anterior ha hecho commit
+     * en todas sus particiones (departments, despues employees y por ultimo dept_emp).
+     * @param connector - Conector con el pool de conexiones
+     * @throws SQLException - Error en alguna particion
+     */
+    private static void addDeptEmployeesParallel(MySqlConnector connector) throws SQLException {
+        // Cada worker confirma por tramos: aunque una tabla falle, la propia tabla ya puede tener cambios confirmados
+        try {
+            new PartitionedLoader<MySQLDepartment>(connector.getDataSource(),
+                    connection -> new UpsertEngine<>(connection, SqlDialect.MYSQL, MySqlMappings.DEPARTMENTS),
+                    MySQLDepartment::getDpt_no, WORKERS, () -> adaptiveBatchSize("departments"), COMMIT_INTERVAL, QUEUE_DEPTH)
+                    .load(readDepartments("newDepartments.csv"));
+        } finally {
+            TableChanges.committed("departments");
+        }
 
-        String insertDeptEmpSql = "INSERT INTO dept_emp (emp_no, dept_no, from_date, to_date) VALUES (?,?,?,?)";
+        try {
+            new PartitionedLoader<MySqlEmployee>(connector.getDataSource(),
+                    connection -> new UpsertEngine<>(connection, SqlDialect.MYSQL, MySqlMappings.EMPLOYEES),
+                    MySqlEmployee::getEmployeeId, WORKERS, () -> adaptiveBatchSize("employees"), COMMIT_INTERVAL, QUEUE_DEPTH)
+                    .load(readEmployeeRanges("newEmployees.csv", LECTORES));
+        } finally {
+            TableChanges.committed("employees");
+        }
 
-        int lote = 5;
-        int contador = 0;
+        try {
+            new PartitionedLoader<MySqlEmployee>(connector.getDataSource(),
+                    connection -> new UpsertEngine<>(connection, SqlDialect.MYSQL, MySqlMappings.DEPT_EMP),
+                    MySqlEmployee::getEmployeeId, WORKERS, () -> adaptiveBatchSize("dept_emp"), COMMIT_INTERVAL, QUEUE_DEPTH)
+                    .load(readEmployeeRanges("newEmployees.csv", LECTORES));
+        } finally {
+            TableChanges.committed("dept_emp");
+        }
+    }
 
-        PreparedStatement insertStatement = connection.prepareStatement(insertSql);
-        PreparedStatement updateStatement = connection.prepareStatement(updateSql);
+    /**
+     * Carga departments, employees y dept_emp a la vez, cada tabla en su conexion.
+     * Las filas de dept_emp se escriben en cuanto su empleado y su departamento han hecho commit,
+     * sin esperar a que terminen las tablas padre. Las que referencian un departamento o empleado que no existe
+     * se apartan en el fichero de rechazos. Se registra el rendimiento (filas/s) de cada tabla.
+     * @param connector - Conector con el pool de conexiones. Necesita una conexion por tabla.
+     * @throws SQLException - Error en alguna tabla
+     */
+    private static void addDeptEmployeesGraph(MySqlConnector connector) throws SQLException {
+        try (RejectFile rejects = rejectFile("newEmployees.csv")) {
+            GraphLoader graph = new GraphLoader(connector.getDataSource(), MySqlApplication::adaptiveBatchSize,
+                    COMMIT_INTERVAL, QUEUE_DEPTH, rejects);
+            graph.table(MySqlMappings.DEPARTMENTS, () -> readDepartments("newDepartments.csv"),
+                    connection -> new UpsertEngine<>(connection, SqlDialect.MYSQL, MySqlMappings.DEPARTMENTS));
+            graph.table(MySqlMappings.EMPLOYEES, () -> readEmployee("newEmployees.csv"),
+                    connection -> new UpsertEngine<>(connection, SqlDialect.MYSQL, MySqlMappings.EMPLOYEES));
+            graph.table(MySqlMappings.DEPT_EMP, () -> readEmployee("newEmployees.csv"),
+                            connection -> new UpsertEngine<>(connection, SqlDialect.MYSQL, MySqlMappings.DEPT_EMP))
+                    .references("employees", MySqlEmployee::getEmployeeId)
+                    .references("departments", MySqlEmployee::getDept_no);
+            try {
+                graph.load();
+            } finally {
+                // Cada tabla confirma por tramos: aunque la carga falle, ya hay cambios confirmados
+                TableChanges.committed("departments", "employees", "dept_emp");
+            }
+        } catch (IOException e) {
+            throw new SQLException("Error al cerrar el fichero de rechazos", e);
+        }
+    }
 
-        PreparedStatement insertDeptEmpStatement = connection.prepareStatement(insertDeptEmpSql);
+    /**
+     * Carga los departamentos del CSV. Las lineas mal formadas y las filas que rechaza la base de datos
+     * se apartan en el fichero de rechazos y la carga continua con el resto.
+     * @param connection - Conexión a la base de datos
+     * @param fileName - Fichero CSV de departamentos
+     * @throws SQLException - Error al cargar
+     */
+    private static void upsertDepartments(Connection connection, String fileName) throws SQLException{
+        KeyExistence<MySQLDepartment> existence = keyExistence(connection, MySqlMappings.DEPARTMENTS);
+        try (RejectFile rejects = rejectFile(fileName);
+             TableWriter<MySQLDepartment> engine = tableWriter(connection, MySqlMappings.DEPARTMENTS, existence)) {
+            CheckpointedLoad.<MySQLDepartment>builder()
+                    .name("departments")
+                    .connection(connection)
+                    .fileName(fileName)
+                    .sources((offset, line) -> new QuarantineSource<>(readDepartments(fileName, offset, line), fileName, rejects))
+                    .writer(new QuarantineWriter<>(connection,
+                            new ChangeDetector<>(connection, MySqlMappings.DEPARTMENTS, engine, existence),
+                            MySqlMappings.DEPARTMENTS::describe, fileName, rejects))
+                    .key(MySQLDepartment::getDpt_no)
+                    .store(CHECKPOINTS)
+                    .commitInterval(COMMIT_INTERVAL)
+                    .queueDepth(QUEUE_DEPTH)
+                    .batchSizer(adaptiveBatchSize("departments"))
+                    .build()
+                    .run();
+        } catch (IOException e) {
+            throw new SQLException("Error al cerrar el fichero de rechazos", e);
+        }
+    }
 
-        for(MySqlEmployee employee: newEmployees){
-            PreparedStatement selectStatement = connection.prepareStatement(selectSql);
-            selectStatement.setInt(1, employee.getEmployeeId());
-            ResultSet resultSet = selectStatement.executeQuery();
-            resultSet.next();
-            int rowCount = resultSet.getInt(1);
+    /**
+     * Carga los empleados del CSV y su relacion con el departamento. Las lineas mal formadas y las filas que
+     * rechaza la base de datos (por ejemplo, un departamento que no existe) se apartan en el fichero de rechazos.
+     * @param connection - Conexión a la base de datos
+     * @param fileName - Fichero CSV de empleados
+     * @throws SQLException - Error al cargar
+     */
+    private static void upsertEmployees(Connection connection, String fileName) throws SQLException {
+
+        KeyExistence<MySqlEmployee> employeesExistence = keyExistence(connection, MySqlMappings.EMPLOYEES);
+        KeyExistence<MySqlEmployee> deptEmpExistence = keyExistence(connection, MySqlMappings.DEPT_EMP);
+        try (RejectFile rejects = rejectFile(fileName);
+             TableWriter<MySqlEmployee> employeesEngine = tableWriter(connection, MySqlMappings.EMPLOYEES, employeesExistence);
+             TableWriter<MySqlEmployee> deptEmpEngine = tableWriter(connection, MySqlMappings.DEPT_EMP, deptEmpExistence)) {
+
+            // Primero los empleados y despues su relacion con el departamento, por la clave ajena.
+            // Si falla dept_emp, se aparta tambien el empleado: ambos se deshacen con el mismo savepoint.
+            // Cada tabla descarta por separado las filas sin cambios: un empleado igual puede tener un departamento nuevo
+            BatchWriter<MySqlEmployee> changes = new ChangeDetector<>(connection, MySqlMappings.EMPLOYEES, employeesEngine, employeesExistence)
+                    .andThen(new ChangeDetector<>(connection, MySqlMappings.DEPT_EMP, deptEmpEngine, deptEmpExistence));
+            BatchWriter<MySqlEmployee> writer = new QuarantineWriter<>(connection, changes,
+                    employee -> MySqlMappings.EMPLOYEES.describe(employee) + ", dept_no=" + employee.getDept_no(),
+                    fileName, rejects);
+            BatchResult employeesTotal = CheckpointedLoad.<MySqlEmployee>builder()
+                    .name("employees")
+                    .connection(connection)
+                    .fileName(fileName)
+                    .sources((offset, line) -> new QuarantineSource<>(readEmployee(fileName, offset, line), fileName, rejects))
+                    .writer(writer)
+                    .key(MySqlEmployee::getEmployeeId)
+                    .store(CHECKPOINTS)
+                    .commitInterval(COMMIT_INTERVAL)
+                    .queueDepth(QUEUE_DEPTH)
+                    .batchSizer(adaptiveBatchSize("employees"))
+                    .build()
+                    .run();
+
+            log.info("Empleados: {} insertados, {} actualizados, {} sin cambios, {} rechazados",
+                    employeesTotal.inserted(), employeesTotal.updated(), employeesTotal.unchanged(), rejects.getRejected());
+            log.info("{}. {}", employeesExistence, deptEmpExistence);
+        } catch (IOException e) {
+            throw new SQLException("Error al cerrar el fichero de rechazos", e);
+        }
+    }
 
-            if(rowCount > 0){
-                fillUpdateStatement(updateStatement, employee);
-                updateStatement.addBatch();
-            } else {
-                fillInsertStatement(insertStatement, employee);
-                fillInsertDeptEmpStatement(insertDeptEmpStatement, employee);
-                insertStatement.addBatch();
-                insertDeptEmpStatement.addBatch();
-            }
+    /**
+     * Lee todas las claves de una tabla en un filtro de Bloom, para resolver por lotes si las claves de un fichero
+     * existen sin consultar las que seguro que no existen.
+     * @param connection - Conexión a la base de datos
+     * @param mapping - Tabla
+     * @return - Resolvedor de claves
+     * @throws SQLException - Error al leer las claves
+     */
+    private static <T> KeyExistence<T> keyExistence(Connection connection, TableMapping<T> mapping) throws SQLException {
+        return KeyExistence.load(connection, SqlDialect.MYSQL, mapping, FALSOS_POSITIVOS);
+    }
 
-            if (++contador % lote == 0) {
-                updateStatement.executeBatch();
-                insertStatement.executeBatch();
-                insertDeptEmpStatement.executeBatch();
-            }
+    /**
+     * Crea el escritor de una tabla: upsert nativo (INSERT ... ON DUPLICATE KEY UPDATE) o, si UPSERT_NATIVO es false,
+     * INSERT y UPDATE por separado segun las claves que existen.
+     * @param connection - Conexión a la base de datos
+     * @param mapping - Tabla
+     * @param existence - Resolvedor de claves de la tabla
+     * @return - Escritor de la tabla. Se debe cerrar.
+     * @throws SQLException - Error al preparar las sentencias
+     */
+    private static <T> TableWriter<T> tableWriter(Connection connection, TableMapping<T> mapping,
+                                                  KeyExistence<T> existence) throws SQLException {
+        return UPSERT_NATIVO
+                ? new UpsertEngine<>(connection, SqlDialect.MYSQL, mapping)
+                : new InsertOrUpdateWriter<>(connection, mapping, existence);
+    }
 
-            updateStatement.executeBatch();
-            insertStatement.executeBatch();
-            insertDeptEmpStatement.executeBatch();
+    /**
+     * Abre el fichero de rechazos de un CSV: el mismo nombre terminado en .rejects.csv
+     * @param fileName - Fichero CSV que se carga
+     * @return - Fichero de rechazos
+     */
+    private static RejectFile rejectFile(String fileName) {
+        try {
+            return new RejectFile(Path.of(fileName + ".rejects.csv"));
+        } catch (IOException e) {
+            log.error("Error al abrir el fichero de rechazos", e);
+            throw new RuntimeException(e);
         }
+    }
 
+    /**
+     * Crea un tamaño de lote adaptativo para una tabla.
+     * Cada carga (y cada worker de la carga en paralelo) necesita el suyo, porque mide sus propios tiempos.
+     * @param table - Tabla, para los logs
+     * @return - Tamaño de lote adaptativo
+     */
+    private static BatchSizer adaptiveBatchSize(String table) {
+        return AdaptiveBatchSizer.builder()
+                .name(table)
+                .initialSize(LOTE_INICIAL)
+                .maxSize(LOTE_MAXIMO)
+                .latencyCeiling(LATENCIA_MAXIMA_LOTE)
+                .memoryBudgetBytes(MEMORIA_MAXIMA_LOTE)
+                .build();
     }
 
-    private static List<MySQLDepartment> readDepartments(String dptfileName){
-        try (CSVReader reader = new CSVReaderBuilder(
-                new FileReader(dptfileName))
-                .withCSVParser(
-                        new CSVParserBuilder()
-                                .withSeparator(',')
-                                .build())
-                .build()) {
-
-            List<MySQLDepartment> departments = new LinkedList<>();
-            String[] nextLine;
-
-            reader.skip(1);
-
-            while((nextLine = reader.readNext()) != null) {
-                MySQLDepartment department = new MySQLDepartment(
-                        nextLine[0],
-                        nextLine[1]
-                );
-                departments.add(department);
-            }
-            return departments;
+    private static RowSource<MySQLDepartment> readDepartments(String dptfileName){
+        return readDepartments(dptfileName, 0, 0);
+    }
+
+    private static RowSource<MySQLDepartment> readDepartments(String dptfileName, long offset, long line){
+        try {
+            return new CsvRowSource<>(dptfileName, ',', nextLine -> new MySQLDepartment(
+                    nextLine[0],
+                    nextLine[1]
+            ), offset, line);
         } catch (IOException e) {
             log.error("Error al leer el fichero CSV", e);
             throw new RuntimeException(e);
-        } catch (CsvValidationException e) {
-            throw new RuntimeException(e);
         }
     }
 
-    private static List<MySqlEmployee> readEmployee(String empFileName) {
-        try (CSVReader reader = new CSVReaderBuilder(
-                new FileReader(empFileName))
-                .withCSVParser(
-                        new CSVParserBuilder()
-                                .withSeparator(',')
-                                .build())
-                .build()) {
-
-            List<MySqlEmployee> employees = new LinkedList<>();
-            String[] nextLine;
-            SimpleDateFormat format = new SimpleDateFormat("yyy-MM-dd");
+    private static RowSource<MySqlEmployee> readEmployee(String empFileName) {
+        return readEmployee(empFileName, 0, 0);
+    }
 
-            reader.skip(1);
-
-            while ((nextLine = reader.readNext()) != null) {
-                MySqlEmployee employee = new MySqlEmployee(
-                        Integer.parseInt(nextLine[0]),
-                        nextLine[2],
-                        nextLine[3],
-                        nextLine[4],
-                        new Date(format.parse(nextLine[5]).getTime()),
-                        new Date(format.parse(nextLine[1]).getTime()),
-                        nextLine[6]
-                );
-                employees.add(employee);
-            }
-            return employees;
+    private static RowSource<MySqlEmployee> readEmployee(String empFileName, long offset, long line) {
+
+        // El fichero se lee mapeado en memoria: enteros y fechas se leen directamente de los bytes
+        try {
+            return new MappedCsvSource<>(empFileName, ',', MySqlApplication::employee, offset, line);
         } catch (IOException e) {
             log.error("Error al leer el fichero CSV", e);
             throw new RuntimeException(e);
-        } catch (CsvValidationException | ParseException e) {
-            throw new RuntimeException(e);
         }
     }
 
-    ///////////////////////////////////// Gabriel Alejandro Pérez Pereira /////////////////////////////////////
-
     /**
-     * Rellena los parámetros de un PreparedStatement para una consulta INSERT.
-     *
-     * @param statement - PreparedStatement
-     * @param employee - Empleado
-     * @throws SQLException - Error al rellenar los parámetros
+     * Parte el CSV de empleados en tramos que empiezan y terminan en un salto de linea, para leerlos a la vez.
+     * @param empFileName - Fichero CSV de empleados
+     * @param parts - Número de tramos
+     * @return - Un origen por tramo
      */
-    private static void fillInsertStatement(PreparedStatement statement, MySqlEmployee employee) throws SQLException {
-        statement.setInt(1, employee.getEmployeeId());
-        statement.setString(2, employee.getFirstName());
-        statement.setString(3, employee.getLastName());
-        statement.setString(4, employee.getGender());
-        statement.setDate(5, employee.getHireDate());
-        statement.setDate(6, employee.getBirthDate());
+    private static List<RowSource<MySqlEmployee>> readEmployeeRanges(String empFileName, int parts) {
+        List<RowSource<MySqlEmployee>> sources = new ArrayList<>(parts);
+        try {
+            for (MappedCsvSource.Range range : MappedCsvSource.split(empFileName, parts)) {
+                sources.add(new MappedCsvSource<>(empFileName, ',', MySqlApplication::employee, range));
+            }
+            return sources;
+        } catch (IOException e) {
+            // Cerramos los tramos que ya se habian abierto
+            for (RowSource<MySqlEmployee> source : sources) {
+                try {
+                    source.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            log.error("Error al leer el fichero CSV", e);
+            throw new RuntimeException(e);
+        }
+    }
 
+    private static MySqlEmployee employee(MappedCsvSource.Row row) {
+        return new MySqlEmployee(
+                row.getInt(0),
+                row.getString(2),
+                row.getString(3),
+                row.getString(4),
+                row.getDate(5),
+                row.getDate(1),
+                row.getString(6)
+        );
     }
 
+    ///////////////////////////////////// Gabriel Alejandro Pérez Pereira /////////////////////////////////////
+
     /**
-     * Rellena los parámetros de un PreparedStatement para una consulta UPDATE.
+     * Crea el generador de nuevos emp_no.
+     * Sustituye a consultar SELECT MAX(emp_no) antes de cada alta: los identificadores se reservan en bloques
+     * de BLOQUE_IDS con una unica sentencia atomica y se reparten entre los hilos sin bloqueos,
+     * de modo que dos cargas en paralelo nunca generan el mismo emp_no.
      *
-     * @param statement - PreparedStatement
-     * @param employee - Empleado
-     * @throws SQLException - Error al rellenar los parámetros
+     * @param connector - Conector con el pool de conexiones
+     * @return - Generador de emp_no. Se debe cerrar al terminar.
+     * @throws SQLException - Error al crear o inicializar la secuencia
      */
-    private static void fillUpdateStatement(PreparedStatement statement, MySqlEmployee employee) throws SQLException {
-        statement.setString(1, employee.getFirstName());
-        statement.setString(2, employee.getLastName());
-        statement.setString(3, employee.getGender());
-        statement.setDate(4, employee.getHireDate());
-        statement.setDate(5, employee.getBirthDate());
-        statement.setInt(6, employee.getEmployeeId());
-    }
-
-    private static void fillInsertDeptEmpStatement(PreparedStatement statement, MySqlEmployee employee) throws SQLException, ParseException {
-        SimpleDateFormat format = new SimpleDateFormat("yyy-MM-dd");
-        statement.setInt(1, employee.getEmployeeId());
-        statement.setString(2, employee.getDept_no());
-        statement.setDate(3, employee.getHireDate());
-        statement.setDate(4,  new Date(format.parse("9999-01-01").getTime()));
+    private static BlockIdAllocator employeeIds(MySqlConnector connector) throws SQLException {
+        return BlockIdAllocator.forColumn(connector.getDataSource(), "employees", "emp_no", BLOQUE_IDS);
     }
 
     /**
-     * Devuelve el último id de una columna de una tabla.
-     * Util para obtener el siguiente id a insertar.
-     *
-     * @param connection - Conexión a la base de datos
-     * @param table - Nombre de la tabla
-     * @param fieldName - Nombre de la columna
-     * @return - Último id de la columna
-     * @throws SQLException - Error al ejecutar la consulta
+     * Adelanta la secuencia de emp_no si se ha modificado employees, para que employeeIds no genere
+     * identificadores que ya ha insertado una carga.
+     * @param connector - Conector con el pool de conexiones
+     * @param changed - Tablas modificadas
      */
-    private static int lastId(Connection connection, String table, String fieldName) throws SQLException {
-        String selectSql = "SELECT MAX(?) FROM ?";
-        PreparedStatement selectStatement = connection.prepareStatement(selectSql);
-        selectStatement.setString(1, fieldName);
-        selectStatement.setString(2, table);
-        ResultSet resultSet = selectStatement.executeQuery();
-        resultSet.next(); // Nos movemos a la primera fila
-        return resultSet.getInt(1);
+    private static void advanceEmployeeIds(MySqlConnector connector, Set<String> changed) {
+        if (!changed.contains("employees")) {
+            return;
+        }
+        try (Connection connection = connector.getConnection()) {
+            BlockIdAllocator.advance(connection, "employees", "emp_no");
+        } catch (SQLException e) {
+            log.warn("No se ha podido adelantar la secuencia de emp_no", e);
+        }
     }
 }
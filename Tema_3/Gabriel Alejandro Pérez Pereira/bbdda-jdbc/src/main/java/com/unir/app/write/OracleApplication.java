@@ -1,13 +1,20 @@
 package com.unir.app.write;
 
 import com.unir.config.OracleDatabaseConnector;
+import com.unir.config.SqlDialect;
+import com.unir.ingest.BatchResult;
+import com.unir.ingest.UpsertEngine;
 import com.unir.model.OracleCountry;
+import com.unir.model.OracleMappings;
 import lombok.extern.slf4j.Slf4j;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * La version para MySQL seria muy similar a esta, cambiando únicamente el Driver.
@@ -16,17 +23,26 @@ import java.sql.SQLException;
 public class OracleApplication {
 
     private static final String SERIVCE_NAME = "orcl";
+    private static final int LOTE = 500;
 
     public static void main(String[] args) {
 
         //Creamos conexion. No es necesario indicar puerto en host si usamos el default, 1521
-        //Try-with-resources. Se cierra la conexión automáticamente al salir del bloque try
-        try(Connection connection = new OracleDatabaseConnector("localhost", SERIVCE_NAME).getConnection()) {
+        //Try-with-resources. La conexión vuelve al pool y el pool se cierra automáticamente al salir del bloque try
+        try(OracleDatabaseConnector connector = new OracleDatabaseConnector("localhost", SERIVCE_NAME);
+            Connection connection = connector.getConnection()) {
 
             log.info("Conexión establecida con la base de datos Oracle");
             OracleCountry spain = new OracleCountry("ES", 1, "Spain");
             upsert(connection, spain);
 
+            // Sincronizacion de varios paises con un unico MERGE por lote
+            List<OracleCountry> countries = List.of(
+                    new OracleCountry("ES", 1, "Spain"),
+                    new OracleCountry("PT", 1, "Portugal"),
+                    new OracleCountry("MA", 4, "Morocco"));
+            upsert(connection, countries, LOTE);
+
         } catch (Exception e) {
             log.error("Error al tratar con la base de datos", e);
         }
@@ -74,4 +90,41 @@ public class OracleApplication {
             log.debug("Filas Insertadas: {}", filasInsertadas);
         }
     }
+
+    /**
+     * Inserta o actualiza varios países con una única sentencia MERGE INTO countries, preparada una sola vez.
+     * Los países se envían en lotes de chunkSize con executeBatch: el driver de Oracle manda cada lote
+     * como un array de parámetros (array DML) en un único viaje, en lugar de los tres viajes por país de
+     * {@link #upsert(Connection, OracleCountry)}.
+     * No hace commit: la transacción la controla quien lo invoca.
+     *
+     * @param connection - Conexión a la base de datos.
+     * @param countries - Países a insertar o actualizar.
+     * @param chunkSize - Países por lote.
+     * @return - Totales de todos los lotes. En Oracle, MERGE no distingue inserciones de actualizaciones (merged).
+     *           El resultado de cada lote se registra según se ejecuta.
+     * @throws SQLException - Si ocurre algún error al ejecutar algún lote.
+     */
+    public static BatchResult upsert(Connection connection, Collection<OracleCountry> countries, int chunkSize) throws SQLException {
+        try (UpsertEngine<OracleCountry> engine = new UpsertEngine<>(connection, SqlDialect.ORACLE, OracleMappings.COUNTRIES)) {
+            return engine.upsert(countries, chunkSize, OracleApplication::logChunk);
+        }
+    }
+
+    /**
+     * Igual que {@link #upsert(Connection, Collection, int)}, pero consumiendo un Stream.
+     * Los países se van leyendo a medida que se envían los lotes.
+     */
+    public static BatchResult upsert(Connection connection, Stream<OracleCountry> countries, int chunkSize) throws SQLException {
+        try (UpsertEngine<OracleCountry> engine = new UpsertEngine<>(connection, SqlDialect.ORACLE, OracleMappings.COUNTRIES)) {
+            return engine.upsert(countries, chunkSize, OracleApplication::logChunk);
+        }
+    }
+
+    /**
+     * Registra el resultado de un lote del MERGE, para seguir el avance de las sincronizaciones largas.
+     */
+    private static void logChunk(long chunk, int rows, BatchResult result) {
+        log.info("Lote {} de countries: {} paises, {} fusionados", chunk, rows, result.merged());
+    }
 }
@@ -1,35 +1,103 @@
 package com.unir.config;
 
+import com.unir.config.pool.ConnectionPool;
+import com.unir.config.pool.PoolConfig;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
+import java.util.stream.Stream;
 
 
 @Slf4j
 @Getter
-public class MySqlConnector {
-    private final Connection connection;
+public class MySqlConnector implements AutoCloseable {
 
     /**
-     * Constructor de la clase. Se conecta a la base de datos.
+     * Propiedad del driver para que las sentencias devuelvan las filas modificadas, no las encontradas.
+     * Sin ella Connector/J devuelve 1 en un INSERT ... ON DUPLICATE KEY UPDATE que no cambia la fila,
+     * igual que si la insertara, y no se pueden distinguir las filas sin cambios (ver UpsertEngine).
+     */
+    public static final String USE_AFFECTED_ROWS = "useAffectedRows";
+
+    /**
+     * Pool de conexiones. Se puede pasar a cualquier componente que espere un javax.sql.DataSource.
+     */
+    private final ConnectionPool dataSource;
+
+    /**
+     * Constructor de la clase. Se conecta a la base de datos con la configuración de pool por defecto.
      * @param host
      * @param database
      */
     public MySqlConnector(String host, String database) {
+        this(host, database, PoolConfig.builder().build());
+    }
+
+    /**
+     * Constructor de la clase. Se conecta a la base de datos y abre el pool de conexiones.
+     * La URL, las credenciales y {@link #USE_AFFECTED_ROWS} se completan aquí, el resto de valores se toman de poolConfig.
+     * @param host
+     * @param database
+     * @param poolConfig - Tamaños, tiempos de espera, validación, desalojo y detección de fugas del pool
+     */
+    public MySqlConnector(String host, String database, PoolConfig poolConfig) {
+        this(host, database, poolConfig, "mysql-" + database);
+    }
+
+    /**
+     * Como el anterior, con otro nombre de pool. Lo usa {@link RoutingMySqlConnector} para distinguir en los logs
+     * el pool de cada servidor.
+     */
+    MySqlConnector(String host, String database, PoolConfig poolConfig, String poolName) {
+
+        //Copiamos las propiedades para no modificar las de quien nos llama
+        Properties driverProperties = new Properties();
+        driverProperties.putAll(poolConfig.getDriverProperties());
+        driverProperties.setProperty(USE_AFFECTED_ROWS, "true");
 
         try {
-            //Creamos la conexión a la base de datos
-            this.connection = DriverManager.getConnection(
-                    "jdbc:mysql://" + host + "/" + database,
-                    System.getenv("MYSQL_USER"),
-                    System.getenv("MYSQL_PASSWORD"));
+            //Creamos el pool de conexiones a la base de datos
+            this.dataSource = new ConnectionPool(poolConfig.toBuilder()
+                    .poolName(poolName)
+                    .driverProperties(driverProperties)
+                    .jdbcUrl("jdbc:mysql://" + host + "/" + database)
+                    .username(System.getenv("MYSQL_USER"))
+                    .password(System.getenv("MYSQL_PASSWORD"))
+                    .build());
 
         } catch (SQLException e) {
             log.error("Error al conectar con la base de datos", e);
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Presta una conexión del pool. Al cerrarla vuelve al pool.
+     * @return - Conexión a la base de datos
+     * @throws SQLException - Si no hay conexiones libres tras esperar el tiempo configurado
+     */
+    public Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    /**
+     * Ejecuta una consulta en una conexión del pool y devuelve sus filas a medida que llegan, en memoria constante.
+     * La conexión vuelve al pool al cerrar el Stream (ver {@link ResultStream}).
+     * @param sql - Consulta, con parámetros ?
+     * @param mapper - Convierte la fila actual del ResultSet en un objeto
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Filas de la consulta. Hay que cerrarlo.
+     * @throws SQLException - Error al obtener la conexión o al ejecutar la consulta
+     */
+    public <T> Stream<T> stream(String sql, ResultStream.RowMapper<T> mapper, Object... parameters) throws SQLException {
+        return ResultStream.owning(getConnection(), SqlDialect.MYSQL, sql, mapper, parameters);
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
 }
@@ -0,0 +1,167 @@
+package com.unir.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lectura de consultas grandes como un Stream que se consume a medida que llegan las filas.
+ *
+ * Por defecto los drivers no se comportan así:
+ * - MySQL Connector/J lee el resultado entero en memoria antes de devolver la primera fila.
+ *   Con fetchSize Integer.MIN_VALUE las filas se leen del socket de una en una (streaming).
+ *   Mientras el Stream está abierto, la conexión no admite otras sentencias.
+ *   Con useCursorFetch=true en la URL, MySQL usa en su lugar un cursor del servidor y lee de fetchSize en fetchSize filas.
+ * - Oracle lee de 10 en 10 filas, lo que supone un viaje por cada 10 filas. Aquí se leen de ORACLE_PREFETCH en ORACLE_PREFETCH.
+ *
+ * Así un recorrido completo de una tabla ocupa memoria constante y devuelve la primera fila en cuanto llega.
+ * El Stream se debe cerrar (try-with-resources): al cerrarlo se cierran el ResultSet, la sentencia y, si el Stream
+ * la ha tomado del pool, la conexión. También se cierran al llegar a la última fila o si falla la lectura.
+ */
+@Slf4j
+public final class ResultStream {
+
+    /** Filas por viaje en Oracle. */
+    public static final int ORACLE_PREFETCH = 1000;
+
+    private ResultStream() {
+    }
+
+    /**
+     * Ejecuta una consulta y devuelve sus filas como un Stream perezoso.
+     * @param connection - Conexión a la base de datos. No se cierra al cerrar el Stream.
+     * @param dialect - Dialecto, para elegir el modo de lectura
+     * @param sql - Consulta, con parámetros ?
+     * @param mapper - Convierte la fila actual del ResultSet en un objeto
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Filas de la consulta. Hay que cerrarlo.
+     * @throws SQLException - Error al ejecutar la consulta
+     */
+    public static <T> Stream<T> of(Connection connection, SqlDialect dialect, String sql, RowMapper<T> mapper,
+                                   Object... parameters) throws SQLException {
+        return open(connection, false, dialect, sql, mapper, parameters);
+    }
+
+    /**
+     * Igual que {@link #of}, pero la conexión se cierra (vuelve al pool) al cerrar el Stream.
+     */
+    static <T> Stream<T> owning(Connection connection, SqlDialect dialect, String sql, RowMapper<T> mapper,
+                                Object... parameters) throws SQLException {
+        return open(connection, true, dialect, sql, mapper, parameters);
+    }
+
+    private static <T> Stream<T> open(Connection connection, boolean ownsConnection, SqlDialect dialect, String sql,
+                                      RowMapper<T> mapper, Object... parameters) throws SQLException {
+        Cursor<T> cursor = new Cursor<>(connection, ownsConnection, dialect, mapper);
+        try {
+            cursor.statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            cursor.statement.setFetchSize(dialect == SqlDialect.MYSQL ? Integer.MIN_VALUE : ORACLE_PREFETCH);
+            for (int i = 0; i < parameters.length; i++) {
+                cursor.statement.setObject(i + 1, parameters[i]);
+            }
+            cursor.resultSet = cursor.statement.executeQuery();
+        } catch (SQLException e) {
+            cursor.close();
+            throw e;
+        }
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+
+    /**
+     * Convierte la fila actual de un ResultSet en un objeto. No debe llamar a next().
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    private static final class Cursor<T> extends Spliterators.AbstractSpliterator<T> {
+
+        private final Connection connection;
+        private final boolean ownsConnection;
+        private final SqlDialect dialect;
+        private final RowMapper<T> mapper;
+        private PreparedStatement statement;
+        private ResultSet resultSet;
+        private boolean exhausted;
+        private boolean closed;
+
+        private Cursor(Connection connection, boolean ownsConnection, SqlDialect dialect, RowMapper<T> mapper) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.connection = connection;
+            this.ownsConnection = ownsConnection;
+            this.dialect = dialect;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (!resultSet.next()) {
+                    exhausted = true;
+                    close();
+                    return false;
+                }
+                action.accept(mapper.map(resultSet));
+                return true;
+            } catch (SQLException e) {
+                close();
+                log.error("Error al leer la fila", e);
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Cierra el ResultSet, la sentencia y, si es suya, la conexión. Se puede llamar varias veces.
+         */
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // Al cerrar un ResultSet de MySQL en streaming a medias, el driver lee y descarta todas las filas pendientes.
+            // Si el Stream se abandona antes del final, se cancela la consulta para no leer el resto de la tabla.
+            if (!exhausted && dialect == SqlDialect.MYSQL && resultSet != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    log.debug("No se ha podido cancelar la consulta", e);
+                }
+            }
+            // Cada uno por separado, en orden inverso al de apertura: aunque falle uno, se cierran los demás
+            try {
+                close(resultSet);
+            } finally {
+                try {
+                    close(statement);
+                } finally {
+                    if (ownsConnection) {
+                        close(connection);
+                    }
+                }
+            }
+        }
+
+        private static void close(AutoCloseable resource) {
+            if (resource == null) {
+                return;
+            }
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.warn("Error al cerrar el cursor", e);
+            }
+        }
+    }
+}
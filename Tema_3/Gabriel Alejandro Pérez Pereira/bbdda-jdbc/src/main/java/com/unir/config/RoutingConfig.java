@@ -0,0 +1,42 @@
+package com.unir.config;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Configuración del reparto de lecturas entre réplicas de {@link RoutingMySqlConnector}.
+ */
+@Builder(toBuilder = true)
+@Getter
+public class RoutingConfig {
+
+    /**
+     * Cómo se elige la réplica de cada lectura.
+     */
+    public enum Balancing {
+        /** Por turnos. */
+        ROUND_ROBIN,
+        /** La que tiene menos conexiones prestadas. */
+        LEAST_LOADED
+    }
+
+    @Builder.Default
+    private final Balancing balancing = Balancing.ROUND_ROBIN;
+
+    /** Retraso máximo de una réplica respecto al primario. Las que van más retrasadas no reciben lecturas. */
+    @Builder.Default
+    private final Duration maxLag = Duration.ofSeconds(10);
+
+    /** Periodo de la comprobación de salud y retraso de las réplicas. */
+    @Builder.Default
+    private final Duration healthCheckPeriod = Duration.ofSeconds(5);
+
+    /**
+     * Si un servidor que no está replicando (SHOW REPLICA STATUS vacío) se descarta como réplica.
+     * Desactivarlo permite probar el reparto con dos instancias locales independientes.
+     */
+    @Builder.Default
+    private final boolean requireReplication = true;
+}
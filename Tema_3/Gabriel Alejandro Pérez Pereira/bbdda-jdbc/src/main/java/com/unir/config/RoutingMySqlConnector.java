@@ -0,0 +1,513 @@
+package com.unir.config;
+
+import com.unir.config.pool.PoolConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Conector a un primario MySQL y sus réplicas: las escrituras van al primario y las lecturas se reparten entre las
+ * réplicas, que tienen una copia de los datos.
+ *
+ * - Lecturas explícitas con {@link #getReadConnection}, {@link #getReadDataSource} y {@link #stream}.
+ * - Enrutado por setReadOnly: las conexiones de {@link #getConnection} van al primario y, tras setReadOnly(true),
+ *   a una réplica. La conexión física se toma al ejecutar la primera sentencia. No se puede cambiar de servidor en
+ *   mitad de una transacción (autoCommit desactivado).
+ * - Cada healthCheckPeriod se comprueba cada réplica con SHOW REPLICA STATUS. Las que no responden, no replican o van
+ *   más de maxLag por detrás del primario dejan de recibir lecturas hasta que se recuperan. Las que no responden
+ *   al arrancar se comprueban igual, y su pool se crea cuando vuelven.
+ * - Si no hay ninguna réplica disponible, las lecturas van al primario.
+ *
+ * Las réplicas son eventualmente consistentes: una lectura justo después de una escritura propia puede no verla.
+ * Esas lecturas deben hacerse por la conexión de la escritura.
+ */
+@Slf4j
+public class RoutingMySqlConnector implements AutoCloseable {
+
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 5;
+    /** ER_PARSE_ERROR: el servidor no conoce la sentencia. Con el mismo SQLState llegan, por ejemplo, las de permisos. */
+    private static final int ER_PARSE_ERROR = 1064;
+
+    private final MySqlConnector primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final RoutingConfig routingConfig;
+    private final ScheduledExecutorService healthCheck;
+    private final DataSource readDataSource = new ReadDataSource();
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * Constructor de la clase. Abre un pool de conexiones por servidor, con la misma configuración.
+     * Las réplicas a las que no se puede conectar al arrancar quedan como no disponibles hasta que la comprobación
+     * periódica consigue conectar.
+     * @param primaryHost - Servidor primario, que recibe las escrituras
+     * @param replicaHosts - Réplicas, que reciben las lecturas. Puede estar vacía.
+     * @param database
+     * @param poolConfig - Configuración del pool de cada servidor
+     * @param routingConfig - Reparto de las lecturas y comprobación de las réplicas
+     */
+    public RoutingMySqlConnector(String primaryHost, List<String> replicaHosts, String database,
+                                 PoolConfig poolConfig, RoutingConfig routingConfig) {
+        this.routingConfig = routingConfig;
+        this.primary = new MySqlConnector(primaryHost, database, poolConfig, "mysql-" + database + "-primary");
+
+        for (String host : replicaHosts) {
+            replicas.add(new Replica(host, () -> new MySqlConnector(host, database, poolConfig,
+                    "mysql-" + database + "-replica-" + host)));
+        }
+
+        if (replicas.isEmpty()) {
+            healthCheck = null;
+            log.info("Sin réplicas: lecturas y escrituras van al primario {}", primaryHost);
+            return;
+        }
+
+        replicas.forEach(this::check);
+        healthCheck = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mysql-" + database + "-replica-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = routingConfig.getHealthCheckPeriod().toMillis();
+        healthCheck.scheduleWithFixedDelay(() -> replicas.forEach(this::check), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Conexión que va al primario o, tras setReadOnly(true), a una réplica.
+     * Solo se conservan autoCommit y readOnly al cambiar de servidor; el resto de ajustes de sesión no.
+     * @return - Conexión. Al cerrarla vuelve al pool la conexión física, si se llegó a tomar.
+     */
+    public Connection getConnection() {
+        return RoutingConnection.create(this);
+    }
+
+    /**
+     * Presta una conexión de solo lectura de una réplica disponible o, si no hay ninguna, del primario.
+     * @return - Conexión de solo lectura. Al cerrarla vuelve al pool.
+     * @throws SQLException - Si tampoco se puede obtener del primario
+     */
+    public Connection getReadConnection() throws SQLException {
+        for (int attempt = 0; attempt < replicas.size(); attempt++) {
+            Replica replica = pick();
+            if (replica == null) {
+                break;
+            }
+            Connection connection = null;
+            try {
+                connection = replica.connector.getConnection();
+                connection.setReadOnly(true);
+                replica.reads.increment();
+                return connection;
+            } catch (SQLException e) {
+                log.warn("Error al obtener conexión de la réplica {}. Se deja de usar hasta la próxima comprobación",
+                        replica.host, e);
+                replica.healthy = false;
+                closeQuietly(connection);
+            }
+        }
+
+        if (!replicas.isEmpty()) {
+            fallbacks.increment();
+            log.debug("Ninguna réplica disponible, la lectura va al primario");
+        }
+        Connection connection = primary.getConnection();
+        try {
+            connection.setReadOnly(true);
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Presta una conexión del primario, para escrituras y lecturas que deben ver los últimos cambios.
+     */
+    public Connection getWriteConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    /**
+     * @return - DataSource de lecturas, para los componentes que solo consultan (se reparten entre las réplicas)
+     */
+    public DataSource getReadDataSource() {
+        return readDataSource;
+    }
+
+    /**
+     * @return - Pool del primario
+     */
+    public DataSource getWriteDataSource() {
+        return primary.getDataSource();
+    }
+
+    /**
+     * Como {@link MySqlConnector#stream}, leyendo de una réplica.
+     */
+    public <T> Stream<T> stream(String sql, ResultStream.RowMapper<T> mapper, Object... parameters) throws SQLException {
+        return ResultStream.owning(getReadConnection(), SqlDialect.MYSQL, sql, mapper, parameters);
+    }
+
+    /**
+     * Elige una réplica disponible según la estrategia configurada.
+     * @return - Réplica, o null si no hay ninguna disponible
+     */
+    private Replica pick() {
+        List<Replica> available = replicas.stream().filter(this::available).toList();
+        if (available.isEmpty()) {
+            return null;
+        }
+        return switch (routingConfig.getBalancing()) {
+            case ROUND_ROBIN -> available.get(Math.floorMod(next.getAndIncrement(), available.size()));
+            case LEAST_LOADED -> available.stream()
+                    .min(Comparator.comparingInt(replica -> replica.connector.getDataSource().getStats().active()))
+                    .orElseThrow();
+        };
+    }
+
+    private boolean available(Replica replica) {
+        return replica.healthy && replica.connector != null
+                && replica.lagSeconds <= routingConfig.getMaxLag().toSeconds();
+    }
+
+    /**
+     * Comprueba si la réplica responde y cuánto retraso lleva respecto al primario.
+     * Solo se registran los cambios de estado.
+     */
+    private void check(Replica replica) {
+        // Sin pool todavía, vale healthy, que empieza en true: así también se registra si falla al arrancar
+        boolean wasAvailable = replica.connector == null ? replica.healthy : available(replica);
+        try (Connection connection = replica.connector().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(HEALTH_CHECK_TIMEOUT_SECONDS);
+            replica.lagSeconds = lag(replica, statement);
+            replica.healthy = true;
+        } catch (SQLException | RuntimeException e) {
+            // RuntimeException: no se ha podido crear el pool de una réplica que no respondía al arrancar
+            replica.healthy = false;
+            if (wasAvailable) {
+                log.warn("La réplica {} no responde. Las lecturas van a las demás", replica.host, e);
+            }
+            return;
+        }
+
+        if (available(replica) != wasAvailable) {
+            if (replica.lagSeconds == Long.MAX_VALUE) {
+                log.warn("La réplica {} no está replicando. Las lecturas van a las demás", replica.host);
+            } else if (wasAvailable) {
+                log.warn("La réplica {} va {} s por detrás del primario. Las lecturas van a las demás",
+                        replica.host, replica.lagSeconds);
+            } else {
+                log.info("La réplica {} vuelve a recibir lecturas ({} s de retraso)", replica.host, replica.lagSeconds);
+            }
+        }
+    }
+
+    /**
+     * Retraso de la réplica en segundos. Long.MAX_VALUE si la replicación está parada, o si el servidor no es réplica
+     * y se exige que lo sea.
+     */
+    private long lag(Replica replica, Statement statement) throws SQLException {
+        if (!replica.legacySyntax) {
+            try (ResultSet resultSet = statement.executeQuery("SHOW REPLICA STATUS")) {
+                return lag(resultSet, "Seconds_Behind_Source");
+            } catch (SQLSyntaxErrorException e) {
+                // Anterior a MySQL 8.0.22, que no conoce la sentencia. Cualquier otro error (permisos...) no cambia
+                // de sintaxis: la réplica se da por no disponible
+                if (e.getErrorCode() != ER_PARSE_ERROR) {
+                    throw e;
+                }
+                replica.legacySyntax = true;
+            }
+        }
+        try (ResultSet resultSet = statement.executeQuery("SHOW SLAVE STATUS")) {
+            return lag(resultSet, "Seconds_Behind_Master");
+        }
+    }
+
+    private long lag(ResultSet resultSet, String column) throws SQLException {
+        if (!resultSet.next()) {
+            return routingConfig.isRequireReplication() ? Long.MAX_VALUE : 0;
+        }
+        long lag = resultSet.getLong(column);
+        return resultSet.wasNull() ? Long.MAX_VALUE : lag;
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Error al devolver una conexión", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (healthCheck != null) {
+            healthCheck.shutdownNow();
+        }
+        log.debug("{}", this);
+        replicas.forEach(Replica::close);
+        primary.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Lecturas: " + replicas.stream()
+                .map(replica -> replica.host + " " + replica.reads.sum()
+                        + (available(replica) ? "" : " (no disponible)"))
+                .collect(Collectors.joining(", ", "[", "]"))
+                + ", " + fallbacks.sum() + " al primario por falta de réplicas";
+    }
+
+    /**
+     * Réplica y su estado según la última comprobación.
+     */
+    private static final class Replica {
+
+        private final String host;
+        private final Supplier<MySqlConnector> factory;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder reads = new LongAdder();
+        /** Pool de la réplica. Es null mientras no se haya podido conectar. */
+        private volatile MySqlConnector connector;
+        private volatile boolean healthy = true;
+        private volatile long lagSeconds;
+        private volatile boolean legacySyntax;
+        private boolean closed;
+
+        private Replica(String host, Supplier<MySqlConnector> factory) {
+            this.host = host;
+            this.factory = factory;
+        }
+
+        /**
+         * @return - Pool de la réplica, que se crea si aún no existe
+         * @throws RuntimeException - Si no se puede conectar con la réplica
+         */
+        private MySqlConnector connector() {
+            MySqlConnector current = connector;
+            if (current != null) {
+                return current;
+            }
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("El conector de la réplica " + host + " está cerrado");
+                }
+                if (connector == null) {
+                    connector = factory.get();
+                }
+                return connector;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                closed = true;
+                if (connector != null) {
+                    connector.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * DataSource cuyas conexiones son las de {@link #getReadConnection}.
+     */
+    private final class ReadDataSource implements DataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return getReadConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new SQLFeatureNotSupportedException("El pool usa siempre las credenciales de su configuración");
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) {
+                return iface.cast(this);
+            }
+            throw new SQLException("No es un envoltorio de " + iface.getName());
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return iface.isInstance(this);
+        }
+    }
+
+    /**
+     * Conexión que decide el servidor según readOnly y toma la conexión física al usarla por primera vez.
+     */
+    private static final class RoutingConnection implements InvocationHandler {
+
+        private final RoutingMySqlConnector connector;
+        private Connection target;
+        private boolean readOnly;
+        private boolean autoCommit = true;
+        private boolean closed;
+
+        private RoutingConnection(RoutingMySqlConnector connector) {
+            this.connector = connector;
+        }
+
+        static Connection create(RoutingMySqlConnector connector) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new RoutingConnection(connector));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "setReadOnly" -> {
+                    setReadOnly((Boolean) args[0]);
+                    return null;
+                }
+                case "isReadOnly" -> {
+                    return readOnly;
+                }
+                case "setAutoCommit" -> {
+                    if (target != null) {
+                        target.setAutoCommit((Boolean) args[0]);
+                    }
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                }
+                case "getAutoCommit" -> {
+                    return autoCommit;
+                }
+                case "commit", "rollback" -> {
+                    // Sin conexión física no hay nada que confirmar ni deshacer
+                    return target == null ? null : call(target, method, args);
+                }
+                case "close" -> {
+                    closed = true;
+                    release();
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed;
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Routing " + (target == null ? (readOnly ? "(réplica)" : "(primario)") : target);
+                }
+                default -> {
+                    return call(target(), method, args);
+                }
+            }
+        }
+
+        private void setReadOnly(boolean value) throws SQLException {
+            if (value == readOnly) {
+                return;
+            }
+            if (target != null) {
+                if (!autoCommit) {
+                    throw new SQLException("No se puede cambiar readOnly en mitad de una transacción");
+                }
+                // La siguiente sentencia tomará la conexión del otro servidor
+                release();
+            }
+            readOnly = value;
+        }
+
+        private Connection target() throws SQLException {
+            if (closed) {
+                throw new SQLException("La conexión está cerrada");
+            }
+            if (target == null) {
+                Connection connection = readOnly ? connector.getReadConnection() : connector.getWriteConnection();
+                try {
+                    connection.setAutoCommit(autoCommit);
+                } catch (SQLException e) {
+                    closeQuietly(connection);
+                    throw e;
+                }
+                target = connection;
+            }
+            return target;
+        }
+
+        private void release() throws SQLException {
+            if (target != null) {
+                Connection connection = target;
+                target = null;
+                connection.close();
+            }
+        }
+
+        private static Object call(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
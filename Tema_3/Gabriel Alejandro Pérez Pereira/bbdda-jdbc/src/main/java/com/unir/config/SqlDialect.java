@@ -0,0 +1,10 @@
+package com.unir.config;
+
+/**
+ * Bases de datos soportadas por el proyecto.
+ * Los componentes que generan SQL (upsert, paginación...) eligen la sintaxis en función del dialecto.
+ */
+public enum SqlDialect {
+    MYSQL,
+    ORACLE
+}
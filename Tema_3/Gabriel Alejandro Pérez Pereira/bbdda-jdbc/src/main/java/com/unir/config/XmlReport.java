@@ -0,0 +1,228 @@
+package com.unir.config;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+
+/**
+ * Lectura de columnas XML (XMLType en Oracle) sin cargar el documento entero en memoria.
+ *
+ * Con ResultSet.getString el driver construye un String con el documento completo: con un XMLAGG de una tabla
+ * grande ocupa cientos de MB de heap. Aquí la columna se lee como {@link SQLXML} y se recorre como un flujo de bytes:
+ * - {@link #document}: un único documento (por ejemplo un XMLAGG) entregado a un lector StAX.
+ * - {@link #pipe}: un único documento copiado tal cual a un fichero, una respuesta HTTP o cualquier OutputStream.
+ * - {@link #rows}: un XMLELEMENT por fila, en lugar de un XMLAGG gigante. Cada fila se entrega a un lector StAX o se
+ *   escribe dentro de un elemento raíz. Ni la base de datos ni Java tienen que construir el documento completo.
+ *
+ * Cada SQLXML se libera al terminar con él: en Oracle ocupa un LOB temporal en el servidor hasta que se libera.
+ */
+public final class XmlReport {
+
+    private XmlReport() {
+    }
+
+    /**
+     * Recibe un documento o fragmento XML como un lector StAX, que se recorre evento a evento.
+     */
+    @FunctionalInterface
+    public interface XmlConsumer {
+        void accept(XMLStreamReader reader) throws XMLStreamException;
+    }
+
+    /**
+     * Ejecuta una consulta que devuelve un único documento XML en la primera columna y lo entrega a un lector StAX.
+     * @param connection - Conexión a la base de datos
+     * @param sql - Consulta, con parámetros ?
+     * @param consumer - Recorre el documento. El lector solo es válido dentro de la llamada.
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Si la consulta ha devuelto un documento
+     * @throws SQLException - Error al ejecutar la consulta o al leer el XML
+     */
+    public static boolean document(Connection connection, String sql, XmlConsumer consumer, Object... parameters)
+            throws SQLException {
+        try (PreparedStatement statement = prepare(connection, sql, parameters);
+             ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() && read(resultSet, consumer);
+        }
+    }
+
+    /**
+     * Ejecuta una consulta que devuelve un único documento XML en la primera columna y copia sus bytes a out.
+     * @param connection - Conexión a la base de datos
+     * @param sql - Consulta, con parámetros ?
+     * @param out - Destino. No se cierra.
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Bytes copiados, o -1 si la consulta no ha devuelto ningún documento
+     * @throws SQLException - Error al ejecutar la consulta o al escribir en out
+     */
+    public static long pipe(Connection connection, String sql, OutputStream out, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = prepare(connection, sql, parameters);
+             ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                return -1;
+            }
+            SQLXML xml = resultSet.getSQLXML(1);
+            if (xml == null) {
+                return -1;
+            }
+            try (InputStream in = xml.getBinaryStream()) {
+                return in.transferTo(out);
+            } catch (IOException e) {
+                throw new SQLException("Error al copiar el documento XML", e);
+            } finally {
+                xml.free();
+            }
+        }
+    }
+
+    /**
+     * Ejecuta una consulta con un elemento XML por fila en la primera columna y entrega cada uno a un lector StAX.
+     * Las filas se leen de ResultStream.ORACLE_PREFETCH en ResultStream.ORACLE_PREFETCH.
+     * @param connection - Conexión a la base de datos
+     * @param sql - Consulta, con parámetros ?
+     * @param consumer - Recorre cada elemento. El lector solo es válido dentro de la llamada.
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Elementos leídos
+     * @throws SQLException - Error al ejecutar la consulta o al leer el XML
+     */
+    public static long rows(Connection connection, String sql, XmlConsumer consumer, Object... parameters)
+            throws SQLException {
+        long rows = 0;
+        try (PreparedStatement statement = prepare(connection, sql, parameters);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                if (read(resultSet, consumer)) {
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Ejecuta una consulta con un elemento XML por fila en la primera columna y los escribe en out dentro de un
+     * elemento raíz, formando un único documento. Equivale a XMLELEMENT(root, XMLAGG(...)) sin que la base de datos
+     * tenga que construir el documento completo.
+     * @param connection - Conexión a la base de datos
+     * @param sql - Consulta, con parámetros ?
+     * @param root - Nombre del elemento raíz
+     * @param out - Destino. No se cierra.
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Elementos escritos
+     * @throws SQLException - Error al ejecutar la consulta, al leer el XML o al escribir en out
+     */
+    public static long rows(Connection connection, String sql, String root, OutputStream out, Object... parameters)
+            throws SQLException {
+        XMLEventFactory events = XMLEventFactory.newDefaultFactory();
+        try {
+            XMLEventWriter writer = XMLOutputFactory.newDefaultFactory().createXMLEventWriter(out, "UTF-8");
+            writer.add(events.createStartDocument("UTF-8"));
+            writer.add(events.createStartElement("", "", root));
+            long rows = 0;
+            try (PreparedStatement statement = prepare(connection, sql, parameters);
+                 ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (copy(resultSet, writer)) {
+                        rows++;
+                    }
+                }
+            }
+            writer.add(events.createEndElement("", "", root));
+            writer.add(events.createEndDocument());
+            writer.flush();
+            writer.close();
+            return rows;
+        } catch (XMLStreamException e) {
+            throw new SQLException("Error al escribir el documento XML", e);
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, Object... parameters) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            statement.setFetchSize(ResultStream.ORACLE_PREFETCH);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            return statement;
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Entrega el XML de la fila actual a un lector StAX y lo libera.
+     */
+    private static boolean read(ResultSet resultSet, XmlConsumer consumer) throws SQLException {
+        SQLXML xml = resultSet.getSQLXML(1);
+        if (xml == null) {
+            return false;
+        }
+        try (InputStream in = xml.getBinaryStream()) {
+            XMLStreamReader reader = inputFactory().createXMLStreamReader(in);
+            try {
+                consumer.accept(reader);
+            } finally {
+                reader.close();
+            }
+            return true;
+        } catch (XMLStreamException | IOException e) {
+            throw new SQLException("Error al leer el XML de la fila", e);
+        } finally {
+            xml.free();
+        }
+    }
+
+    /**
+     * Copia el XML de la fila actual a writer, sin su declaración de documento, y lo libera.
+     */
+    private static boolean copy(ResultSet resultSet, XMLEventWriter writer) throws SQLException, XMLStreamException {
+        SQLXML xml = resultSet.getSQLXML(1);
+        if (xml == null) {
+            return false;
+        }
+        try (InputStream in = xml.getBinaryStream()) {
+            XMLEventReader reader = inputFactory().createXMLEventReader(in);
+            try {
+                while (reader.hasNext()) {
+                    XMLEvent event = reader.nextEvent();
+                    if (!event.isStartDocument() && !event.isEndDocument()) {
+                        writer.add(event);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new SQLException("Error al leer el XML de la fila", e);
+        } finally {
+            xml.free();
+        }
+    }
+
+    /**
+     * Parser StAX de la JDK, aunque haya otra implementación en el classpath, sin DTDs ni entidades externas:
+     * el XML viene de la base de datos y no debe poder leer ficheros locales.
+     */
+    private static XMLInputFactory inputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
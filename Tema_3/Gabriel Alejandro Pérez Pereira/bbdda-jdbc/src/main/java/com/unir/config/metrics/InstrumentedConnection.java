@@ -0,0 +1,219 @@
+package com.unir.config.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Envoltorios de Connection, Statement y ResultSet que registran en {@link JdbcMetrics} lo que hacen.
+ * El resto de métodos (y unwrap) pasan directamente al objeto del driver.
+ */
+final class InstrumentedConnection {
+
+    private InstrumentedConnection() {
+    }
+
+    static Connection wrap(Connection connection, JdbcMetrics metrics) {
+        InvocationHandler handler = (proxy, method, args) -> switch (method.getName()) {
+            case "prepareStatement", "prepareCall" -> statement(
+                    (Statement) call(connection, method, args), (String) args[0], proxy, metrics);
+            case "createStatement" -> statement((Statement) call(connection, method, args), null, proxy, metrics);
+            case "commit" -> {
+                long start = System.nanoTime();
+                call(connection, method, args);
+                metrics.commit((System.nanoTime() - start) / 1000);
+                yield null;
+            }
+            case "rollback" -> {
+                metrics.rollback();
+                yield call(connection, method, args);
+            }
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "Instrumented " + connection;
+            default -> call(connection, method, args);
+        };
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+
+    /**
+     * Envuelve una sentencia. Las PreparedStatement tienen un único SQL, cuya huella se calcula una vez;
+     * las Statement reciben el SQL en cada ejecución.
+     */
+    private static Statement statement(Statement statement, String sql, Object connection, JdbcMetrics metrics) {
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class
+                : Statement.class;
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                new StatementHandler(statement, sql, connection, metrics));
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+        private final String sql;
+        private final String fingerprint;
+        private final Object connection;
+        private final JdbcMetrics metrics;
+        private final Map<Integer, Object> parameters = new TreeMap<>();
+        private int batchSize;
+        private String batchSql;
+        private String lastSql;
+
+        private StatementHandler(Statement statement, String sql, Object connection, JdbcMetrics metrics) {
+            this.statement = statement;
+            this.sql = sql;
+            this.fingerprint = sql == null ? null : JdbcMetrics.fingerprint(sql);
+            this.connection = connection;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "execute", "executeQuery", "executeUpdate", "executeLargeUpdate" -> {
+                    // Statement recibe el SQL como primer argumento; PreparedStatement no recibe ninguno
+                    String executed = args != null && args.length > 0 && args[0] instanceof String text ? text : sql;
+                    return execute(method, args, executed);
+                }
+                case "addBatch" -> {
+                    if (args != null && args.length == 1) {
+                        batchSql = (String) args[0];
+                    }
+                    batchSize++;
+                    return call(statement, method, args);
+                }
+                case "clearBatch" -> {
+                    batchSize = 0;
+                    return call(statement, method, args);
+                }
+                case "executeBatch", "executeLargeBatch" -> {
+                    return executeBatch(method, args);
+                }
+                case "clearParameters" -> {
+                    parameters.clear();
+                    return call(statement, method, args);
+                }
+                case "getResultSet", "getGeneratedKeys" -> {
+                    return resultSet((ResultSet) call(statement, method, args), stats(lastSql != null ? lastSql : sql));
+                }
+                case "getConnection" -> {
+                    return connection;
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Instrumented " + statement;
+                }
+                default -> {
+                    // setInt(1, ...), setString(2, ...), setNull(3, ...)...: se guardan para el registro de lentas
+                    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                        parameters.put(index, name.equals("setNull") ? null : args[1]);
+                    }
+                    return call(statement, method, args);
+                }
+            }
+        }
+
+        private Object execute(Method method, Object[] args, String executed) throws Throwable {
+            lastSql = executed;
+            JdbcMetrics.Statistics stats = stats(executed);
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = call(statement, method, args);
+            } catch (Throwable e) {
+                stats.errors.increment();
+                throw e;
+            }
+            long micros = (System.nanoTime() - start) / 1000;
+            stats.latency.record(micros);
+            metrics.slow(fingerprint(executed), executed, snapshot(), micros);
+            return result instanceof ResultSet resultSet ? resultSet(resultSet, stats) : result;
+        }
+
+        private Object executeBatch(Method method, Object[] args) throws Throwable {
+            String executed = sql != null ? sql : batchSql;
+            JdbcMetrics.Statistics stats = stats(executed);
+            int size = batchSize;
+            batchSize = 0;
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = call(statement, method, args);
+            } catch (Throwable e) {
+                stats.errors.increment();
+                throw e;
+            }
+            long micros = (System.nanoTime() - start) / 1000;
+            stats.latency.record(micros);
+            stats.batch(size);
+            metrics.slow(fingerprint(executed), executed, List.of("lote de " + size + " filas"), micros);
+            return result;
+        }
+
+        private JdbcMetrics.Statistics stats(String executed) {
+            return metrics.statement(fingerprint(executed));
+        }
+
+        private String fingerprint(String executed) {
+            if (executed == null) {
+                return "?";
+            }
+            return executed == sql ? fingerprint : JdbcMetrics.fingerprint(executed);
+        }
+
+        private List<Object> snapshot() {
+            return Collections.unmodifiableList(new ArrayList<>(parameters.values()));
+        }
+    }
+
+    /**
+     * Envuelve un ResultSet para contar las filas leídas.
+     */
+    private static ResultSet resultSet(ResultSet resultSet, JdbcMetrics.Statistics stats) {
+        if (resultSet == null) {
+            return null;
+        }
+        InvocationHandler handler = (proxy, method, args) -> switch (method.getName()) {
+            case "next" -> {
+                boolean next = (Boolean) call(resultSet, method, args);
+                if (next) {
+                    stats.rows.increment();
+                }
+                yield next;
+            }
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "Instrumented " + resultSet;
+            default -> call(resultSet, method, args);
+        };
+        return (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, handler);
+    }
+}
@@ -0,0 +1,211 @@
+package com.unir.config.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Métricas de las sentencias SQL ejecutadas por las conexiones instrumentadas con {@link #wrap}.
+ *
+ * - Por cada sentencia, agrupada por su huella (el SQL sin literales ni espacios de más, ver {@link #fingerprint}):
+ *   histograma de latencias, ejecuciones, errores, filas leídas y tamaño de los lotes.
+ * - Histograma de los commits y número de rollbacks.
+ * - Registro de consultas lentas: las que superan slowThreshold, con los valores de sus parámetros.
+ *   Se guardan las últimas slowLogSize y se escriben en el log como WARN.
+ *
+ * {@link #snapshot} devuelve una foto de todas las sentencias, ordenada por tiempo total: las primeras son las que
+ * más conviene optimizar. Es seguro entre hilos y no usa locks al registrar ejecuciones.
+ */
+@Slf4j
+public class JdbcMetrics {
+
+    private static final Pattern STRINGS = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBERS = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern IN_LISTS = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final Duration slowThreshold;
+    private final int slowLogSize;
+    private final Map<String, Statistics> statements = new ConcurrentHashMap<>();
+    private final LatencyHistogram commits = new LatencyHistogram();
+    private final LongAdder rollbacks = new LongAdder();
+    private final ReentrantLock slowLock = new ReentrantLock();
+    private final ArrayDeque<SlowQuery> slowQueries = new ArrayDeque<>();
+
+    /**
+     * @param slowThreshold - Las ejecuciones que tardan más se guardan en el registro de consultas lentas
+     * @param slowLogSize - Consultas lentas que se guardan (las más recientes)
+     */
+    public JdbcMetrics(Duration slowThreshold, int slowLogSize) {
+        this.slowThreshold = slowThreshold;
+        this.slowLogSize = slowLogSize;
+    }
+
+    /**
+     * Envuelve una conexión para medir sus sentencias, ResultSets y commits. Cerrar el envoltorio cierra la conexión.
+     */
+    public Connection wrap(Connection connection) {
+        return InstrumentedConnection.wrap(connection, this);
+    }
+
+    /**
+     * Huella de una sentencia: el SQL con los literales sustituidos por ?, las listas de parámetros (?, ?, ...) como (?+)
+     * y los espacios colapsados. Las ejecuciones de la misma consulta con distintos valores comparten huella.
+     */
+    public static String fingerprint(String sql) {
+        String fingerprint = STRINGS.matcher(sql).replaceAll("?");
+        fingerprint = NUMBERS.matcher(fingerprint).replaceAll("?");
+        fingerprint = IN_LISTS.matcher(fingerprint).replaceAll("(?+)");
+        return SPACES.matcher(fingerprint).replaceAll(" ").strip();
+    }
+
+    Statistics statement(String fingerprint) {
+        return statements.computeIfAbsent(fingerprint, f -> new Statistics());
+    }
+
+    void commit(long micros) {
+        commits.record(micros);
+    }
+
+    void rollback() {
+        rollbacks.increment();
+    }
+
+    /**
+     * Registra una ejecución lenta, si lo es.
+     */
+    void slow(String fingerprint, String sql, List<Object> parameters, long micros) {
+        if (micros < TimeUnit.NANOSECONDS.toMicros(slowThreshold.toNanos())) {
+            return;
+        }
+        SlowQuery slow = new SlowQuery(Instant.now(), micros / 1000, fingerprint, sql, parameters);
+        log.warn("Consulta lenta ({} ms): {} {}", slow.millis(), sql, parameters);
+        slowLock.lock();
+        try {
+            if (slowQueries.size() == slowLogSize) {
+                slowQueries.removeFirst();
+            }
+            slowQueries.addLast(slow);
+        } finally {
+            slowLock.unlock();
+        }
+    }
+
+    /**
+     * @return - Estadísticas de cada sentencia, de mayor a menor tiempo total
+     */
+    public List<StatementStats> snapshot() {
+        List<StatementStats> snapshot = new ArrayList<>();
+        statements.forEach((fingerprint, statistics) -> snapshot.add(statistics.snapshot(fingerprint)));
+        snapshot.sort(Comparator.comparingLong(StatementStats::totalMillis).reversed());
+        return snapshot;
+    }
+
+    /**
+     * @return - Consultas lentas, de la más antigua a la más reciente
+     */
+    public List<SlowQuery> slowQueries() {
+        slowLock.lock();
+        try {
+            return List.copyOf(slowQueries);
+        } finally {
+            slowLock.unlock();
+        }
+    }
+
+    /**
+     * @return - Latencias de los commits
+     */
+    public LatencyHistogram getCommits() {
+        return commits;
+    }
+
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    /**
+     * @param top - Sentencias que se incluyen
+     * @return - Resumen legible de las top sentencias con más tiempo total y de los commits
+     */
+    public String report(int top) {
+        StringBuilder report = new StringBuilder("Sentencias SQL por tiempo total:");
+        snapshot().stream().limit(top).forEach(stats -> report.append("\n  ").append(stats));
+        report.append("\n  Commits: ").append(commits.getCount())
+                .append(", p50 ").append(commits.percentile(50) / 1000.0).append(" ms")
+                .append(", p99 ").append(commits.percentile(99) / 1000.0).append(" ms")
+                .append(", rollbacks: ").append(rollbacks.sum());
+        return report.toString();
+    }
+
+    /**
+     * Estadísticas acumuladas de una sentencia. Se actualizan sin locks.
+     */
+    static final class Statistics {
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        final LongAdder batchedRows = new LongAdder();
+        final LongAccumulator maxBatch = new LongAccumulator(Math::max, 0);
+
+        void batch(int size) {
+            batches.increment();
+            batchedRows.add(size);
+            maxBatch.accumulate(size);
+        }
+
+        private StatementStats snapshot(String fingerprint) {
+            long batchCount = batches.sum();
+            return new StatementStats(fingerprint,
+                    latency.getCount(),
+                    errors.sum(),
+                    latency.getTotalMicros() / 1000,
+                    latency.getMeanMicros(),
+                    latency.percentile(50),
+                    latency.percentile(95),
+                    latency.percentile(99),
+                    latency.getMaxMicros(),
+                    rows.sum(),
+                    batchCount,
+                    batchCount == 0 ? 0 : batchedRows.sum() / batchCount,
+                    maxBatch.get());
+        }
+    }
+
+    /**
+     * Estadísticas de una sentencia. Las latencias están en microsegundos.
+     */
+    public record StatementStats(String fingerprint, long executions, long errors, long totalMillis, long meanMicros,
+                                 long p50Micros, long p95Micros, long p99Micros, long maxMicros, long rowsFetched,
+                                 long batches, long avgBatchSize, long maxBatchSize) {
+
+        @Override
+        public String toString() {
+            return String.format("%,d ms en %,d ejecuciones (p50 %.1f ms, p99 %.1f ms, max %.1f ms), %,d filas, "
+                            + "%,d lotes (media %d, max %d), %d errores: %s",
+                    totalMillis, executions, p50Micros / 1000.0, p99Micros / 1000.0, maxMicros / 1000.0,
+                    rowsFetched, batches, avgBatchSize, maxBatchSize, errors, fingerprint);
+        }
+    }
+
+    /**
+     * Ejecución lenta, con los valores de sus parámetros.
+     */
+    public record SlowQuery(Instant at, long millis, String fingerprint, String sql, List<Object> parameters) {
+    }
+}
@@ -0,0 +1,394 @@
+package com.unir.config.pool;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Pool de conexiones JDBC acotado, expuesto como un javax.sql.DataSource.
+ * Las conexiones que devuelve son envoltorios: al hacer close() la conexión física vuelve al pool en lugar de cerrarse,
+ * por lo que el patrón try-with-resources de las aplicaciones sigue funcionando igual.
+ *
+ * - El número de conexiones prestadas a la vez está limitado por un semáforo de maxSize permisos.
+ * - Las conexiones ociosas se reutilizan en orden LIFO, así las menos usadas acaban desalojándose por idleTimeout.
+ * - Antes de prestar una conexión que lleva tiempo sin usarse, se valida con Connection.isValid.
+ * - Al prestar una conexión se captura la pila del hilo, para poder indicar dónde se pidió si no se devuelve.
+ * - Si la configuración tiene statementMetrics, la conexión prestada se envuelve también para medir sus sentencias.
+ *
+ * No usamos bloques synchronized para que los hilos virtuales no queden anclados a su hilo portador mientras esperan.
+ */
+@Slf4j
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    @Getter
+    private final PoolConfig config;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final PoolMetrics metrics = new PoolMetrics();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    private PrintWriter logWriter;
+    private int loginTimeout;
+
+    /**
+     * Crea el pool y abre las conexiones mínimas.
+     * @param config - Configuración del pool
+     * @throws SQLException - Si no se pueden abrir las conexiones mínimas
+     */
+    public ConnectionPool(PoolConfig config) throws SQLException {
+        if (config.getMaxSize() <= 0 || config.getMinSize() < 0 || config.getMinSize() > config.getMaxSize()) {
+            throw new IllegalArgumentException("Tamaños de pool no válidos: min=" + config.getMinSize()
+                    + ", max=" + config.getMaxSize());
+        }
+        this.config = config;
+        this.permits = new Semaphore(config.getMaxSize(), true);
+
+        try {
+            for (int i = 0; i < config.getMinSize(); i++) {
+                idle.offerLast(create());
+            }
+        } catch (SQLException e) {
+            idle.forEach(this::destroy);
+            throw e;
+        }
+
+        long period = config.getHousekeepingPeriod().toMillis();
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, config.getPoolName() + "-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+        log.info("Pool {} iniciado con {} conexiones (min={}, max={})",
+                config.getPoolName(), total.get(), config.getMinSize(), config.getMaxSize());
+    }
+
+    /**
+     * Presta una conexión del pool. Si no hay ninguna libre y ya se ha alcanzado maxSize,
+     * espera como mucho connectionTimeout a que otro hilo devuelva la suya.
+     * @return - Conexión. Al cerrarla vuelve al pool.
+     * @throws SQLException - Si se agota el tiempo de espera o no se puede abrir una conexión nueva
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("El pool " + config.getPoolName() + " está cerrado");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+        waiting.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(config.getConnectionTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido mientras se esperaba una conexión", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        if (!acquired) {
+            metrics.recordTimeout();
+            throw new SQLTransientConnectionException("No hay conexiones libres en el pool " + config.getPoolName()
+                    + " tras esperar " + config.getConnectionTimeout().toMillis() + " ms");
+        }
+
+        try {
+            PooledConnection pooled = takeIdleOrCreate();
+            metrics.recordBorrow(System.nanoTime() - start);
+            pooled.lease(config.getLeakDetectionThreshold().isZero()
+                    ? null
+                    : new Exception("Conexión prestada por el hilo " + Thread.currentThread().getName()));
+            borrowed.add(pooled);
+            Connection handle = pooled.newHandle();
+            return config.getStatementMetrics() == null ? handle : config.getStatementMetrics().wrap(handle);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("El pool usa siempre las credenciales de su configuración");
+    }
+
+    /**
+     * @return - Estadísticas actuales del pool, incluidos los tiempos de espera
+     */
+    public PoolMetrics.PoolStats getStats() {
+        return metrics.snapshot(borrowed.size(), idle.size(), waiting.get());
+    }
+
+    /**
+     * Cierra el pool. Las conexiones ociosas se cierran ya; las prestadas, cuando se devuelvan.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        log.info("Pool {} cerrado. {}", config.getPoolName(), getStats());
+    }
+
+    private PooledConnection takeIdleOrCreate() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (pooled.idleNanos() < config.getValidationInterval().toNanos() || pooled.isValid()) {
+                return pooled;
+            }
+            metrics.recordValidationFailure();
+            log.warn("Descartada una conexión no válida del pool {}", config.getPoolName());
+            destroy(pooled);
+        }
+        return create();
+    }
+
+    private PooledConnection create() throws SQLException {
+        Properties properties = new Properties();
+        properties.putAll(config.getDriverProperties());
+        if (config.getUsername() != null) {
+            properties.setProperty("user", config.getUsername());
+        }
+        if (config.getPassword() != null) {
+            properties.setProperty("password", config.getPassword());
+        }
+        Connection physical = DriverManager.getConnection(config.getJdbcUrl(), properties);
+        total.incrementAndGet();
+        metrics.recordCreated();
+        return new PooledConnection(physical);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            log.debug("Error al cerrar una conexión del pool {}", config.getPoolName(), e);
+        } finally {
+            total.decrementAndGet();
+            metrics.recordDestroyed();
+        }
+    }
+
+    /**
+     * Devuelve una conexión al pool. Deshace la transacción pendiente y restaura el estado por defecto,
+     * para que el siguiente hilo no herede autocommit desactivado ni cambios sin confirmar.
+     */
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            if (closed) {
+                destroy(pooled);
+                return;
+            }
+            Connection physical = pooled.physical;
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly()) {
+                physical.setReadOnly(false);
+            }
+            physical.clearWarnings();
+            pooled.touch();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            log.warn("No se pudo restaurar una conexión del pool {}. Se descarta", config.getPoolName(), e);
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Tarea periódica: desaloja conexiones ociosas, avisa de posibles fugas y repone el mínimo de conexiones.
+     */
+    private void housekeep() {
+        try {
+            long idleTimeout = config.getIdleTimeout().toNanos();
+            for (PooledConnection pooled : idle) {
+                if (total.get() > config.getMinSize() && pooled.idleNanos() > idleTimeout && idle.remove(pooled)) {
+                    log.debug("Desalojando conexión ociosa del pool {}", config.getPoolName());
+                    destroy(pooled);
+                }
+            }
+
+            long leakThreshold = config.getLeakDetectionThreshold().toNanos();
+            if (leakThreshold > 0) {
+                for (PooledConnection pooled : borrowed) {
+                    if (pooled.leaseNanos() > leakThreshold && pooled.markLeakReported()) {
+                        metrics.recordLeak();
+                        log.warn("Posible fuga de conexión en el pool {}: lleva prestada {} ms",
+                                config.getPoolName(), TimeUnit.NANOSECONDS.toMillis(pooled.leaseNanos()),
+                                pooled.leaseStack);
+                    }
+                }
+            }
+
+            // Reponemos conexiones con un permiso, para no superar nunca maxSize
+            while (!closed && total.get() < config.getMinSize() && permits.tryAcquire()) {
+                try {
+                    idle.offerLast(create());
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Error en el mantenimiento del pool {}", config.getPoolName(), e);
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("El pool no implementa " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * Conexión física gestionada por el pool, junto con su estado de préstamo.
+     */
+    private final class PooledConnection {
+
+        private final Connection physical;
+        private volatile long lastUsedNanos = System.nanoTime();
+        private volatile long leasedAtNanos;
+        private volatile Exception leaseStack;
+        private final AtomicBoolean leakReported = new AtomicBoolean();
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private void lease(Exception stack) {
+            this.leasedAtNanos = System.nanoTime();
+            this.leaseStack = stack;
+            this.leakReported.set(false);
+        }
+
+        private void touch() {
+            this.lastUsedNanos = System.nanoTime();
+            this.leaseStack = null;
+        }
+
+        private long idleNanos() {
+            return System.nanoTime() - lastUsedNanos;
+        }
+
+        private long leaseNanos() {
+            return System.nanoTime() - leasedAtNanos;
+        }
+
+        private boolean markLeakReported() {
+            return leakReported.compareAndSet(false, true);
+        }
+
+        private boolean isValid() {
+            try {
+                return physical.isValid((int) Math.max(1, config.getValidationTimeout().toSeconds()));
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Crea un envoltorio nuevo en cada préstamo, de modo que un envoltorio ya cerrado no pueda
+         * seguir usando la conexión física después de que otro hilo la haya obtenido.
+         */
+        private Connection newHandle() {
+            AtomicBoolean handleClosed = new AtomicBoolean();
+            InvocationHandler handler = (proxy, method, args) -> switch (method.getName()) {
+                case "close" -> {
+                    if (handleClosed.compareAndSet(false, true)) {
+                        release(this);
+                    }
+                    yield null;
+                }
+                case "isClosed" -> handleClosed.get() || physical.isClosed();
+                case "equals" -> proxy == args[0];
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "toString" -> "Pooled[" + config.getPoolName() + "] " + physical;
+                default -> {
+                    if (handleClosed.get()) {
+                        throw new SQLException("La conexión ya se ha devuelto al pool " + config.getPoolName());
+                    }
+                    yield invoke(method, args);
+                }
+            };
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+        }
+
+        private Object invoke(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
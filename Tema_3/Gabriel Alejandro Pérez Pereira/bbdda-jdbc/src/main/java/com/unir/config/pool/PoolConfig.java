@@ -0,0 +1,67 @@
+package com.unir.config.pool;
+
+import com.unir.config.metrics.JdbcMetrics;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.Properties;
+
+/**
+ * Configuración del pool de conexiones.
+ * Los valores por defecto son razonables para las aplicaciones de lectura y escritura del proyecto.
+ */
+@Builder(toBuilder = true)
+@Getter
+public class PoolConfig {
+
+    /** Nombre del pool. Se usa en los logs y en los hilos de mantenimiento. */
+    @Builder.Default
+    private final String poolName = "pool";
+
+    /** URL JDBC de la base de datos. */
+    private final String jdbcUrl;
+
+    private final String username;
+
+    private final String password;
+
+    /** Propiedades adicionales para el driver (por ejemplo, rewriteBatchedStatements en MySQL). */
+    @Builder.Default
+    private final Properties driverProperties = new Properties();
+
+    /** Número mínimo de conexiones que el pool mantiene abiertas. */
+    @Builder.Default
+    private final int minSize = 2;
+
+    /** Número máximo de conexiones abiertas a la vez. */
+    @Builder.Default
+    private final int maxSize = 10;
+
+    /** Tiempo máximo que un hilo espera a que quede una conexión libre. */
+    @Builder.Default
+    private final Duration connectionTimeout = Duration.ofSeconds(30);
+
+    /** Tiempo máximo para validar una conexión con Connection.isValid. */
+    @Builder.Default
+    private final Duration validationTimeout = Duration.ofSeconds(5);
+
+    /** Si una conexión se ha usado hace menos de este tiempo, no se valida al prestarla. */
+    @Builder.Default
+    private final Duration validationInterval = Duration.ofMillis(500);
+
+    /** Las conexiones ociosas durante más de este tiempo se cierran (respetando minSize). */
+    @Builder.Default
+    private final Duration idleTimeout = Duration.ofMinutes(10);
+
+    /** Si una conexión lleva prestada más de este tiempo, se avisa de una posible fuga. Cero la desactiva. */
+    @Builder.Default
+    private final Duration leakDetectionThreshold = Duration.ofMinutes(2);
+
+    /** Periodo del hilo de mantenimiento (desalojo de ociosas, detección de fugas y mínimo de conexiones). */
+    @Builder.Default
+    private final Duration housekeepingPeriod = Duration.ofSeconds(30);
+
+    /** Si no es null, las conexiones prestadas registran en él la latencia de cada sentencia y los commits. */
+    private final JdbcMetrics statementMetrics;
+}
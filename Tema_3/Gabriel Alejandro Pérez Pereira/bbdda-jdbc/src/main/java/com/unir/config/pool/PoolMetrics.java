@@ -0,0 +1,78 @@
+package com.unir.config.pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas del pool de conexiones.
+ * Se actualizan desde varios hilos a la vez, por eso usamos LongAdder en lugar de contadores sincronizados.
+ */
+public class PoolMetrics {
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    void recordBorrow(long waitNanos) {
+        borrows.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulate(waitNanos);
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    void recordCreated() {
+        created.increment();
+    }
+
+    void recordDestroyed() {
+        destroyed.increment();
+    }
+
+    void recordValidationFailure() {
+        validationFailures.increment();
+    }
+
+    void recordLeak() {
+        leaks.increment();
+    }
+
+    /**
+     * Foto fija de las métricas en este instante.
+     * @param active - Conexiones prestadas
+     * @param idle - Conexiones ociosas
+     * @param waiting - Hilos esperando una conexión
+     * @return - Estadísticas del pool
+     */
+    PoolStats snapshot(int active, int idle, int waiting) {
+        long count = borrows.sum();
+        return new PoolStats(
+                active,
+                idle,
+                waiting,
+                count,
+                timeouts.sum(),
+                created.sum(),
+                destroyed.sum(),
+                validationFailures.sum(),
+                leaks.sum(),
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum() / count),
+                TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+    }
+
+    /**
+     * Estadísticas del pool. Los tiempos de espera están en microsegundos.
+     */
+    public record PoolStats(int active, int idle, int waiting, long borrows, long timeouts, long created,
+                            long destroyed, long validationFailures, long leaks,
+                            long avgWaitMicros, long maxWaitMicros) {
+    }
+}
@@ -0,0 +1,175 @@
+package com.unir.ingest;
+
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tamaño de lote adaptativo.
+ * Mide la latencia y las filas por segundo de cada executeBatch y ajusta el tamaño para maximizar el rendimiento:
+ *
+ * - Si un lote supera la latencia máxima, el tamaño se reduce a la mitad y ese tamaño queda como techo: el lote
+ *   ya no crece más que hasta la mitad del camino al techo, en lugar de volver al tamaño que lo superó.
+ * - Mientras el rendimiento mejore, el tamaño crece un 50%.
+ * - Si el rendimiento empeora claramente respecto al mejor observado, se vuelve al tamaño que lo consiguió.
+ * - Si se estabiliza, cada cierto número de lotes se prueba un tamaño mayor (por debajo del techo), por si han
+ *   cambiado las condiciones.
+ * - El techo no es permanente: tras CEILING_RECOVERY lotes seguidos con holgura (por debajo del HEADROOM de la
+ *   latencia máxima) sube un 50%, de modo que si la base de datos se descarga los lotes pueden volver a crecer.
+ *   Los lotes que ya rozan la latencia máxima no lo suben: ahí el techo sigue siendo correcto.
+ *
+ * El tamaño nunca supera maxSize ni el presupuesto de memoria (memoryBudgetBytes / estimatedRowBytes).
+ * El rendimiento se suaviza con una media móvil exponencial para no reaccionar a un único lote lento.
+ * No es seguro para varios hilos: cada conexión debe tener su propio AdaptiveBatchSizer.
+ */
+@Slf4j
+public class AdaptiveBatchSizer implements BatchSizer {
+
+    private static final double SMOOTHING = 0.3;
+    private static final double IMPROVEMENT = 1.05;
+    private static final double DEGRADATION = 0.85;
+    private static final int PROBE_EVERY = 20;
+    private static final int CEILING_RECOVERY = 5 * PROBE_EVERY;
+    private static final double HEADROOM = 0.8;
+
+    private final String name;
+    private final int minSize;
+    private final int maxSize;
+    private final long latencyCeilingNanos;
+
+    private int size;
+    private int bestSize;
+    /** Menor tamaño que ha superado la latencia máxima. El lote no crece hasta él. */
+    private int ceiling = Integer.MAX_VALUE;
+    private double bestRowsPerSecond;
+    private double rowsPerSecond;
+    private long lastLatencyNanos;
+    private long batches;
+    private long rows;
+    private long stableBatches;
+    /** Lotes seguidos con holgura respecto a la latencia máxima, para subir el techo. */
+    private long underCeiling;
+
+    /**
+     * @param name - Nombre para los logs (normalmente la tabla)
+     * @param initialSize - Tamaño del primer lote
+     * @param minSize - Tamaño mínimo
+     * @param maxSize - Tamaño máximo
+     * @param latencyCeiling - Latencia máxima por lote
+     * @param memoryBudgetBytes - Memoria máxima que puede ocupar un lote pendiente de enviar
+     * @param estimatedRowBytes - Memoria estimada por fila (objeto del modelo más parámetros enlazados)
+     */
+    @Builder
+    private AdaptiveBatchSizer(String name, Integer initialSize, Integer minSize, Integer maxSize,
+                               Duration latencyCeiling, Long memoryBudgetBytes, Integer estimatedRowBytes) {
+        long budget = memoryBudgetBytes == null ? 16L * 1024 * 1024 : memoryBudgetBytes;
+        int rowBytes = estimatedRowBytes == null ? 256 : estimatedRowBytes;
+
+        this.name = name == null ? "lote" : name;
+        this.minSize = minSize == null ? 10 : minSize;
+        this.maxSize = (int) Math.max(this.minSize, Math.min(maxSize == null ? 10_000 : maxSize, budget / rowBytes));
+        this.latencyCeilingNanos = (latencyCeiling == null ? Duration.ofMillis(500) : latencyCeiling).toNanos();
+        this.size = clamp(initialSize == null ? 100 : initialSize);
+        this.bestSize = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void record(int batchRows, long nanos) {
+        if (batchRows <= 0) {
+            return;
+        }
+        batches++;
+        rows += batchRows;
+        lastLatencyNanos = nanos;
+
+        // Solo ajustamos con lotes completos: el último lote de una carga suele ser más pequeño
+        if (batchRows < size) {
+            return;
+        }
+
+        double observed = batchRows * 1_000_000_000.0 / Math.max(1, nanos);
+        rowsPerSecond = rowsPerSecond == 0 ? observed : SMOOTHING * observed + (1 - SMOOTHING) * rowsPerSecond;
+
+        underCeiling = nanos < latencyCeilingNanos * HEADROOM ? underCeiling + 1 : 0;
+
+        int previous = size;
+        if (nanos > latencyCeilingNanos) {
+            // Conservamos el mejor rendimiento: con él a 0 el siguiente lote siempre "mejoraría" y volvería a crecer
+            ceiling = Math.min(ceiling, size);
+            size = clamp(size / 2);
+            if (bestSize >= ceiling) {
+                bestSize = size;
+            }
+            stableBatches = 0;
+        } else if (ceiling != Integer.MAX_VALUE && underCeiling >= CEILING_RECOVERY) {
+            // La latencia que bajó el techo puede haber sido pasajera: lo subimos y probamos un tamaño mayor
+            ceiling = ceiling > maxSize ? Integer.MAX_VALUE : ceiling + Math.max(1, ceiling / 2);
+            underCeiling = 0;
+            size = grow(size + Math.max(1, size / 4));
+            stableBatches = 0;
+        } else if (rowsPerSecond > bestRowsPerSecond * IMPROVEMENT) {
+            bestRowsPerSecond = rowsPerSecond;
+            bestSize = size;
+            size = grow(size + Math.max(1, size / 2));
+            stableBatches = 0;
+        } else if (rowsPerSecond < bestRowsPerSecond * DEGRADATION) {
+            size = bestSize;
+            stableBatches = 0;
+        } else if (++stableBatches >= PROBE_EVERY) {
+            size = grow(size + Math.max(1, size / 4));
+            stableBatches = 0;
+        }
+
+        if (size != previous) {
+            log.debug("Tamaño de lote de {}: {} -> {} (latencia {} ms, {} filas/s)", name, previous, size,
+                    TimeUnit.NANOSECONDS.toMillis(nanos), (long) rowsPerSecond);
+        }
+    }
+
+    /**
+     * @return - Tamaño elegido y tiempos medidos hasta ahora
+     */
+    public Stats getStats() {
+        return new Stats(size, bestSize, maxSize, batches, rows,
+                TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos), (long) rowsPerSecond);
+    }
+
+    private int clamp(int candidate) {
+        return Math.max(minSize, Math.min(maxSize, candidate));
+    }
+
+    /**
+     * Tamaño mayor, sin pasar de la mitad del camino hasta el techo: cada vez que se supera la latencia el techo baja,
+     * y los intentos se acercan al tamaño máximo que cumple la latencia sin volver a pasarlo hasta que el techo sube.
+     */
+    private int grow(int candidate) {
+        int limit = ceiling == Integer.MAX_VALUE ? candidate : size + (ceiling - size) / 2;
+        return Math.max(size, clamp(Math.min(candidate, limit)));
+    }
+
+    @Override
+    public String toString() {
+        return "lote adaptativo de " + name + ": " + getStats();
+    }
+
+    /**
+     * Métricas del tamaño de lote.
+     * @param size - Tamaño actual
+     * @param bestSize - Tamaño con el mejor rendimiento observado
+     * @param maxSize - Tamaño máximo efectivo (incluido el presupuesto de memoria)
+     * @param batches - Lotes registrados
+     * @param rows - Filas registradas
+     * @param lastLatencyMillis - Latencia del último lote
+     * @param rowsPerSecond - Rendimiento suavizado
+     */
+    public record Stats(int size, int bestSize, int maxSize, long batches, long rows,
+                        long lastLatencyMillis, long rowsPerSecond) {
+    }
+}
@@ -0,0 +1,26 @@
+package com.unir.ingest;
+
+/**
+ * Resultado de escribir un lote.
+ * MySQL indica por fila si se ha insertado (1), actualizado (2) o si no ha cambiado (0).
+ * Oracle (MERGE) o MySQL con rewriteBatchedStatements no distinguen entre inserción y actualización;
+ * esas filas se cuentan como merged.
+ *
+ * @param inserted - Filas insertadas
+ * @param updated - Filas actualizadas
+ * @param unchanged - Filas que ya existían con los mismos valores
+ * @param merged - Filas escritas sin saber si se insertaron o actualizaron
+ */
+public record BatchResult(long inserted, long updated, long unchanged, long merged) {
+
+    public static final BatchResult EMPTY = new BatchResult(0, 0, 0, 0);
+
+    public long rows() {
+        return inserted + updated + unchanged + merged;
+    }
+
+    public BatchResult add(BatchResult other) {
+        return new BatchResult(inserted + other.inserted, updated + other.updated,
+                unchanged + other.unchanged, merged + other.merged);
+    }
+}
@@ -0,0 +1,44 @@
+package com.unir.ingest;
+
+/**
+ * Decide cuántas filas se envían en cada lote.
+ * Quien escribe los lotes pregunta el tamaño antes de formar cada lote e informa después de lo que ha tardado.
+ */
+public interface BatchSizer {
+
+    /**
+     * @return - Filas del próximo lote
+     */
+    int size();
+
+    /**
+     * Registra la ejecución de un lote.
+     * @param rows - Filas del lote
+     * @param nanos - Tiempo que ha tardado el executeBatch
+     */
+    void record(int rows, long nanos);
+
+    /**
+     * Tamaño de lote constante.
+     */
+    static BatchSizer fixed(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("El tamaño de lote debe ser positivo");
+        }
+        return new BatchSizer() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void record(int rows, long nanos) {
+            }
+
+            @Override
+            public String toString() {
+                return "lote fijo de " + size + " filas";
+            }
+        };
+    }
+}
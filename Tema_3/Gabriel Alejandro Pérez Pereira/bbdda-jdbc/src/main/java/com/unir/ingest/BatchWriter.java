@@ -0,0 +1,30 @@
+package com.unir.ingest;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Escribe un lote de filas en la base de datos con el menor número de viajes posible.
+ * No hace commit: la transacción la controla quien lo invoca.
+ *
+ * @param <T> - Tipo de las filas
+ */
+@FunctionalInterface
+public interface BatchWriter<T> {
+
+    BatchResult write(List<T> batch) throws SQLException;
+
+    /**
+     * Encadena otro escritor que recibe el mismo lote a continuación de este.
+     * Útil para tablas hijas que dependen de la fila recién escrita (por ejemplo, dept_emp tras employees).
+     * @param next - Escritor que se ejecuta después
+     * @return - Escritor compuesto. Devuelve el resultado de este escritor.
+     */
+    default BatchWriter<T> andThen(BatchWriter<T> next) {
+        return batch -> {
+            BatchResult result = write(batch);
+            next.write(batch);
+            return result;
+        };
+    }
+}
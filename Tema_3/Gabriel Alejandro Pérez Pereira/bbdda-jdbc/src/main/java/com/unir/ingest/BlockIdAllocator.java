@@ -0,0 +1,264 @@
+package com.unir.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Generador de identificadores por bloques (hi/lo) para MySQL.
+ *
+ * - Los bloques se reservan en una tabla de secuencias (id_blocks) con una única sentencia atómica:
+ *   UPDATE id_blocks SET next_id = LAST_INSERT_ID(next_id + blockSize) WHERE name = ?
+ *   Dos procesos o dos hilos nunca reciben el mismo bloque, aunque usen conexiones distintas.
+ * - Dentro de un bloque, {@link #nextId()} es un simple incremento atómico, sin bloqueos ni viajes a la base de datos.
+ * - Cuando se ha consumido el 75% del bloque, se reserva el siguiente en segundo plano, de modo que el hilo que
+ *   agota el bloque normalmente ya lo encuentra disponible.
+ *
+ * Los identificadores de un bloque que no se llegan a usar se pierden (huecos), como con cualquier secuencia.
+ * La reserva se hace con autocommit en una conexión propia del pool, así que no depende de la transacción
+ * de la carga: si esta se deshace, los identificadores no se reutilizan.
+ *
+ * Las cargas que insertan sus propios identificadores no pasan por la secuencia. Tras ellas hay que adelantarla
+ * con {@link #advance} (o {@link #reconcile} si hay un generador abierto), o los siguientes bloques podrían
+ * repetir identificadores ya cargados.
+ */
+@Slf4j
+public class BlockIdAllocator implements AutoCloseable {
+
+    private static final String TABLE = "id_blocks";
+
+    private final DataSource dataSource;
+    private final String name;
+    private final String table;
+    private final String column;
+    private final long blockSize;
+    private final AtomicReference<Block> current = new AtomicReference<>(Block.EMPTY);
+    private final ReentrantLock refill = new ReentrantLock();
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-block-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile CompletableFuture<Block> next;
+    private volatile boolean closed;
+
+    /**
+     * @param dataSource - Pool de conexiones
+     * @param name - Nombre de la secuencia (por ejemplo, "employees.emp_no")
+     * @param blockSize - Identificadores por bloque
+     */
+    public BlockIdAllocator(DataSource dataSource, String name, long blockSize) {
+        this(dataSource, name, null, null, blockSize);
+    }
+
+    private BlockIdAllocator(DataSource dataSource, String name, String table, String column, long blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize debe ser positivo");
+        }
+        this.dataSource = dataSource;
+        this.name = name;
+        this.table = table;
+        this.column = column;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Crea la tabla de secuencias si no existe y da de alta la secuencia a continuación del mayor valor
+     * actual de la columna. Si la secuencia ya existe, la adelanta hasta ese valor si va por detrás.
+     * @param dataSource - Pool de conexiones
+     * @param table - Tabla cuyos identificadores se generan
+     * @param column - Columna del identificador
+     * @param blockSize - Identificadores por bloque
+     * @return - Generador de la secuencia "table.column"
+     * @throws SQLException - Error al crear o inicializar la secuencia
+     */
+    public static BlockIdAllocator forColumn(DataSource dataSource, String table, String column, long blockSize)
+            throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            advance(connection, table, column);
+        }
+        return new BlockIdAllocator(dataSource, table + "." + column, table, column, blockSize);
+    }
+
+    /**
+     * Adelanta la secuencia "table.column" hasta el mayor valor actual de la columna más uno, creando la tabla
+     * de secuencias y la secuencia si no existen. Nunca la retrasa.
+     * Se debe llamar tras las cargas que insertan sus propios identificadores.
+     * @param connection - Conexión a la base de datos. Se pone en autocommit.
+     * @param table - Tabla cuyos identificadores se generan
+     * @param column - Columna del identificador
+     * @throws SQLException - Error al crear o adelantar la secuencia
+     */
+    public static void advance(Connection connection, String table, String column) throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE
+                    + " (name VARCHAR(128) PRIMARY KEY, next_id BIGINT NOT NULL)");
+        }
+        // Los nombres de tabla y columna no se pueden enlazar como parámetros: van en el texto de la sentencia
+        try (PreparedStatement upsert = connection.prepareStatement("INSERT INTO " + TABLE + " (name, next_id) "
+                + "SELECT name, seed FROM (SELECT ? AS name, COALESCE(MAX(" + column + "), 0) + 1 AS seed FROM "
+                + table + ") AS seeded ON DUPLICATE KEY UPDATE next_id = GREATEST(" + TABLE + ".next_id, seeded.seed)")) {
+            upsert.setString(1, table + "." + column);
+            upsert.executeUpdate();
+        }
+    }
+
+    /**
+     * Adelanta la secuencia tras una carga que ha insertado sus propios identificadores y descarta los bloques
+     * ya reservados, que podrían contenerlos. Los identificadores que quedaban en ellos se pierden.
+     * @throws SQLException - Error al adelantar la secuencia
+     */
+    public void reconcile() throws SQLException {
+        if (table == null) {
+            throw new IllegalStateException("La secuencia " + name + " no está asociada a ninguna columna");
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            advance(connection, table, column);
+        }
+        refill.lock();
+        try {
+            CompletableFuture<Block> pending = next;
+            next = null;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            current.set(Block.EMPTY);
+        } finally {
+            refill.unlock();
+        }
+    }
+
+    /**
+     * @return - Siguiente identificador. Nunca se repite, tampoco entre hilos o procesos.
+     * @throws SQLException - Error al reservar un nuevo bloque
+     */
+    public long nextId() throws SQLException {
+        while (true) {
+            Block block = current.get();
+            long id = block.next.getAndIncrement();
+            if (id < block.end) {
+                if (id == block.prefetchAt) {
+                    prefetch();
+                }
+                return id;
+            }
+            replace(block);
+        }
+    }
+
+    /**
+     * Sustituye un bloque agotado. Solo un hilo lo hace; el resto espera y reintenta con el nuevo bloque.
+     */
+    private void replace(Block exhausted) throws SQLException {
+        refill.lock();
+        try {
+            if (current.get() != exhausted) {
+                return;
+            }
+            CompletableFuture<Block> pending = next;
+            next = null;
+            Block block;
+            try {
+                block = pending != null ? pending.join() : reserve();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException sqlException) {
+                    throw sqlException;
+                }
+                throw e;
+            }
+            current.set(block);
+        } finally {
+            refill.unlock();
+        }
+    }
+
+    private void prefetch() {
+        refill.lock();
+        try {
+            if (next == null && !closed) {
+                next = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return reserve();
+                    } catch (SQLException e) {
+                        throw new CompletionException(e);
+                    }
+                }, prefetcher);
+            }
+        } finally {
+            refill.unlock();
+        }
+    }
+
+    /**
+     * Reserva un bloque en la tabla de secuencias con una única sentencia.
+     */
+    private Block reserve() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            try (PreparedStatement update = connection.prepareStatement("UPDATE " + TABLE
+                    + " SET next_id = LAST_INSERT_ID(next_id + ?) WHERE name = ?")) {
+                update.setLong(1, blockSize);
+                update.setString(2, name);
+                if (update.executeUpdate() != 1) {
+                    throw new SQLException("No existe la secuencia " + name + " en " + TABLE);
+                }
+            }
+            // LAST_INSERT_ID es propio de la sesión: devuelve el valor que acabamos de asignar, aunque otros
+            // hayan reservado bloques entre medias
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT LAST_INSERT_ID()")) {
+                resultSet.next();
+                long end = resultSet.getLong(1);
+                log.debug("Bloque de {} reservado: [{}, {})", name, end - blockSize, end);
+                return new Block(end - blockSize, end, end - blockSize + blockSize * 3 / 4);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        refill.lock();
+        try {
+            closed = true;
+            // shutdownNow descarta la reserva en cola sin completarla: quien la esperase se quedaría bloqueado
+            CompletableFuture<Block> pending = next;
+            if (pending != null) {
+                pending.completeExceptionally(new SQLException("El generador de " + name + " está cerrado"));
+            }
+        } finally {
+            refill.unlock();
+        }
+        prefetcher.shutdownNow();
+    }
+
+    /**
+     * Rango [start, end) de identificadores reservados.
+     */
+    private static final class Block {
+
+        private static final Block EMPTY = new Block(0, 0, -1);
+
+        private final AtomicLong next;
+        private final long end;
+        private final long prefetchAt;
+
+        private Block(long start, long end, long prefetchAt) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+}
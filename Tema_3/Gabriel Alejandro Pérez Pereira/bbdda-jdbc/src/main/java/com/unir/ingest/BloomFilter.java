@@ -0,0 +1,83 @@
+package com.unir.ingest;
+
+/**
+ * Filtro de Bloom: conjunto aproximado que ocupa unos pocos bits por elemento.
+ * Si dice que un elemento no está, es seguro que no está. Si dice que está, puede equivocarse con
+ * la probabilidad de falso positivo elegida al crearlo.
+ *
+ * Los elementos se añaden por su hash de 64 bits y se derivan numHashes posiciones con doble hashing.
+ * No es seguro para hilos: cada carga usa el suyo.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+
+    /**
+     * @param expectedElements - Número de elementos previsto
+     * @param falsePositiveRate - Probabilidad de falso positivo con ese número de elementos (por ejemplo 0.01)
+     */
+    public BloomFilter(long expectedElements, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate debe estar entre 0 y 1");
+        }
+        long elements = Math.max(1, expectedElements);
+        long optimalBits = (long) Math.ceil(-elements * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, optimalBits);
+        this.bits = new long[(int) ((numBits + 63) / 64)];
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / elements * Math.log(2)));
+    }
+
+    public void put(long hash) {
+        long h1 = hash;
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long h1 = hash;
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return - Memoria ocupada por el filtro, en bytes
+     */
+    public long sizeInBytes() {
+        return bits.length * 8L;
+    }
+
+    /**
+     * Hash de 64 bits de un texto (FNV-1a seguido de una mezcla final), estable entre ejecuciones.
+     */
+    public static long hash(CharSequence text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Mezcla final de MurmurHash3: reparte los bits del hash para derivar el segundo hash.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,134 @@
+package com.unir.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Escritor que descarta las filas que no han cambiado antes de enviarlas a otro escritor.
+ *
+ * Por cada lote se leen, con una única consulta WHERE clave IN (...), los valores actuales de las filas del lote
+ * y se comparan con los que llegan, columna a columna:
+ * - Si la fila no existe, se envía (inserción).
+ * - Si existe y alguna columna actualizable es distinta, se envía (actualización).
+ * - Si existe y es idéntica, no se envía: no genera escrituras, redo/binlog ni bloqueos.
+ *
+ * Compensa cuando la mayoría de las filas de cada fichero ya están en la base de datos sin cambios:
+ * se cambia un upsert por fila por una lectura por clave primaria, mucho más barata.
+ * Con un {@link KeyExistence}, las filas cuya clave no existe seguro no se consultan.
+ * No hace commit: la transacción la controla quien lo invoca.
+ *
+ * @param <T> - Tipo de las filas
+ */
+@Slf4j
+public class ChangeDetector<T> implements BatchWriter<T> {
+
+    private final Connection connection;
+    private final TableMapping<T> mapping;
+    private final BatchWriter<T> writer;
+    private final List<TableMapping.Column<T>> keys;
+    private final List<TableMapping.Column<T>> compared;
+    private final String select;
+    private final KeyExistence<T> existence;
+
+    /**
+     * @param connection - Conexión sobre la que se leen los valores actuales
+     * @param mapping - Tabla y columnas. Se comparan las columnas actualizables.
+     * @param writer - Escritor que recibe solo las filas nuevas o con cambios
+     */
+    public ChangeDetector(Connection connection, TableMapping<T> mapping, BatchWriter<T> writer) {
+        this(connection, mapping, writer, null);
+    }
+
+    /**
+     * @param connection - Conexión sobre la que se leen los valores actuales
+     * @param mapping - Tabla y columnas. Se comparan las columnas actualizables.
+     * @param writer - Escritor que recibe solo las filas nuevas o con cambios
+     * @param existence - Filtro de claves de la tabla, para no consultar las que no existen seguro. Puede ser null.
+     */
+    public ChangeDetector(Connection connection, TableMapping<T> mapping, BatchWriter<T> writer, KeyExistence<T> existence) {
+        this.connection = connection;
+        this.existence = existence;
+        this.mapping = mapping;
+        this.writer = writer;
+        this.keys = mapping.keys();
+        this.compared = mapping.updatable();
+
+        List<TableMapping.Column<T>> selected = new ArrayList<>(keys);
+        selected.addAll(compared);
+        this.select = "SELECT " + selected.stream().map(TableMapping.Column::name).collect(Collectors.joining(", "))
+                + " FROM " + mapping.getTable() + " WHERE ";
+    }
+
+    /**
+     * @return - Filas insertadas y actualizadas según la comparación, y filas sin cambios (no enviadas)
+     */
+    @Override
+    public BatchResult write(List<T> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return BatchResult.EMPTY;
+        }
+        List<T> candidates = existence == null ? batch
+                : batch.stream().filter(existence::mightExist).toList();
+        Map<List<Object>, List<Object>> current = fetch(candidates);
+
+        List<T> changed = new ArrayList<>(batch.size());
+        List<T> added = new ArrayList<>();
+        long inserted = 0, updated = 0, unchanged = 0;
+        for (T row : batch) {
+            List<Object> stored = current.get(SqlValues.key(keys, row));
+            if (stored == null) {
+                inserted++;
+                changed.add(row);
+                added.add(row);
+            } else if (differs(row, stored)) {
+                updated++;
+                changed.add(row);
+            } else {
+                unchanged++;
+            }
+        }
+        if (!changed.isEmpty()) {
+            writer.write(changed);
+        }
+        if (existence != null) {
+            added.forEach(existence::added);
+        }
+        log.debug("Cambios en {}: {} filas, {} nuevas, {} modificadas, {} sin cambios",
+                mapping.getTable(), batch.size(), inserted, updated, unchanged);
+        return new BatchResult(inserted, updated, unchanged, 0);
+    }
+
+    /**
+     * Lee los valores actuales de las filas del lote.
+     * @return - Valores de las columnas comparadas, por clave
+     */
+    private Map<List<Object>, List<Object>> fetch(List<T> batch) throws SQLException {
+        Map<List<Object>, List<Object>> current = new HashMap<>(batch.size() * 2);
+        KeyExistence.selectByKeys(connection, select, keys, batch, resultSet -> {
+            List<Object> values = new ArrayList<>(compared.size());
+            for (int i = 1; i <= compared.size(); i++) {
+                values.add(SqlValues.normalize(resultSet.getObject(keys.size() + i)));
+            }
+            current.put(KeyExistence.readKey(resultSet, keys.size()), values);
+        });
+        return current;
+    }
+
+    private boolean differs(T row, List<Object> stored) {
+        for (int i = 0; i < compared.size(); i++) {
+            Object value = SqlValues.normalize(compared.get(i).getter().apply(row));
+            Object storedValue = stored.get(i);
+            if (value == null ? storedValue != null : !value.equals(storedValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
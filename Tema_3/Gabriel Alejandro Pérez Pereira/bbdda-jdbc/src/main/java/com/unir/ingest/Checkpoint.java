@@ -0,0 +1,44 @@
+package com.unir.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Punto de la carga de un fichero hasta el que todo está confirmado en la base de datos.
+ *
+ * @param fileName - Fichero que se estaba cargando
+ * @param fingerprint - Huella del fichero, para no reanudar sobre un fichero que ha cambiado
+ * @param offset - Byte del fichero donde empieza la primera fila sin confirmar
+ * @param line - Lineas del fichero antes de offset, cabecera incluida. Al reanudar, la numeración sigue desde aquí.
+ * @param lastKey - Clave de la última fila confirmada, para los logs
+ * @param rows - Filas confirmadas hasta ahora, sumando todas las ejecuciones
+ */
+public record Checkpoint(String fileName, String fingerprint, long offset, long line, String lastKey, long rows) {
+
+    /** Bytes del inicio del fichero que entran en la huella. */
+    private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+    /**
+     * Calcula la huella de un fichero a partir de su tamaño, su fecha de modificación y un SHA-256 de su inicio.
+     * No lee el fichero completo, para que sea inmediato incluso con ficheros de varios GB.
+     * @param fileName - Fichero
+     * @return - Huella en hexadecimal
+     * @throws IOException - Error al leer el fichero
+     */
+    public static String fingerprint(String fileName) throws IOException {
+        Path path = Path.of(fileName);
+        try (InputStream input = Files.newInputStream(path)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(input.readNBytes(FINGERPRINT_BYTES));
+            return Files.size(path) + "-" + Files.getLastModifiedTime(path).toMillis() + "-"
+                    + HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
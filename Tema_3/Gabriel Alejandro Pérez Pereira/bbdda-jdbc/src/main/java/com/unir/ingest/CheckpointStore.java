@@ -0,0 +1,87 @@
+package com.unir.ingest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Guarda los checkpoints de las cargas en ficheros .properties, uno por carga, dentro de un directorio.
+ * Cada checkpoint se escribe en un fichero temporal y se renombra, de modo que un fallo a mitad de escritura
+ * nunca deja un checkpoint corrupto: o queda el anterior o el nuevo.
+ */
+public class CheckpointStore {
+
+    private final Path directory;
+
+    /**
+     * @param directory - Directorio de los checkpoints. Se crea si no existe.
+     */
+    public CheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param load - Nombre de la carga
+     * @return - Último checkpoint guardado, si la carga no terminó
+     * @throws IOException - Error al leer el checkpoint
+     */
+    public Optional<Checkpoint> load(String load) throws IOException {
+        Path file = file(load);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return Optional.of(new Checkpoint(
+                properties.getProperty("file"),
+                properties.getProperty("fingerprint"),
+                Long.parseLong(properties.getProperty("offset")),
+                // Los checkpoints anteriores no guardaban la linea
+                Long.parseLong(properties.getProperty("line", "0")),
+                properties.getProperty("lastKey"),
+                Long.parseLong(properties.getProperty("rows"))));
+    }
+
+    /**
+     * @param load - Nombre de la carga
+     * @param checkpoint - Checkpoint que sustituye al anterior
+     * @throws IOException - Error al escribir el checkpoint
+     */
+    public void save(String load, Checkpoint checkpoint) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("file", checkpoint.fileName());
+        properties.setProperty("fingerprint", checkpoint.fingerprint());
+        properties.setProperty("offset", Long.toString(checkpoint.offset()));
+        properties.setProperty("line", Long.toString(checkpoint.line()));
+        properties.setProperty("lastKey", String.valueOf(checkpoint.lastKey()));
+        properties.setProperty("rows", Long.toString(checkpoint.rows()));
+
+        Files.createDirectories(directory);
+        Path temporary = directory.resolve(load + ".checkpoint.tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Checkpoint de la carga " + load);
+        }
+        Files.move(temporary, file(load), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Borra el checkpoint de una carga terminada.
+     * @param load - Nombre de la carga
+     * @throws IOException - Error al borrar el checkpoint
+     */
+    public void delete(String load) throws IOException {
+        Files.deleteIfExists(file(load));
+    }
+
+    private Path file(String load) {
+        return directory.resolve(load + ".checkpoint");
+    }
+}
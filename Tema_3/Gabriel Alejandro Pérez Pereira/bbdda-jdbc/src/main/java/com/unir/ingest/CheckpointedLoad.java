@@ -0,0 +1,162 @@
+package com.unir.ingest;
+
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Carga de un fichero que confirma por tramos y se puede reanudar.
+ *
+ * - Cada commitInterval filas hace commit y guarda un {@link Checkpoint} con el fichero, su huella,
+ *   el byte y la linea donde empieza la primera fila sin confirmar y la clave de la última fila confirmada.
+ * - Si la carga falla, solo se deshace el tramo en curso. Al volver a ejecutarla, el fichero se abre
+ *   directamente en el byte del checkpoint y no se vuelve a leer ni a enviar nada de lo ya confirmado.
+ * - Si el fichero ha cambiado (otra huella u otra ruta), se descarta el checkpoint y se empieza de cero.
+ * - Al terminar, se borra el checkpoint.
+ *
+ * El checkpoint se guarda justo después del commit. Si el proceso muere entre ambos, al reanudar se reenvía
+ * ese último tramo, lo que es inocuo con escritores idempotentes como {@link UpsertEngine}.
+ *
+ * @param <T> - Tipo de las filas
+ */
+@Slf4j
+public class CheckpointedLoad<T> {
+
+    private final String name;
+    private final Connection connection;
+    private final String fileName;
+    private final SourceFactory<T> sources;
+    private final BatchWriter<T> writer;
+    private final Function<T, Object> key;
+    private final CheckpointStore store;
+    private final int commitInterval;
+    private final int queueDepth;
+    private final BatchSizer batchSizer;
+
+    /**
+     * @param name - Nombre de la carga. Identifica su checkpoint.
+     * @param connection - Conexión sobre la que escribe el escritor
+     * @param fileName - Fichero que se carga
+     * @param sources - Abre el fichero en un byte dado, numerando las lineas desde la indicada
+     * @param writer - Escritor de lotes
+     * @param key - Clave de cada fila, que se guarda en el checkpoint
+     * @param store - Dónde se guardan los checkpoints
+     * @param commitInterval - Filas entre commits (y checkpoints)
+     * @param queueDepth - Capacidad de la cola entre lector y escritor
+     * @param batchSizer - Tamaño de los lotes
+     */
+    @Builder
+    private CheckpointedLoad(String name, Connection connection, String fileName, SourceFactory<T> sources,
+                             BatchWriter<T> writer, Function<T, Object> key, CheckpointStore store,
+                             int commitInterval, Integer queueDepth, BatchSizer batchSizer) {
+        if (commitInterval <= 0) {
+            throw new IllegalArgumentException("commitInterval debe ser positivo");
+        }
+        this.name = name;
+        this.connection = connection;
+        this.fileName = fileName;
+        this.sources = sources;
+        this.writer = writer;
+        this.key = key;
+        this.store = store;
+        this.commitInterval = commitInterval;
+        this.queueDepth = queueDepth == null ? IngestionPipeline.DEFAULT_QUEUE_DEPTH : queueDepth;
+        this.batchSizer = batchSizer;
+    }
+
+    /**
+     * Ejecuta la carga, desde el último checkpoint si lo hay.
+     * @return - Totales de esta ejecución (no incluye lo confirmado en ejecuciones anteriores)
+     * @throws SQLException - Error al leer o escribir. Lo confirmado hasta el último checkpoint se conserva.
+     */
+    public BatchResult run() throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            String fingerprint = Checkpoint.fingerprint(fileName);
+            Checkpoint start = resumePoint(fingerprint);
+            Progress progress = new Progress(start);
+
+            connection.setAutoCommit(false);
+            BatchResult result = new IngestionPipeline<>(sources.open(start.offset(), start.line()), writer, queueDepth, batchSizer)
+                    .onBatch(progress::written)
+                    .run();
+
+            connection.commit();
+            store.delete(name);
+            log.info("Carga {} terminada: {} filas confirmadas en total, {} en esta ejecución",
+                    name, progress.committed.rows() + progress.pending, result.rows());
+            return result;
+        } catch (IOException e) {
+            connection.rollback();
+            throw new SQLException("Error con el fichero o el checkpoint de la carga " + name, e);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private Checkpoint resumePoint(String fingerprint) throws IOException {
+        Optional<Checkpoint> saved = store.load(name);
+        if (saved.isPresent()) {
+            Checkpoint checkpoint = saved.get();
+            if (checkpoint.fileName().equals(fileName) && checkpoint.fingerprint().equals(fingerprint)) {
+                log.info("Reanudando la carga {} en el byte {} (linea {}): {} filas ya confirmadas, última clave {}",
+                        name, checkpoint.offset(), checkpoint.line() + 1, checkpoint.rows(), checkpoint.lastKey());
+                return checkpoint;
+            }
+            log.warn("El fichero {} ha cambiado desde el checkpoint de la carga {}. Se empieza de cero", fileName, name);
+        }
+        return new Checkpoint(fileName, fingerprint, 0, 0, null, 0);
+    }
+
+    /**
+     * Filas escritas desde el último commit y último checkpoint guardado.
+     */
+    private class Progress {
+
+        private Checkpoint committed;
+        private long pending;
+
+        private Progress(Checkpoint start) {
+            this.committed = start;
+        }
+
+        private void written(List<T> batch, long position, long line) throws SQLException {
+            pending += batch.size();
+            if (pending < commitInterval) {
+                return;
+            }
+            if (position < 0) {
+                throw new SQLException("El origen de la carga " + name + " no informa de su posición");
+            }
+            connection.commit();
+            committed = new Checkpoint(fileName, committed.fingerprint(), position, Math.max(0, line),
+                    String.valueOf(key.apply(batch.get(batch.size() - 1))), committed.rows() + pending);
+            pending = 0;
+            try {
+                store.save(name, committed);
+            } catch (IOException e) {
+                throw new SQLException("Error al guardar el checkpoint de la carga " + name, e);
+            }
+            log.debug("Checkpoint de {}: byte {}, {} filas, última clave {}",
+                    name, committed.offset(), committed.rows(), committed.lastKey());
+        }
+    }
+
+    /**
+     * Abre el origen de la carga a partir de un byte del fichero.
+     * line son las lineas anteriores a offset: el origen debe seguir numerando a partir de ella.
+     */
+    @FunctionalInterface
+    public interface SourceFactory<T> {
+        RowSource<T> open(long offset, long line) throws IOException;
+    }
+}
@@ -0,0 +1,158 @@
+package com.unir.ingest;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Lee un fichero CSV linea a linea con el parser de OpenCSV y convierte cada linea en un objeto del modelo.
+ * La primera linea (cabecera) se salta.
+ *
+ * Las lineas se leen directamente como bytes para saber en todo momento en qué posición del fichero estamos.
+ * Así se puede guardar esa posición en un checkpoint y, más tarde, abrir el fichero desde ella.
+ *
+ * @param <T> - Tipo de las filas
+ */
+public class CsvRowSource<T> implements RowSource<T> {
+
+    private final String fileName;
+    private final InputStream input;
+    private final CSVParser parser;
+    private final LineMapper<T> mapper;
+    private byte[] lineBuffer = new byte[256];
+    private long position;
+    private long line;
+
+    /**
+     * @param fileName - Fichero CSV, relativo a la raíz del proyecto
+     * @param separator - Separador de campos
+     * @param mapper - Conversión de los campos de una linea a un objeto
+     * @throws IOException - Si no se puede abrir el fichero
+     */
+    public CsvRowSource(String fileName, char separator, LineMapper<T> mapper) throws IOException {
+        this(fileName, separator, mapper, 0, 0);
+    }
+
+    /**
+     * @param fileName - Fichero CSV, relativo a la raíz del proyecto
+     * @param separator - Separador de campos
+     * @param mapper - Conversión de los campos de una linea a un objeto
+     * @param offset - Byte del fichero desde el que empezar. Debe ser un inicio de linea. Si es 0, se salta la cabecera.
+     * @param line - Lineas del fichero antes de offset (ver {@link #line()}), para numerar las lineas en los errores
+     * @throws IOException - Si no se puede abrir el fichero
+     */
+    public CsvRowSource(String fileName, char separator, LineMapper<T> mapper, long offset, long line) throws IOException {
+        this.fileName = fileName;
+        this.mapper = mapper;
+        this.parser = new CSVParserBuilder().withSeparator(separator).build();
+
+        FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        channel.position(offset);
+        this.input = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+        this.position = offset;
+        this.line = line;
+
+        if (offset == 0) {
+            readLine();
+        }
+    }
+
+    @Override
+    public T next() throws IOException {
+        String[] fields = null;
+        long start = position;
+        StringBuilder text = new StringBuilder();
+        do {
+            String lineText = readLine();
+            if (lineText == null) {
+                if (parser.isPending()) {
+                    throw new IOException("Comillas sin cerrar al final de " + fileName);
+                }
+                return null;
+            }
+            if (fields == null && lineText.isEmpty()) {
+                start = position;
+                continue;
+            }
+            text.append(fields == null ? "" : "\n").append(lineText);
+            // OpenCSV añade el salto de linea al texto pendiente de un campo entre comillas: no hay que añadirlo
+            String[] parsed = parser.parseLineMulti(lineText);
+            fields = fields == null ? parsed : concat(fields, parsed);
+        } while (fields == null || parser.isPending());
+
+        try {
+            return mapper.map(fields);
+        } catch (Exception e) {
+            throw new RowFormatException("Error al interpretar la linea " + line + " de " + fileName,
+                    start, text.toString(), e);
+        }
+    }
+
+    /**
+     * @return - Byte del fichero donde empieza la siguiente fila
+     */
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public long line() {
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Lee una linea en UTF-8 sin el salto de linea final, contando los bytes consumidos.
+     * @return - Linea, o null al final del fichero
+     */
+    private String readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = input.read()) != -1) {
+            position++;
+            if (b == '\n') {
+                break;
+            }
+            if (length == lineBuffer.length) {
+                lineBuffer = Arrays.copyOf(lineBuffer, length * 2);
+            }
+            lineBuffer[length++] = (byte) b;
+        }
+        if (b == -1 && length == 0) {
+            return null;
+        }
+        line++;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Conversión de los campos de una linea del CSV a un objeto.
+     */
+    @FunctionalInterface
+    public interface LineMapper<T> {
+        T map(String[] fields) throws Exception;
+    }
+}
@@ -0,0 +1,502 @@
+package com.unir.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Carga varias tablas relacionadas por claves ajenas a la vez, respetando sus dependencias.
+ *
+ * - Se declara cada tabla con su origen y su escritor, y las claves ajenas con {@link Node#references}.
+ * - Todas las tablas se cargan a la vez, cada una en su hilo y con su conexión del pool.
+ * - Antes de empezar se leen las claves que ya existen en las tablas padre. Cada vez que una tabla padre
+ *   hace commit, publica las claves confirmadas. Una fila hija solo se escribe cuando todas sus claves padre
+ *   están confirmadas, así que nunca falla por una clave ajena inexistente.
+ * - Las filas cuyo padre aún no está confirmado esperan en memoria (como mucho maxPending por tabla) mientras
+ *   se siguen escribiendo las demás. Antes de esperar se hace commit, para no retener bloqueos que necesite el padre.
+ * - Si el padre termina y la clave sigue sin existir, la fila se aparta en el fichero de rechazos.
+ *
+ * Así la carga de varias tablas dura aproximadamente lo que la más lenta, y no la suma de todas.
+ * Las claves ajenas deben ser de una sola columna. Si falla una tabla, se detienen todas.
+ */
+@Slf4j
+public class GraphLoader {
+
+    private final DataSource dataSource;
+    private final Function<String, BatchSizer> batchSizers;
+    private final int commitInterval;
+    private final int maxPending;
+    private final RejectFile rejects;
+    private final Map<String, Node<?>> nodes = new LinkedHashMap<>();
+
+    /**
+     * @param dataSource - Pool de conexiones. Necesita una conexión por tabla.
+     * @param batchSizers - Crea el BatchSizer de cada tabla a partir de su nombre
+     * @param commitInterval - Filas entre commits de cada tabla. Cada commit publica las claves confirmadas.
+     * @param maxPending - Filas que puede tener una tabla esperando a sus padres antes de dejar de leer
+     * @param rejects - Fichero de rechazos para las filas cuyo padre no existe. Si es null, esas filas detienen la carga.
+     */
+    public GraphLoader(DataSource dataSource, Function<String, BatchSizer> batchSizers, int commitInterval,
+                       int maxPending, RejectFile rejects) {
+        if (commitInterval <= 0 || maxPending <= 0) {
+            throw new IllegalArgumentException("Parámetros de carga no válidos");
+        }
+        this.dataSource = dataSource;
+        this.batchSizers = batchSizers;
+        this.commitInterval = commitInterval;
+        this.maxPending = maxPending;
+        this.rejects = rejects;
+    }
+
+    /**
+     * Declara una tabla del grafo.
+     * @param mapping - Tabla y columnas. Sus claves son las que se publican para las tablas hijas.
+     * @param source - Abre el origen de las filas
+     * @param writerFactory - Crea el escritor de la tabla sobre su conexión
+     * @return - Nodo de la tabla, para declarar sus claves ajenas
+     */
+    public <T> Node<T> table(TableMapping<T> mapping, SourceFactory<T> source,
+                             PartitionedLoader.WriterFactory<T> writerFactory) {
+        Node<T> node = new Node<>(mapping, source, writerFactory);
+        if (nodes.putIfAbsent(mapping.getTable(), node) != null) {
+            throw new IllegalArgumentException("La tabla " + mapping.getTable() + " ya está en el grafo");
+        }
+        return node;
+    }
+
+    /**
+     * Carga todas las tablas del grafo.
+     * @return - Rendimiento de cada tabla, en el orden en que se declararon
+     * @throws SQLException - Error en alguna tabla
+     */
+    public Map<String, TableReport> load() throws SQLException {
+        validate();
+        KeyRegistry registry = new KeyRegistry();
+        preload(registry);
+
+        AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(nodes.size(),
+                runnable -> new Thread(runnable, "graph-loader"));
+        long start = System.nanoTime();
+        try {
+            Map<String, Future<TableReport>> futures = new LinkedHashMap<>();
+            for (Node<?> node : nodes.values()) {
+                futures.put(node.table(), executor.submit(() -> {
+                    // Cada tabla tiene su hilo: con su nombre se distinguen en los logs y en los volcados de hilos
+                    Thread.currentThread().setName("graph-loader-" + node.table());
+                    return new Worker<>(node, registry, failed).run();
+                }));
+            }
+
+            // Si falla una tabla, lanzamos su error y no el de las que se detuvieron por su culpa
+            Map<String, TableReport> reports = new LinkedHashMap<>();
+            ExecutionException error = null;
+            for (Map.Entry<String, Future<TableReport>> entry : futures.entrySet()) {
+                try {
+                    reports.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    if (error == null || error.getCause() instanceof StoppedException) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            reports.values().forEach(report -> log.info("{}", report));
+            log.info("Carga del grafo terminada en {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return reports;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Carga interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("Error en la carga del grafo", e.getCause());
+        } finally {
+            // Como en PartitionedLoader: no volvemos hasta que las tablas que fallan terminen de deshacer
+            // y devuelvan su conexión
+            executor.shutdownNow();
+            PartitionedLoader.awaitWorkers(executor);
+        }
+    }
+
+    /**
+     * Comprueba que las tablas padre están declaradas y que no hay ciclos.
+     */
+    private void validate() {
+        for (Node<?> node : nodes.values()) {
+            for (String parent : node.parents.keySet()) {
+                if (!nodes.containsKey(parent)) {
+                    throw new IllegalStateException("La tabla " + node.table() + " referencia a " + parent
+                            + ", que no está en el grafo");
+                }
+            }
+        }
+        Set<String> done = new HashSet<>();
+        while (done.size() < nodes.size()) {
+            List<String> ready = nodes.values().stream()
+                    .filter(node -> !done.contains(node.table()) && done.containsAll(node.parents.keySet()))
+                    .map(Node::table).toList();
+            if (ready.isEmpty()) {
+                throw new IllegalStateException("Hay un ciclo de claves ajenas entre las tablas del grafo");
+            }
+            done.addAll(ready);
+        }
+    }
+
+    /**
+     * Lee las claves que ya existen en las tablas que son padre de alguna otra.
+     */
+    private void preload(KeyRegistry registry) throws SQLException {
+        Set<String> parents = nodes.values().stream().flatMap(node -> node.parents.keySet().stream())
+                .collect(Collectors.toSet());
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String parent : parents) {
+                TableMapping<?> mapping = nodes.get(parent).mapping;
+                Set<List<Object>> keys = registry.register(parent);
+                String names = mapping.keys().stream().map(TableMapping.Column::name).collect(Collectors.joining(", "));
+                try (ResultSet resultSet = statement.executeQuery("SELECT " + names + " FROM " + mapping.getTable())) {
+                    while (resultSet.next()) {
+                        List<Object> key = new ArrayList<>(mapping.keys().size());
+                        for (int i = 1; i <= mapping.keys().size(); i++) {
+                            key.add(SqlValues.normalize(resultSet.getObject(i)));
+                        }
+                        keys.add(key);
+                    }
+                }
+                log.info("Claves existentes en {}: {}", parent, keys.size());
+            }
+        }
+    }
+
+    /**
+     * Carga de una tabla en su propio hilo.
+     */
+    private class Worker<T> {
+
+        private final Node<T> node;
+        private final KeyRegistry registry;
+        private final AtomicBoolean failed;
+        private final boolean isParent;
+        private final List<T> batch = new ArrayList<>();
+        private final List<T> pending = new ArrayList<>();
+        private final List<List<Object>> uncommitted = new ArrayList<>();
+        private Connection connection;
+        private BatchWriter<T> writer;
+        private BatchSizer batchSizer;
+        private BatchResult total = BatchResult.EMPTY;
+        private long rows, batches, commits, rejected, sinceCommit, waitedNanos;
+
+        private Worker(Node<T> node, KeyRegistry registry, AtomicBoolean failed) {
+            this.node = node;
+            this.registry = registry;
+            this.failed = failed;
+            this.isParent = registry.isRegistered(node.table());
+        }
+
+        private TableReport run() throws Exception {
+            long start = System.nanoTime();
+            batchSizer = batchSizers.apply(node.table());
+            try (Connection pooled = dataSource.getConnection();
+                 RowSource<T> source = node.source.open()) {
+                connection = pooled;
+                connection.setAutoCommit(false);
+                writer = node.writerFactory.create(connection);
+                try {
+                    T row;
+                    while ((row = source.next()) != null) {
+                        checkFailed();
+                        accept(row);
+                        if (pending.size() >= maxPending) {
+                            drainPending(maxPending / 2);
+                        }
+                    }
+                    drainPending(0);
+                    flush();
+                    commit();
+                } catch (Exception e) {
+                    failed.set(true);
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    registry.finish(node.table());
+                    if (writer instanceof AutoCloseable closeable) {
+                        closeable.close();
+                    }
+                }
+            }
+            return new TableReport(node.table(), rows, rejected, batches, commits, total,
+                    TimeUnit.NANOSECONDS.toMillis(waitedNanos),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        private void accept(T row) throws SQLException {
+            switch (resolve(row)) {
+                case READY -> {
+                    batch.add(row);
+                    if (batch.size() >= batchSizer.size()) {
+                        flush();
+                    }
+                }
+                case WAIT -> pending.add(row);
+                case MISSING -> reject(row);
+            }
+        }
+
+        /**
+         * Vuelve a comprobar las filas en espera hasta que queden como mucho target,
+         * esperando a que los padres publiquen nuevas claves si hace falta.
+         */
+        private void drainPending(int target) throws SQLException, InterruptedException {
+            while (true) {
+                long version = registry.version();
+                List<T> waiting = new ArrayList<>(pending);
+                pending.clear();
+                for (T row : waiting) {
+                    accept(row);
+                }
+                if (pending.size() <= target) {
+                    return;
+                }
+                // Confirmamos lo escrito antes de esperar: las filas hijas bloquean las filas padre que referencian
+                flush();
+                commit();
+                long waitStart = System.nanoTime();
+                registry.await(version, failed);
+                waitedNanos += System.nanoTime() - waitStart;
+                checkFailed();
+            }
+        }
+
+        private Resolution resolve(T row) {
+            for (Map.Entry<String, Function<T, Object>> reference : node.parents.entrySet()) {
+                Object value = reference.getValue().apply(row);
+                if (value == null) {
+                    continue;
+                }
+                if (!registry.contains(reference.getKey(), List.of(SqlValues.normalize(value)))) {
+                    return registry.isFinished(reference.getKey()) ? Resolution.MISSING : Resolution.WAIT;
+                }
+            }
+            return Resolution.READY;
+        }
+
+        private void reject(T row) throws SQLException {
+            // Una tabla padre que falla también se da por terminada: sus claves no faltan, la carga se detiene
+            checkFailed();
+            String missing = node.parents.entrySet().stream()
+                    .filter(reference -> reference.getValue().apply(row) != null
+                            && !registry.contains(reference.getKey(),
+                            List.of(SqlValues.normalize(reference.getValue().apply(row)))))
+                    .map(reference -> reference.getKey() + "(" + reference.getValue().apply(row) + ")")
+                    .collect(Collectors.joining(", "));
+            if (rejects == null) {
+                throw new SQLException("Clave ajena inexistente en " + node.table() + ": " + missing);
+            }
+            rejects.reject(node.table(), -1, "Clave ajena inexistente: " + missing, node.mapping.describe(row));
+            rejected++;
+        }
+
+        private void flush() throws SQLException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            total = total.add(writer.write(batch));
+            batchSizer.record(batch.size(), System.nanoTime() - start);
+            if (isParent) {
+                batch.forEach(row -> uncommitted.add(SqlValues.key(node.mapping.keys(), row)));
+            }
+            rows += batch.size();
+            sinceCommit += batch.size();
+            batches++;
+            batch.clear();
+            if (sinceCommit >= commitInterval) {
+                commit();
+            }
+        }
+
+        private void commit() throws SQLException {
+            if (sinceCommit == 0) {
+                return;
+            }
+            connection.commit();
+            commits++;
+            sinceCommit = 0;
+            if (isParent) {
+                registry.publish(node.table(), uncommitted);
+                uncommitted.clear();
+            }
+        }
+
+        private void checkFailed() throws StoppedException {
+            if (failed.get()) {
+                throw new StoppedException(node.table());
+            }
+        }
+    }
+
+    private enum Resolution { READY, WAIT, MISSING }
+
+    /**
+     * Claves confirmadas de las tablas padre. Cada publicación incrementa una versión y despierta a quien espera.
+     * Usa ReentrantLock y no synchronized para no fijar hilos virtuales a su hilo portador mientras esperan.
+     */
+    private static class KeyRegistry {
+
+        private final Map<String, Set<List<Object>>> keys = new ConcurrentHashMap<>();
+        private final Set<String> finished = ConcurrentHashMap.newKeySet();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private volatile long version;
+
+        private Set<List<Object>> register(String table) {
+            return keys.computeIfAbsent(table, t -> ConcurrentHashMap.newKeySet());
+        }
+
+        private boolean isRegistered(String table) {
+            return keys.containsKey(table);
+        }
+
+        private boolean contains(String table, List<Object> key) {
+            return keys.get(table).contains(key);
+        }
+
+        private boolean isFinished(String table) {
+            return finished.contains(table);
+        }
+
+        private long version() {
+            return version;
+        }
+
+        private void publish(String table, Collection<List<Object>> committed) {
+            keys.get(table).addAll(committed);
+            signal();
+        }
+
+        private void finish(String table) {
+            finished.add(table);
+            signal();
+        }
+
+        private void signal() {
+            lock.lock();
+            try {
+                version++;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Espera a que haya una publicación posterior a la versión seen, o a que falle la carga.
+         */
+        private void await(long seen, AtomicBoolean failed) throws InterruptedException {
+            lock.lock();
+            try {
+                while (version == seen && !failed.get()) {
+                    changed.await(100, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Error de una tabla que se detiene porque ha fallado otra.
+     */
+    private static class StoppedException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        private StoppedException(String table) {
+            super("Carga de " + table + " detenida por un error en otra tabla");
+        }
+    }
+
+    /**
+     * Tabla del grafo.
+     */
+    public static class Node<T> {
+
+        private final TableMapping<T> mapping;
+        private final SourceFactory<T> source;
+        private final PartitionedLoader.WriterFactory<T> writerFactory;
+        private final Map<String, Function<T, Object>> parents = new LinkedHashMap<>();
+
+        private Node(TableMapping<T> mapping, SourceFactory<T> source, PartitionedLoader.WriterFactory<T> writerFactory) {
+            this.mapping = mapping;
+            this.source = source;
+            this.writerFactory = writerFactory;
+        }
+
+        /**
+         * Declara una clave ajena.
+         * @param parent - Tabla padre, que debe estar en el grafo
+         * @param foreignKey - Valor de la fila que referencia la clave (de una columna) de la tabla padre
+         * @return - Este nodo
+         */
+        public Node<T> references(String parent, Function<T, Object> foreignKey) {
+            parents.put(parent, foreignKey);
+            return this;
+        }
+
+        private String table() {
+            return mapping.getTable();
+        }
+    }
+
+    /**
+     * Abre el origen de las filas de una tabla.
+     */
+    @FunctionalInterface
+    public interface SourceFactory<T> {
+        RowSource<T> open() throws java.io.IOException;
+    }
+
+    /**
+     * Rendimiento de la carga de una tabla.
+     */
+    public record TableReport(String table, long rows, long rejected, long batches, long commits, BatchResult result,
+                              long waitedMillis, long elapsedMillis) {
+
+        public long rowsPerSecond() {
+            return elapsedMillis == 0 ? rows : rows * 1000 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return table + ": " + rows + " filas, " + rejected + " rechazadas, " + batches + " lotes, " + commits
+                    + " commits, " + elapsedMillis + " ms (" + rowsPerSecond() + " filas/s), "
+                    + waitedMillis + " ms esperando a las tablas padre";
+        }
+    }
+}
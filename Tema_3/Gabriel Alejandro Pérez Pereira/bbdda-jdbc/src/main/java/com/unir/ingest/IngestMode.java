@@ -0,0 +1,13 @@
+package com.unir.ingest;
+
+/**
+ * Forma de cargar los ficheros CSV en la base de datos.
+ */
+public enum IngestMode {
+
+    /** Lotes de PreparedStatement con upsert. Válido para cualquier carga y para MySQL y Oracle. */
+    BATCH,
+
+    /** LOAD DATA LOCAL INFILE sobre una tabla de staging y volcado posterior. Solo MySQL; pensado para cargas masivas. */
+    LOAD_DATA
+}
@@ -0,0 +1,180 @@
+package com.unir.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Carga en streaming: un hilo lector va leyendo filas del origen y las deja en una cola acotada,
+ * y el hilo que invoca {@link #run()} las consume y las escribe en lotes.
+ *
+ * - La lectura y la escritura se solapan: mientras la base de datos procesa un lote, se van leyendo los siguientes.
+ * - La cola tiene capacidad queueDepth. Si la base de datos va más lenta que el lector, el lector se bloquea
+ *   (backpressure), de modo que la memoria usada no depende del tamaño del fichero.
+ * - Si falla la lectura, el error se propaga al hilo escritor. Si falla la escritura, se detiene el lector.
+ *
+ * El pipeline no hace commit: la transacción la controla quien lo invoca, igual que con {@link BatchWriter}.
+ * Para confirmar por tramos, se puede registrar un {@link BatchListener} con {@link #onBatch(BatchListener)}.
+ *
+ * @param <T> - Tipo de las filas
+ */
+@Slf4j
+public class IngestionPipeline<T> {
+
+    public static final int DEFAULT_QUEUE_DEPTH = 1000;
+
+    /** Marca de fin de fichero en la cola. */
+    private static final Object END = new Object();
+
+    private final RowSource<T> source;
+    private final BatchWriter<T> writer;
+    private final int queueDepth;
+    private final BatchSizer batchSizer;
+    private BatchListener<T> listener = (batch, position, line) -> { };
+
+    /**
+     * @param source - Origen de las filas. Se cierra al terminar.
+     * @param writer - Escritor de lotes
+     * @param queueDepth - Capacidad de la cola entre el lector y el escritor
+     * @param batchSize - Filas por lote
+     */
+    public IngestionPipeline(RowSource<T> source, BatchWriter<T> writer, int queueDepth, int batchSize) {
+        this(source, writer, queueDepth, BatchSizer.fixed(batchSize));
+    }
+
+    /**
+     * @param source - Origen de las filas. Se cierra al terminar.
+     * @param writer - Escritor de lotes
+     * @param queueDepth - Capacidad de la cola entre el lector y el escritor
+     * @param batchSizer - Decide el tamaño de cada lote a partir del tiempo que tardan los anteriores
+     */
+    public IngestionPipeline(RowSource<T> source, BatchWriter<T> writer, int queueDepth, BatchSizer batchSizer) {
+        if (queueDepth <= 0) {
+            throw new IllegalArgumentException("queueDepth debe ser positivo");
+        }
+        this.source = source;
+        this.writer = writer;
+        this.queueDepth = queueDepth;
+        this.batchSizer = batchSizer;
+    }
+
+    /**
+     * Registra un listener que se invoca tras escribir cada lote, en el hilo escritor.
+     * @param listener - Listener. Recibe el lote y la posición y la linea del origen tras su última fila.
+     * @return - Este pipeline
+     */
+    public IngestionPipeline<T> onBatch(BatchListener<T> listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Ejecuta la carga completa.
+     * @return - Totales de todos los lotes
+     * @throws SQLException - Error al escribir un lote, o error de lectura envuelto en una SQLException
+     */
+    @SuppressWarnings("unchecked")
+    public BatchResult run() throws SQLException {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueDepth);
+        AtomicReference<Exception> readError = new AtomicReference<>();
+        AtomicLong rowsRead = new AtomicLong();
+
+        Thread reader = new Thread(() -> {
+            try (source) {
+                T row;
+                while ((row = source.next()) != null) {
+                    queue.put(new Entry<>(row, source.position(), source.line()));
+                    rowsRead.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                // El escritor ha fallado y nos ha pedido parar
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                readError.set(e);
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "ingestion-reader");
+
+        long start = System.nanoTime();
+        long batches = 0;
+        BatchResult total = BatchResult.EMPTY;
+        List<T> batch = new ArrayList<>(batchSizer.size());
+        long position = -1;
+        long line = -1;
+        reader.start();
+
+        try {
+            Object item;
+            while ((item = queue.take()) != END) {
+                Entry<T> entry = (Entry<T>) item;
+                batch.add(entry.row());
+                position = entry.position();
+                line = entry.line();
+                if (batch.size() >= batchSizer.size()) {
+                    total = total.add(write(batch, position, line));
+                    batches++;
+                    batch.clear();
+                }
+            }
+            if (readError.get() != null) {
+                throw new SQLException("Error al leer el origen de datos", readError.get());
+            }
+            if (!batch.isEmpty()) {
+                total = total.add(write(batch, position, line));
+                batches++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Carga interrumpida", e);
+        } finally {
+            reader.interrupt();
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Carga terminada: {} filas en {} lotes, {} ms ({} filas/s), {}",
+                rowsRead.get(), batches, millis, millis == 0 ? rowsRead.get() : rowsRead.get() * 1000 / millis,
+                batchSizer);
+        return total;
+    }
+
+    private BatchResult write(List<T> batch, long position, long line) throws SQLException {
+        long start = System.nanoTime();
+        BatchResult result = writer.write(batch);
+        batchSizer.record(batch.size(), System.nanoTime() - start);
+        listener.written(batch, position, line);
+        return result;
+    }
+
+    /**
+     * Fila leída junto con la posición y la linea del origen tras ella.
+     */
+    private record Entry<T>(T row, long position, long line) {
+    }
+
+    /**
+     * Aviso de que un lote se ha escrito (pero aún no se ha confirmado).
+     */
+    @FunctionalInterface
+    public interface BatchListener<T> {
+
+        /**
+         * @param batch - Lote recién escrito. No se debe guardar: se reutiliza para el siguiente lote.
+         * @param position - Posición del origen tras la última fila del lote, o -1 si el origen no la conoce
+         * @param line - Lineas del origen leídas hasta la última fila del lote, o -1 si el origen no las cuenta
+         * @throws SQLException - Error al procesar el aviso. Detiene la carga.
+         */
+        void written(List<T> batch, long position, long line) throws SQLException;
+    }
+}
@@ -0,0 +1,200 @@
+package com.unir.ingest;
+
+import com.unir.config.SqlDialect;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Resuelve qué claves de un lote existen ya en una tabla, sin una consulta por fila.
+ *
+ * - Al empezar la carga se leen todas las claves de la tabla y se guardan en un {@link BloomFilter}.
+ *   Las claves que el filtro no contiene no existen seguro, y no se consultan.
+ * - El resto se resuelven en bloque con una consulta WHERE clave IN (...) por cada 1000 claves.
+ * - Las claves que se insertan durante la carga se añaden al filtro con {@link #added(Object)}.
+ *
+ * Si una transacción se deshace, el filtro conserva claves que ya no existen: solo supone algún falso
+ * positivo más, que la consulta resuelve.
+ *
+ * @param <T> - Tipo de las filas
+ */
+@Slf4j
+public class KeyExistence<T> {
+
+    /** Máximo de claves por consulta (Oracle no admite más de 1000 elementos en un IN). */
+    private static final int MAX_KEYS_PER_QUERY = 1000;
+    /** Margen de claves nuevas que se prevé insertar, sobre las que ya hay en la tabla. */
+    private static final double GROWTH = 1.5;
+
+    private final Connection connection;
+    private final TableMapping<T> mapping;
+    private final List<TableMapping.Column<T>> keys;
+    private final BloomFilter filter;
+    private long skipped;
+    private long queried;
+    private long queries;
+
+    private KeyExistence(Connection connection, TableMapping<T> mapping, BloomFilter filter) {
+        this.connection = connection;
+        this.mapping = mapping;
+        this.keys = mapping.keys();
+        this.filter = filter;
+    }
+
+    /**
+     * Crea el resolvedor leyendo una vez todas las claves de la tabla.
+     * @param connection - Conexión a la base de datos
+     * @param dialect - Dialecto, para leer las claves en streaming sin cargarlas todas en memoria
+     * @param mapping - Tabla y columnas clave
+     * @param falsePositiveRate - Probabilidad de falso positivo del filtro (por ejemplo 0.01)
+     * @return - Resolvedor con el filtro cargado
+     * @throws SQLException - Error al leer las claves
+     */
+    public static <T> KeyExistence<T> load(Connection connection, SqlDialect dialect, TableMapping<T> mapping,
+                                           double falsePositiveRate) throws SQLException {
+        long start = System.nanoTime();
+        String names = mapping.keys().stream().map(TableMapping.Column::name).collect(Collectors.joining(", "));
+        long count;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + mapping.getTable())) {
+            resultSet.next();
+            count = resultSet.getLong(1);
+        }
+
+        KeyExistence<T> existence = new KeyExistence<>(connection, mapping,
+                new BloomFilter((long) (count * GROWTH) + 1000, falsePositiveRate));
+        try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // MySQL solo lee en streaming con fetchSize Integer.MIN_VALUE; Oracle lee de fetchSize en fetchSize filas
+            statement.setFetchSize(dialect == SqlDialect.MYSQL ? Integer.MIN_VALUE : 5000);
+            try (ResultSet resultSet = statement.executeQuery("SELECT " + names + " FROM " + mapping.getTable())) {
+                List<Object> key = new ArrayList<>(mapping.keys().size());
+                while (resultSet.next()) {
+                    key.clear();
+                    for (int i = 1; i <= mapping.keys().size(); i++) {
+                        key.add(SqlValues.normalize(resultSet.getObject(i)));
+                    }
+                    existence.filter.put(hash(key));
+                }
+            }
+        }
+        log.info("Filtro de claves de {}: {} claves, {} KB, {} ms", mapping.getTable(), count,
+                existence.filter.sizeInBytes() / 1024, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return existence;
+    }
+
+    /**
+     * @return - false si la clave de la fila no existe seguro; true si puede existir
+     */
+    public boolean mightExist(T row) {
+        return filter.mightContain(hash(SqlValues.key(keys, row)));
+    }
+
+    /**
+     * Resuelve qué filas del lote existen ya en la tabla.
+     * @param rows - Filas
+     * @return - Claves normalizadas (ver {@link #key(Object)}) de las filas que existen
+     * @throws SQLException - Error al consultar las claves
+     */
+    public Set<List<Object>> existing(List<T> rows) throws SQLException {
+        List<T> candidates = new ArrayList<>(rows.size());
+        for (T row : rows) {
+            if (mightExist(row)) {
+                candidates.add(row);
+            }
+        }
+        skipped += rows.size() - candidates.size();
+        queried += candidates.size();
+
+        Set<List<Object>> existing = new HashSet<>(candidates.size() * 2);
+        String select = "SELECT " + keys.stream().map(TableMapping.Column::name).collect(Collectors.joining(", "))
+                + " FROM " + mapping.getTable() + " WHERE ";
+        queries += selectByKeys(connection, select, keys, candidates,
+                resultSet -> existing.add(readKey(resultSet, keys.size())));
+        return existing;
+    }
+
+    /**
+     * Consulta las filas de la tabla con las claves de rows, en bloques de como mucho MAX_KEYS_PER_QUERY claves.
+     * @param select - SELECT ... FROM ... WHERE, al que se añade la condición IN de las claves
+     * @param keys - Columnas clave
+     * @param rows - Filas cuyas claves se buscan
+     * @param reader - Recibe cada fila encontrada, con las columnas clave al principio
+     * @return - Número de consultas ejecutadas
+     * @throws SQLException - Error al ejecutar alguna consulta
+     */
+    static <T> int selectByKeys(Connection connection, String select, List<TableMapping.Column<T>> keys,
+                                List<T> rows, RowReader reader) throws SQLException {
+        int queries = 0;
+        for (int from = 0; from < rows.size(); from += MAX_KEYS_PER_QUERY) {
+            List<T> chunk = rows.subList(from, Math.min(rows.size(), from + MAX_KEYS_PER_QUERY));
+            try (PreparedStatement statement = connection.prepareStatement(select + SqlValues.inClause(keys, chunk.size()))) {
+                int index = 1;
+                for (T row : chunk) {
+                    for (TableMapping.Column<T> key : keys) {
+                        statement.setObject(index++, key.getter().apply(row), key.sqlType());
+                    }
+                }
+                queries++;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        reader.read(resultSet);
+                    }
+                }
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * @return - Clave normalizada leída de las primeras size columnas de la fila actual
+     */
+    static List<Object> readKey(ResultSet resultSet, int size) throws SQLException {
+        List<Object> key = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            key.add(SqlValues.normalize(resultSet.getObject(i)));
+        }
+        return key;
+    }
+
+    /**
+     * Anota que se ha insertado una fila, para que su clave ya no se dé por inexistente.
+     */
+    public void added(T row) {
+        filter.put(hash(SqlValues.key(keys, row)));
+    }
+
+    /**
+     * @return - Clave normalizada de una fila, comparable con las devueltas por {@link #existing(List)}
+     */
+    public List<Object> key(T row) {
+        return SqlValues.key(keys, row);
+    }
+
+    private static long hash(List<Object> key) {
+        return BloomFilter.hash(key.stream().map(String::valueOf).collect(Collectors.joining("\u0000")));
+    }
+
+    @Override
+    public String toString() {
+        return "Claves de " + mapping.getTable() + ": " + skipped + " descartadas por el filtro, "
+                + queried + " consultadas en " + queries + " consultas";
+    }
+
+    /**
+     * Lectura de cada fila devuelta por {@link #selectByKeys}.
+     */
+    @FunctionalInterface
+    interface RowReader {
+        void read(ResultSet resultSet) throws SQLException;
+    }
+}
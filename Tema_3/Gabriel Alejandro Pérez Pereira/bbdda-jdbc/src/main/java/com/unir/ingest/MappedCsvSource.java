@@ -0,0 +1,460 @@
+package com.unir.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lector de CSV que trabaja directamente sobre el fichero mapeado en memoria (FileChannel.map).
+ *
+ * - Cada linea se trocea sobre los bytes del fichero: de cada campo solo se guarda dónde empieza y dónde termina.
+ * - Los campos se convierten cuando el mapeador los pide, y solo esos. Los enteros y las fechas ISO (yyyy-MM-dd)
+ *   se leen de los bytes sin crear Strings intermedios; los textos se decodifican en UTF-8 al pedirlos.
+ * - Con {@link #split(String, int)} el fichero se divide en tramos que empiezan y terminan en un salto de linea,
+ *   de modo que varios hilos pueden leer tramos distintos a la vez, cada uno con su propio MappedCsvSource.
+ *
+ * Admite campos entre comillas (con "" como comilla escapada), pero no saltos de linea dentro de un campo:
+ * eso es lo que permite partir el fichero por cualquier salto de linea.
+ * Cada instancia la usa un único hilo.
+ *
+ * @param <T> - Tipo de las filas
+ */
+public class MappedCsvSource<T> implements RowSource<T> {
+
+    /** Bytes del fichero mapeados a la vez. Una linea no puede ser más larga. */
+    private static final int WINDOW = 256 * 1024 * 1024;
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final RowMapper<T> mapper;
+    private final byte separator;
+    private final long end;
+    private final boolean partial;
+    private final Row row = new Row();
+
+    private MappedByteBuffer buffer;
+    private long windowStart;
+    private long position;
+    private long line;
+
+    /**
+     * Lee el fichero completo, saltando la cabecera.
+     * @param fileName - Fichero CSV, relativo a la raíz del proyecto
+     * @param separator - Separador de campos (ASCII)
+     * @param mapper - Conversión de una linea a un objeto
+     * @throws IOException - Si no se puede abrir el fichero
+     */
+    public MappedCsvSource(String fileName, char separator, RowMapper<T> mapper) throws IOException {
+        this(fileName, separator, mapper, 0, 0);
+    }
+
+    /**
+     * Lee el fichero desde un byte hasta el final.
+     * @param fileName - Fichero CSV, relativo a la raíz del proyecto
+     * @param separator - Separador de campos (ASCII)
+     * @param mapper - Conversión de una linea a un objeto
+     * @param offset - Byte donde empieza una linea. Si es 0, se salta la cabecera.
+     * @param line - Lineas del fichero antes de offset (ver {@link #line()}), para numerar las lineas en los errores
+     * @throws IOException - Si no se puede abrir el fichero
+     */
+    public MappedCsvSource(String fileName, char separator, RowMapper<T> mapper, long offset, long line)
+            throws IOException {
+        this(fileName, separator, mapper, new Range(offset, Long.MAX_VALUE), line, false);
+    }
+
+    /**
+     * Lee un tramo del fichero obtenido con {@link #split(String, int)}.
+     * Las lineas de los errores se numeran desde el inicio del tramo.
+     * @param fileName - Fichero CSV, relativo a la raíz del proyecto
+     * @param separator - Separador de campos (ASCII)
+     * @param mapper - Conversión de una linea a un objeto
+     * @param range - Tramo a leer. Si empieza en 0, se salta la cabecera.
+     * @throws IOException - Si no se puede abrir el fichero
+     */
+    public MappedCsvSource(String fileName, char separator, RowMapper<T> mapper, Range range) throws IOException {
+        this(fileName, separator, mapper, range, 0, range.start() > 0);
+    }
+
+    private MappedCsvSource(String fileName, char separator, RowMapper<T> mapper, Range range, long line,
+                            boolean partial) throws IOException {
+        if (separator > 0x7F) {
+            throw new IllegalArgumentException("El separador debe ser un carácter ASCII");
+        }
+        this.fileName = fileName;
+        this.mapper = mapper;
+        this.separator = (byte) separator;
+        this.partial = partial;
+        this.channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        try {
+            this.end = Math.min(range.end(), channel.size());
+            this.position = range.start();
+            this.line = line;
+
+            if (position == 0 && tokenize()) {
+                position = row.next;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Si falla el mapeo o la cabecera, nadie más podrá cerrar el canal
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Divide un fichero en tramos que empiezan justo después de un salto de linea, sin contar la cabecera.
+     * @param fileName - Fichero CSV
+     * @param parts - Número de tramos deseado. Puede haber menos si el fichero es pequeño.
+     * @return - Tramos consecutivos que cubren todas las filas del fichero
+     * @throws IOException - Si no se puede leer el fichero
+     */
+    public static List<Range> split(String fileName, int parts) throws IOException {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("parts debe ser positivo");
+        }
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = nextLine(channel, 0);
+            List<Range> ranges = new ArrayList<>(parts);
+            for (int i = 1; i <= parts && start < size; i++) {
+                long boundary = i == parts ? size : nextLine(channel, start + (size - start) / (parts - i + 1));
+                if (boundary > start) {
+                    ranges.add(new Range(start, boundary));
+                    start = boundary;
+                }
+            }
+            return ranges;
+        }
+    }
+
+    /**
+     * @return - Byte donde empieza la linea siguiente a partir de from (o el tamaño del fichero)
+     */
+    private static long nextLine(FileChannel channel, long from) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        long offset = from;
+        while (true) {
+            chunk.clear();
+            int read = channel.read(chunk, offset);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (chunk.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+    }
+
+    @Override
+    public T next() throws IOException {
+        while (tokenize()) {
+            long start = position;
+            position = row.next;
+            if (row.count == 1 && row.ends[0] == row.starts[0] && !row.quoted[0]) {
+                continue; // Linea vacía
+            }
+            try {
+                return mapper.map(row);
+            } catch (Exception e) {
+                throw new RowFormatException("Error al interpretar la linea " + line + (partial ? " del tramo" : "")
+                        + " (byte " + start + ") de " + fileName, start, text(start, position), e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return - Byte del fichero donde empieza la siguiente fila
+     */
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public long line() {
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        row.buffer = null;
+        channel.close();
+    }
+
+    /**
+     * Trocea la linea que empieza en position y deja sus campos en row.
+     * @return - false si no quedan lineas en el tramo
+     */
+    private boolean tokenize() throws IOException {
+        if (position >= end) {
+            return false;
+        }
+        if (buffer == null || position < windowStart || position >= windowStart + buffer.limit()) {
+            map(position);
+        }
+        if (!scan()) {
+            // La linea no cabe en la ventana actual: volvemos a mapear a partir de su inicio
+            map(position);
+            if (!scan()) {
+                throw new IOException("Linea de más de " + WINDOW + " bytes en " + fileName + ", byte " + position);
+            }
+        }
+        line++;
+        return true;
+    }
+
+    /**
+     * @return - Texto de la linea entre dos bytes de la ventana actual, sin el salto de linea
+     */
+    private String text(long from, long to) {
+        int start = (int) (from - windowStart);
+        int end = (int) (to - windowStart);
+        while (end > start && (buffer.get(end - 1) == '\n' || buffer.get(end - 1) == '\r')) {
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void map(long from) throws IOException {
+        windowStart = from;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(WINDOW, end - from));
+        row.buffer = buffer;
+    }
+
+    /**
+     * @return - false si la linea continúa después del final de la ventana mapeada
+     */
+    private boolean scan() throws IOException {
+        int limit = buffer.limit();
+        boolean lastWindow = windowStart + limit >= end;
+        int p = (int) (position - windowStart);
+        row.count = 0;
+
+        while (true) {
+            int start;
+            int fieldEnd;
+            boolean quoted = p < limit && buffer.get(p) == '"';
+            if (quoted) {
+                start = ++p;
+                while (true) {
+                    if (p >= limit) {
+                        if (lastWindow) {
+                            throw new IOException("Comillas sin cerrar en la linea " + (line + 1) + " de " + fileName);
+                        }
+                        return false;
+                    }
+                    if (buffer.get(p) == '"') {
+                        if (p + 1 < limit && buffer.get(p + 1) == '"') {
+                            p += 2;
+                            continue;
+                        }
+                        if (p + 1 >= limit && !lastWindow) {
+                            return false;
+                        }
+                        break;
+                    }
+                    p++;
+                }
+                fieldEnd = p++;
+            } else {
+                start = p;
+                byte b;
+                while (p < limit && (b = buffer.get(p)) != separator && b != '\n' && b != '\r') {
+                    p++;
+                }
+                fieldEnd = p;
+            }
+            row.add(start, fieldEnd, quoted);
+
+            if (p >= limit) {
+                if (!lastWindow) {
+                    return false;
+                }
+                row.next = windowStart + p;
+                return true;
+            }
+            byte b = buffer.get(p);
+            if (b == separator) {
+                p++;
+                continue;
+            }
+            if (b == '\r') {
+                p++;
+                if (p >= limit && !lastWindow) {
+                    return false;
+                }
+                if (p < limit && buffer.get(p) == '\n') {
+                    p++;
+                }
+            } else if (b == '\n') {
+                p++;
+            } else {
+                throw new IOException("Carácter inesperado tras una comilla en la linea " + (line + 1) + " de " + fileName);
+            }
+            row.next = windowStart + p;
+            return true;
+        }
+    }
+
+    /**
+     * Tramo de un fichero: del byte start (incluido) al byte end (excluido).
+     */
+    public record Range(long start, long end) {
+    }
+
+    /**
+     * Conversión de una linea a un objeto. Solo se decodifican los campos que se piden.
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(Row row) throws Exception;
+    }
+
+    /**
+     * Vista sobre los campos de la linea actual. Se reutiliza en cada linea: no se debe guardar.
+     */
+    public static class Row {
+
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private boolean[] quoted = new boolean[16];
+        private byte[] scratch = new byte[64];
+        private ByteBuffer buffer;
+        private int count;
+        private long next;
+
+        private void add(int start, int end, boolean isQuoted) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                quoted = Arrays.copyOf(quoted, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            quoted[count] = isQuoted;
+            count++;
+        }
+
+        /**
+         * @return - Número de campos de la linea
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * @return - true si el campo está vacío y sin comillas
+         */
+        public boolean isEmpty(int field) {
+            check(field);
+            return ends[field] == starts[field] && !quoted[field];
+        }
+
+        /**
+         * @return - Campo decodificado en UTF-8. Un campo vacío es "", con o sin comillas, como en OpenCSV.
+         */
+        public String getString(int field) {
+            check(field);
+            int length = ends[field] - starts[field];
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(starts[field], scratch, 0, length);
+            if (quoted[field]) {
+                // Las comillas escapadas ("") se quedan en una sola
+                int target = 0;
+                for (int i = 0; i < length; i++) {
+                    scratch[target++] = scratch[i];
+                    if (scratch[i] == '"') {
+                        i++;
+                    }
+                }
+                length = target;
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return - Campo como entero, leído directamente de los bytes
+         */
+        public int getInt(int field) {
+            long value = getLong(field);
+            if (value != (int) value) {
+                throw new NumberFormatException("Entero fuera de rango en el campo " + field);
+            }
+            return (int) value;
+        }
+
+        /**
+         * @return - Campo como entero largo, leído directamente de los bytes
+         */
+        public long getLong(int field) {
+            check(field);
+            int p = starts[field];
+            int end = ends[field];
+            boolean negative = p < end && buffer.get(p) == '-';
+            if (negative) {
+                p++;
+            }
+            if (p == end || end - p > 18) {
+                throw new NumberFormatException("Entero no válido en el campo " + field);
+            }
+            long value = 0;
+            for (; p < end; p++) {
+                int digit = buffer.get(p) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Entero no válido en el campo " + field);
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * @return - Campo con formato yyyy-MM-dd como fecha, o null si está vacío
+         */
+        public Date getDate(int field) {
+            if (isEmpty(field)) {
+                return null;
+            }
+            int p = starts[field];
+            if (ends[field] - p != 10 || buffer.get(p + 4) != '-' || buffer.get(p + 7) != '-') {
+                throw new IllegalArgumentException("Fecha no válida en el campo " + field + ", se espera yyyy-MM-dd");
+            }
+            return Date.valueOf(LocalDate.of(digits(p, 4), digits(p + 5, 2), digits(p + 8, 2)));
+        }
+
+        private int digits(int from, int length) {
+            int value = 0;
+            for (int p = from; p < from + length; p++) {
+                int digit = buffer.get(p) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IllegalArgumentException("Fecha no válida: se espera yyyy-MM-dd");
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        private void check(int field) {
+            if (field < 0 || field >= count) {
+                throw new IndexOutOfBoundsException("La linea tiene " + count + " campos, no existe el campo " + field);
+            }
+        }
+    }
+}
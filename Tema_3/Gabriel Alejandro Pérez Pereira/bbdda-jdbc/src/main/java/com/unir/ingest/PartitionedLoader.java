@@ -0,0 +1,349 @@
+package com.unir.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Carga en paralelo repartiendo las filas entre varias conexiones.
+ *
+ * - El hilo que invoca {@link #load(RowSource)} lee el origen y reparte cada fila según el hash de su clave,
+ *   de modo que una misma clave siempre va a la misma partición y dos workers nunca escriben la misma fila.
+ * - Con {@link #load(List)} se leen varios orígenes a la vez, cada uno en su hilo (por ejemplo, los tramos
+ *   de {@link MappedCsvSource#split}), y sus filas se reparten igual entre los workers.
+ * - Cada worker tiene su propia conexión del pool, su propia cola acotada y su propia transacción.
+ *   Hace commit cada commitInterval filas, o una única vez al final si commitInterval es 0.
+ * - Si un worker falla, deshace lo que no haya confirmado y el resto de workers se detienen.
+ *
+ * El orden entre tablas (departments, employees, dept_emp) lo marca quien lo invoca: cada llamada a load
+ * no termina hasta que todas las particiones han hecho commit.
+ *
+ * @param <T> - Tipo de las filas
+ */
+@Slf4j
+public class PartitionedLoader<T> {
+
+    private static final Object END = new Object();
+
+    /** Tiempo máximo que se espera a que los workers terminen de deshacer y devolver su conexión tras un error. */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final DataSource dataSource;
+    private final WriterFactory<T> writerFactory;
+    private final Function<T, Object> partitionKey;
+    private final int workers;
+    private final Supplier<BatchSizer> batchSizers;
+    private final int commitInterval;
+    private final int queueDepth;
+
+    /**
+     * @param dataSource - Pool del que se obtienen las conexiones. Debe admitir al menos workers conexiones.
+     * @param writerFactory - Crea el escritor de lotes de cada worker sobre su conexión
+     * @param partitionKey - Clave por la que se reparten las filas (emp_no, dept_no...)
+     * @param workers - Número de workers (y de conexiones)
+     * @param batchSize - Filas por lote
+     * @param commitInterval - Filas entre commits de cada worker. 0 para un único commit por partición.
+     * @param queueDepth - Capacidad de la cola de cada worker
+     */
+    public PartitionedLoader(DataSource dataSource, WriterFactory<T> writerFactory, Function<T, Object> partitionKey,
+                             int workers, int batchSize, int commitInterval, int queueDepth) {
+        this(dataSource, writerFactory, partitionKey, workers, () -> BatchSizer.fixed(batchSize), commitInterval, queueDepth);
+    }
+
+    /**
+     * @param dataSource - Pool del que se obtienen las conexiones. Debe admitir al menos workers conexiones.
+     * @param writerFactory - Crea el escritor de lotes de cada worker sobre su conexión
+     * @param partitionKey - Clave por la que se reparten las filas (emp_no, dept_no...)
+     * @param workers - Número de workers (y de conexiones)
+     * @param batchSizers - Crea el BatchSizer de cada worker, ya que cada conexión mide sus propios tiempos
+     * @param commitInterval - Filas entre commits de cada worker. 0 para un único commit por partición.
+     * @param queueDepth - Capacidad de la cola de cada worker
+     */
+    public PartitionedLoader(DataSource dataSource, WriterFactory<T> writerFactory, Function<T, Object> partitionKey,
+                             int workers, Supplier<BatchSizer> batchSizers, int commitInterval, int queueDepth) {
+        if (workers <= 0 || commitInterval < 0 || queueDepth <= 0) {
+            throw new IllegalArgumentException("Parámetros de carga no válidos");
+        }
+        this.dataSource = dataSource;
+        this.writerFactory = writerFactory;
+        this.partitionKey = partitionKey;
+        this.workers = workers;
+        this.batchSizers = batchSizers;
+        this.commitInterval = commitInterval;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Carga todas las filas del origen y espera a que todas las particiones hagan commit.
+     * @param source - Origen de las filas. Se cierra al terminar.
+     * @return - Totales y rendimiento de cada worker
+     * @throws SQLException - Error en algún worker o al leer el origen
+     */
+    public LoadReport load(RowSource<T> source) throws SQLException {
+        return load(List.of(source));
+    }
+
+    /**
+     * Carga todas las filas de varios orígenes, leyendo cada uno en su propio hilo, y espera a que todas
+     * las particiones hagan commit. Si una clave aparece en varios orígenes, no se garantiza en qué orden
+     * se escriben sus filas.
+     * @param sources - Orígenes de las filas, por ejemplo los tramos de un mismo fichero. Se cierran al terminar.
+     * @return - Totales y rendimiento de cada worker
+     * @throws SQLException - Error en algún worker o al leer algún origen
+     */
+    public LoadReport load(List<? extends RowSource<T>> sources) throws SQLException {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("No hay orígenes que cargar");
+        }
+        List<BlockingQueue<Object>> queues = new ArrayList<>(workers);
+        List<Future<WorkerStats>> futures = new ArrayList<>(workers);
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers,
+                runnable -> new Thread(runnable, "loader-worker-" + threadNumber.getAndIncrement()));
+        // El primer origen lo lee el hilo que invoca; el resto, un hilo cada uno
+        AtomicInteger readerNumber = new AtomicInteger(1);
+        ExecutorService readers = Executors.newFixedThreadPool(Math.max(1, sources.size() - 1),
+                runnable -> new Thread(runnable, "loader-reader-" + readerNumber.getAndIncrement()));
+
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < workers; i++) {
+                BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueDepth);
+                queues.add(queue);
+                int worker = i;
+                futures.add(executor.submit(() -> runWorker(worker, queue, failed)));
+            }
+
+            try {
+                List<Future<Void>> reads = new ArrayList<>(sources.size() - 1);
+                for (RowSource<T> source : sources.subList(1, sources.size())) {
+                    reads.add(readers.submit(() -> {
+                        read(source, queues, failed);
+                        return null;
+                    }));
+                }
+                read(sources.get(0), queues, failed);
+                for (Future<Void> read : reads) {
+                    read.get();
+                }
+            } finally {
+                for (BlockingQueue<Object> queue : queues) {
+                    offer(queue, END, failed);
+                }
+            }
+
+            // Si falla algún worker, lanzamos su error y no el de los que se detuvieron por su culpa
+            List<WorkerStats> stats = new ArrayList<>(workers);
+            ExecutionException error = null;
+            for (Future<WorkerStats> future : futures) {
+                try {
+                    stats.add(future.get());
+                } catch (ExecutionException e) {
+                    if (error == null || error.getCause() instanceof StoppedException) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            LoadReport report = new LoadReport(stats, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            stats.forEach(worker -> log.info("{}", worker));
+            log.info("Carga en paralelo terminada: {} filas en {} ms ({} filas/s)",
+                    report.rows(), report.elapsedMillis(), report.rowsPerSecond());
+            return report;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Carga interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("Error en un worker de carga", e.getCause());
+        } finally {
+            // Tras un error los workers pueden estar aún deshaciendo su transacción: no volvemos hasta que
+            // devuelvan su conexión, para que quien nos llama pueda cerrar el pool
+            readers.shutdownNow();
+            executor.shutdownNow();
+            awaitWorkers(readers);
+            awaitWorkers(executor);
+        }
+    }
+
+    /**
+     * Lee un origen y reparte sus filas entre las colas de los workers según el hash de su clave.
+     */
+    private void read(RowSource<T> source, List<BlockingQueue<Object>> queues, AtomicBoolean failed)
+            throws SQLException {
+        try (source) {
+            T row;
+            while (!failed.get() && (row = source.next()) != null) {
+                int partition = Math.floorMod(partitionKey.apply(row).hashCode(), workers);
+                offer(queues.get(partition), row, failed);
+            }
+        } catch (Exception e) {
+            failed.set(true);
+            throw new SQLException("Error al leer el origen de datos", e);
+        }
+    }
+
+    /**
+     * Espera, como mucho SHUTDOWN_TIMEOUT_SECONDS, a que terminen los hilos de un executor ya detenido.
+     */
+    static void awaitWorkers(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Los workers de carga no han terminado tras {} s", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Encola una fila sin bloquearse indefinidamente: si algún worker falla, se deja de esperar.
+     */
+    private void offer(BlockingQueue<Object> queue, Object item, AtomicBoolean failed) {
+        try {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (failed.get()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private WorkerStats runWorker(int worker, BlockingQueue<Object> queue, AtomicBoolean failed) throws Exception {
+        long start = System.nanoTime();
+        long rows = 0, batches = 0, commits = 0, sinceCommit = 0;
+        BatchResult total = BatchResult.EMPTY;
+        BatchSizer batchSizer = batchSizers.get();
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            BatchWriter<T> writer = writerFactory.create(connection);
+            try {
+                List<T> batch = new ArrayList<>(batchSizer.size());
+                Object item;
+                while ((item = queue.poll(100, TimeUnit.MILLISECONDS)) != END) {
+                    if (failed.get()) {
+                        throw new StoppedException(worker);
+                    }
+                    if (item == null) {
+                        continue;
+                    }
+                    batch.add((T) item);
+                    if (batch.size() >= batchSizer.size()) {
+                        long writeStart = System.nanoTime();
+                        total = total.add(writer.write(batch));
+                        batchSizer.record(batch.size(), System.nanoTime() - writeStart);
+                        rows += batch.size();
+                        sinceCommit += batch.size();
+                        batches++;
+                        batch.clear();
+                        if (commitInterval > 0 && sinceCommit >= commitInterval) {
+                            connection.commit();
+                            commits++;
+                            sinceCommit = 0;
+                        }
+                    }
+                }
+                if (failed.get()) {
+                    throw new StoppedException(worker);
+                }
+                if (!batch.isEmpty()) {
+                    total = total.add(writer.write(batch));
+                    rows += batch.size();
+                    batches++;
+                }
+                connection.commit();
+                commits++;
+            } catch (Exception e) {
+                failed.set(true);
+                connection.rollback();
+                throw e;
+            } finally {
+                if (writer instanceof AutoCloseable closeable) {
+                    closeable.close();
+                }
+            }
+        }
+        return new WorkerStats(worker, rows, batches, commits, total,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), batchSizer.toString());
+    }
+
+    /**
+     * Error de un worker que se detiene porque ha fallado otra partición.
+     */
+    private static class StoppedException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        private StoppedException(int worker) {
+            super("Worker " + worker + " detenido por un error en otra partición");
+        }
+    }
+
+    /**
+     * Crea el escritor de lotes de un worker sobre su conexión.
+     * Si el escritor es AutoCloseable, se cierra al terminar el worker.
+     */
+    @FunctionalInterface
+    public interface WriterFactory<T> {
+        BatchWriter<T> create(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Rendimiento de un worker.
+     */
+    public record WorkerStats(int worker, long rows, long batches, long commits, BatchResult result,
+                              long elapsedMillis, String batchSizer) {
+
+        public long rowsPerSecond() {
+            return elapsedMillis == 0 ? rows : rows * 1000 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Worker " + worker + ": " + rows + " filas, " + batches + " lotes, " + commits + " commits, "
+                    + elapsedMillis + " ms (" + rowsPerSecond() + " filas/s), " + batchSizer;
+        }
+    }
+
+    /**
+     * Resultado de una carga en paralelo.
+     */
+    public record LoadReport(List<WorkerStats> workers, long elapsedMillis) {
+
+        public long rows() {
+            return workers.stream().mapToLong(WorkerStats::rows).sum();
+        }
+
+        public long rowsPerSecond() {
+            return elapsedMillis == 0 ? rows() : rows() * 1000 / elapsedMillis;
+        }
+
+        public BatchResult result() {
+            return workers.stream().map(WorkerStats::result).reduce(BatchResult.EMPTY, BatchResult::add);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.unir.ingest;
+
+import java.io.IOException;
+
+/**
+ * Origen que aparta las lineas mal formadas en lugar de detener la carga.
+ * Cada {@link RowFormatException} del origen se anota en el fichero de rechazos y se pasa a la linea siguiente.
+ * El resto de errores de lectura (fichero inaccesible, comillas sin cerrar al final...) se propagan.
+ *
+ * @param <T> - Tipo de las filas
+ */
+public class QuarantineSource<T> implements RowSource<T> {
+
+    private final RowSource<T> source;
+    private final String origin;
+    private final RejectFile rejects;
+
+    /**
+     * @param source - Origen que lanza RowFormatException para las lineas mal formadas
+     * @param origin - Nombre del origen en el fichero de rechazos (normalmente el fichero)
+     * @param rejects - Fichero de rechazos. No se cierra al cerrar este origen.
+     */
+    public QuarantineSource(RowSource<T> source, String origin, RejectFile rejects) {
+        this.source = source;
+        this.origin = origin;
+        this.rejects = rejects;
+    }
+
+    @Override
+    public T next() throws IOException {
+        while (true) {
+            try {
+                return source.next();
+            } catch (RowFormatException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                rejects.reject(origin, e.getOffset(), "Formato: " + cause, e.getText());
+            }
+        }
+    }
+
+    @Override
+    public long position() {
+        return source.position();
+    }
+
+    @Override
+    public long line() {
+        return source.line();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,119 @@
+package com.unir.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Savepoint;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Escritor que aparta las filas que la base de datos rechaza (clave ajena inexistente, clave duplicada,
+ * dato fuera de rango...) en lugar de detener la carga.
+ *
+ * Cada lote se escribe tras un savepoint. Si falla por culpa de los datos, se vuelve al savepoint y el lote
+ * se parte en dos mitades que se escriben por separado, y así sucesivamente hasta aislar las filas culpables,
+ * que se anotan en el fichero de rechazos. Con k filas malas en un lote de n hacen falta unos k·log2(n) viajes
+ * extra, en lugar de los n de repetir el lote fila a fila. Los lotes sin errores solo pagan el savepoint.
+ *
+ * Los errores que no dependen de los datos (conexión, sintaxis, bloqueos...) se propagan tal cual.
+ * No hace commit: la transacción la controla quien lo invoca.
+ *
+ * @param <T> - Tipo de las filas
+ */
+@Slf4j
+public class QuarantineWriter<T> implements BatchWriter<T> {
+
+    private final Connection connection;
+    private final BatchWriter<T> writer;
+    private final Function<T, String> describe;
+    private final String origin;
+    private final RejectFile rejects;
+    private boolean releaseSupported = true;
+
+    /**
+     * @param connection - Conexión sobre la que escribe el escritor, con autocommit desactivado
+     * @param writer - Escritor de lotes (puede ser compuesto, por ejemplo employees y dept_emp)
+     * @param describe - Texto de una fila para el fichero de rechazos
+     * @param origin - Nombre del origen en el fichero de rechazos
+     * @param rejects - Fichero de rechazos
+     */
+    public QuarantineWriter(Connection connection, BatchWriter<T> writer, Function<T, String> describe,
+                            String origin, RejectFile rejects) {
+        this.connection = connection;
+        this.writer = writer;
+        this.describe = describe;
+        this.origin = origin;
+        this.rejects = rejects;
+    }
+
+    @Override
+    public BatchResult write(List<T> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return BatchResult.EMPTY;
+        }
+        Savepoint savepoint = connection.setSavepoint();
+        try {
+            BatchResult result = writer.write(batch);
+            release(savepoint);
+            return result;
+        } catch (SQLException e) {
+            if (!isRowError(e)) {
+                throw e;
+            }
+            // El lote puede haberse aplicado en parte: lo deshacemos entero antes de partirlo
+            connection.rollback(savepoint);
+            release(savepoint);
+            if (batch.size() == 1) {
+                rejects.reject(origin, -1, "Base de datos: " + rootMessage(e), describe.apply(batch.get(0)));
+                return BatchResult.EMPTY;
+            }
+            log.debug("Lote de {} filas rechazado por {}: se parte en dos", batch.size(), rootMessage(e));
+            int half = batch.size() / 2;
+            return write(batch.subList(0, half)).add(write(batch.subList(half, batch.size())));
+        }
+    }
+
+    private void release(Savepoint savepoint) throws SQLException {
+        if (!releaseSupported) {
+            return;
+        }
+        try {
+            connection.releaseSavepoint(savepoint);
+        } catch (SQLFeatureNotSupportedException e) {
+            // Oracle no libera savepoints: desaparecen con el commit
+            releaseSupported = false;
+        }
+    }
+
+    /**
+     * Indica si el error se debe a los datos de alguna fila: SQLState de clase 22 (dato no válido)
+     * o 23 (restricción de integridad: clave duplicada, clave ajena, NOT NULL...).
+     */
+    static boolean isRowError(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            for (Throwable t = next; t != null; t = t.getCause()) {
+                if (t instanceof SQLIntegrityConstraintViolationException || t instanceof SQLDataException) {
+                    return true;
+                }
+                if (t instanceof SQLException sqlException && sqlException.getSQLState() != null
+                        && (sqlException.getSQLState().startsWith("22") || sqlException.getSQLState().startsWith("23"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable root = e;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getMessage();
+    }
+}
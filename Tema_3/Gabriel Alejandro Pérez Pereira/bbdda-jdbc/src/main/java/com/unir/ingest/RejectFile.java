@@ -0,0 +1,89 @@
+package com.unir.ingest;
+
+import com.opencsv.CSVWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fichero CSV de filas rechazadas (dead letter): cada fila que no se ha podido cargar se anota con el motivo,
+ * y la carga sigue con el resto. Corregidas, las filas se pueden volver a cargar por separado.
+ *
+ * Columnas: fecha, origen (fichero o tabla), posición (byte del fichero, si se conoce), motivo y fila.
+ * El fichero se abre en modo append, así que varias ejecuciones (o una carga reanudada) se acumulan.
+ * Pueden escribir a la vez el hilo lector y el escritor de una carga.
+ */
+@Slf4j
+public class RejectFile implements AutoCloseable {
+
+    private static final String[] HEADER = {"fecha", "origen", "posicion", "motivo", "fila"};
+
+    private final Path path;
+    private final CSVWriter writer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param path - Fichero de rechazos. Se crea si no existe.
+     * @throws IOException - Si no se puede abrir el fichero
+     */
+    public RejectFile(Path path) throws IOException {
+        this.path = path;
+        boolean exists = Files.exists(path) && Files.size(path) > 0;
+        this.writer = new CSVWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        if (!exists) {
+            writer.writeNext(HEADER);
+        }
+    }
+
+    /**
+     * Anota una fila rechazada.
+     * @param origin - Fichero o tabla de la que viene la fila
+     * @param offset - Posición de la fila en el fichero, o -1
+     * @param reason - Motivo del rechazo
+     * @param row - Texto de la fila
+     */
+    public void reject(String origin, long offset, String reason, String row) {
+        lock.lock();
+        try {
+            writer.writeNext(new String[]{LocalDateTime.now().toString(), origin,
+                    offset < 0 ? "" : Long.toString(offset), reason, row});
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error al escribir en el fichero de rechazos " + path, e);
+        } finally {
+            lock.unlock();
+        }
+        rejected.increment();
+        log.warn("Fila rechazada de {}: {} -> {}", origin, reason, row);
+    }
+
+    /**
+     * @return - Filas rechazadas desde que se abrió el fichero
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            writer.close();
+        } finally {
+            lock.unlock();
+        }
+        if (getRejected() > 0) {
+            log.warn("{} filas rechazadas. Revisa el fichero {}", getRejected(), path.toAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.unir.ingest;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Error al convertir una linea del origen en una fila (formato de fecha, número no válido, campos que faltan...).
+ * La linea ya se ha consumido, así que se puede seguir leyendo el origen a continuación.
+ */
+@Getter
+public class RowFormatException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Posición del origen donde empieza la linea, o -1 si no se conoce. */
+    private final long offset;
+    /** Texto de la linea tal como aparece en el origen. */
+    private final String text;
+
+    public RowFormatException(String message, long offset, String text, Throwable cause) {
+        super(message, cause);
+        this.offset = offset;
+        this.text = text;
+    }
+}
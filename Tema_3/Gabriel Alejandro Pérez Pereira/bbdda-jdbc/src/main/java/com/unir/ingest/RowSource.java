@@ -0,0 +1,39 @@
+package com.unir.ingest;
+
+import java.io.IOException;
+
+/**
+ * Origen de filas que se leen de una en una, sin cargar el fichero completo en memoria.
+ *
+ * @param <T> - Tipo de las filas
+ */
+public interface RowSource<T> extends AutoCloseable {
+
+    /**
+     * @return - Siguiente fila, o null si no quedan más
+     * @throws IOException - Error al leer o interpretar la fila
+     */
+    T next() throws IOException;
+
+    /**
+     * Posición del origen justo después de la última fila devuelta por {@link #next()}.
+     * Permite guardar un checkpoint y volver a abrir el origen desde ese punto.
+     * @return - Posición (por ejemplo, byte del fichero), o -1 si el origen no la conoce
+     */
+    default long position() {
+        return -1;
+    }
+
+    /**
+     * Lineas del origen leídas hasta la última fila devuelta por {@link #next()}, cabecera incluida.
+     * Se guarda en el checkpoint junto a {@link #position()} para que, al reanudar, los errores sigan indicando
+     * la linea del fichero y no la contada desde el punto de reanudación.
+     * @return - Lineas leídas, o -1 si el origen no las cuenta
+     */
+    default long line() {
+        return -1;
+    }
+
+    @Override
+    void close() throws IOException;
+}
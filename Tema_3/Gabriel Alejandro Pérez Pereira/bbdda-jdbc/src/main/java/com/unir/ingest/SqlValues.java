@@ -0,0 +1,68 @@
+package com.unir.ingest;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Utilidades para comparar claves y valores del modelo con los que devuelve el driver.
+ */
+final class SqlValues {
+
+    private SqlValues() {
+    }
+
+    /**
+     * Condición "clave IN (...)" para un número de filas. Con claves compuestas, "(k1, k2) IN ((?, ?), ...)".
+     */
+    static <T> String inClause(List<TableMapping.Column<T>> keys, int rows) {
+        String names = keys.stream().map(TableMapping.Column::name).collect(Collectors.joining(", "));
+        String tuple = keys.stream().map(key -> "?").collect(Collectors.joining(", "));
+        if (keys.size() > 1) {
+            names = "(" + names + ")";
+            tuple = "(" + tuple + ")";
+        }
+        return names + " IN (" + String.join(", ", Collections.nCopies(rows, tuple)) + ")";
+    }
+
+    /**
+     * @return - Clave normalizada de una fila, comparable con la leída de la base de datos
+     */
+    static <T> List<Object> key(List<TableMapping.Column<T>> keys, T row) {
+        List<Object> key = new ArrayList<>(keys.size());
+        for (TableMapping.Column<T> column : keys) {
+            key.add(normalize(column.getter().apply(row)));
+        }
+        return key;
+    }
+
+    /**
+     * Lleva a una misma representación los valores del modelo y los que devuelve el driver:
+     * números como BigDecimal, fechas como LocalDate (Oracle devuelve DATE como Timestamp) y textos sin
+     * los espacios de relleno de las columnas CHAR.
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Number number) {
+            return new BigDecimal(number.toString()).stripTrailingZeros();
+        }
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime().toLocalTime().equals(LocalTime.MIDNIGHT)
+                    ? timestamp.toLocalDateTime().toLocalDate()
+                    : timestamp.toLocalDateTime();
+        }
+        if (value instanceof java.sql.Date date) {
+            return date.toLocalDate();
+        }
+        if (value instanceof String text) {
+            return text.stripTrailing();
+        }
+        if (value instanceof Character character) {
+            return character.toString();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,99 @@
+package com.unir.ingest;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Describe cómo se guarda un objeto del modelo en una tabla: nombre de la tabla y, para cada columna,
+ * su nombre, su tipo SQL y la función que extrae el valor del objeto.
+ * Las columnas clave son las que identifican la fila (emp_no, dept_no...).
+ *
+ * @param <T> - Tipo del objeto del modelo
+ */
+@Getter
+public class TableMapping<T> {
+
+    private final String table;
+    private final List<Column<T>> columns;
+
+    private TableMapping(String table, List<Column<T>> columns) {
+        this.table = table;
+        this.columns = Collections.unmodifiableList(columns);
+    }
+
+    public static <T> Builder<T> builder(String table) {
+        return new Builder<>(table);
+    }
+
+    /**
+     * @return - Columnas que forman la clave
+     */
+    public List<Column<T>> keys() {
+        return columns.stream().filter(Column::key).toList();
+    }
+
+    /**
+     * @return - Columnas que se actualizan si la fila ya existe
+     */
+    public List<Column<T>> updatable() {
+        return columns.stream().filter(column -> !column.key() && !column.insertOnly()).toList();
+    }
+
+    /**
+     * Describe una fila con los valores de sus columnas, para logs y ficheros de rechazos.
+     * @param row - Fila
+     * @return - Texto del tipo "emp_no=10001, first_name=Georgi, ..."
+     */
+    public String describe(T row) {
+        return columns.stream().map(column -> column.name() + "=" + column.getter().apply(row))
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Columna de la tabla.
+     * @param name - Nombre de la columna
+     * @param sqlType - Tipo SQL (java.sql.Types), necesario para enlazar valores nulos
+     * @param key - Si forma parte de la clave
+     * @param insertOnly - Si solo se escribe al insertar (no se sobreescribe en filas existentes)
+     * @param getter - Función que extrae el valor del objeto
+     */
+    public record Column<T>(String name, int sqlType, boolean key, boolean insertOnly, Function<T, Object> getter) {
+    }
+
+    public static class Builder<T> {
+
+        private final String table;
+        private final List<Column<T>> columns = new ArrayList<>();
+
+        private Builder(String table) {
+            this.table = table;
+        }
+
+        public Builder<T> key(String name, int sqlType, Function<T, Object> getter) {
+            columns.add(new Column<>(name, sqlType, true, false, getter));
+            return this;
+        }
+
+        public Builder<T> column(String name, int sqlType, Function<T, Object> getter) {
+            columns.add(new Column<>(name, sqlType, false, false, getter));
+            return this;
+        }
+
+        public Builder<T> insertOnly(String name, int sqlType, Function<T, Object> getter) {
+            columns.add(new Column<>(name, sqlType, false, true, getter));
+            return this;
+        }
+
+        public TableMapping<T> build() {
+            if (columns.stream().noneMatch(Column::key)) {
+                throw new IllegalStateException("La tabla " + table + " necesita al menos una columna clave");
+            }
+            return new TableMapping<>(table, new ArrayList<>(columns));
+        }
+    }
+}
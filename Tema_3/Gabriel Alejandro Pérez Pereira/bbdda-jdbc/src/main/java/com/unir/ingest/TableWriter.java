@@ -0,0 +1,14 @@
+package com.unir.ingest;
+
+import java.sql.SQLException;
+
+/**
+ * Escritor de lotes sobre una tabla que mantiene sentencias preparadas y se debe cerrar al terminar.
+ *
+ * @param <T> - Tipo de las filas
+ */
+public interface TableWriter<T> extends BatchWriter<T>, AutoCloseable {
+
+    @Override
+    void close() throws SQLException;
+}
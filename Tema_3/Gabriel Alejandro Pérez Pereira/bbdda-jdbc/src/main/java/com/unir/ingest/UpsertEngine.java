@@ -0,0 +1,232 @@
+package com.unir.ingest;
+
+import com.unir.config.SqlDialect;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Motor de upsert por lotes.
+ * En lugar de hacer un SELECT COUNT(*) por fila para decidir entre INSERT y UPDATE, se deja que la base de datos
+ * lo decida con una única sentencia:
+ * - MySQL: INSERT ... ON DUPLICATE KEY UPDATE
+ * - Oracle: MERGE INTO ... USING (SELECT ... FROM dual)
+ * La sentencia se prepara una sola vez y cada lote se envía con executeBatch, es decir, un viaje por lote.
+ *
+ * @param <T> - Tipo de las filas
+ */
+@Slf4j
+public class UpsertEngine<T> implements TableWriter<T> {
+
+    @Getter
+    private final TableMapping<T> mapping;
+    @Getter
+    private final String sql;
+    private final SqlDialect dialect;
+    private final PreparedStatement statement;
+    private long batches;
+
+    /**
+     * @param connection - Conexión a la base de datos. No se cierra ni se hace commit sobre ella.
+     * @param dialect - Dialecto SQL de la conexión
+     * @param mapping - Tabla destino y columnas
+     * @throws SQLException - Error al preparar la sentencia
+     */
+    public UpsertEngine(Connection connection, SqlDialect dialect, TableMapping<T> mapping) throws SQLException {
+        this.mapping = mapping;
+        this.dialect = dialect;
+        this.sql = upsertSql(dialect, mapping);
+        this.statement = connection.prepareStatement(sql);
+    }
+
+    /**
+     * Escribe un lote con un único executeBatch.
+     * @param batch - Filas a insertar o actualizar
+     * @return - Filas insertadas, actualizadas y sin cambios
+     * @throws SQLException - Error al ejecutar el lote
+     */
+    @Override
+    public BatchResult write(List<T> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return BatchResult.EMPTY;
+        }
+        for (T row : batch) {
+            bind(statement, mapping, row);
+            statement.addBatch();
+        }
+        BatchResult result;
+        try {
+            result = count(statement.executeBatch());
+        } catch (SQLException e) {
+            // Algunos drivers conservan el lote tras un error: lo descartamos para que no se mezcle con el siguiente
+            statement.clearBatch();
+            throw e;
+        }
+        log.debug("Lote {} en {}: {} filas, {} insertadas, {} actualizadas, {} sin cambios, {} sin detalle",
+                ++batches, mapping.getTable(), batch.size(),
+                result.inserted(), result.updated(), result.unchanged(), result.merged());
+        return result;
+    }
+
+    /**
+     * Escribe todas las filas en lotes de batchSize.
+     * @param rows - Filas
+     * @param batchSize - Tamaño del lote
+     * @return - Totales de todos los lotes
+     * @throws SQLException - Error al ejecutar algún lote
+     */
+    public BatchResult upsert(Iterable<T> rows, int batchSize) throws SQLException {
+        return upsert(rows.iterator(), batchSize, (chunk, size, result) -> { });
+    }
+
+    /**
+     * Igual que {@link #upsert(Iterable, int)}, avisando del resultado de cada lote.
+     * @param listener - Recibe el resultado de cada lote nada más ejecutarlo
+     */
+    public BatchResult upsert(Iterable<T> rows, int batchSize, ChunkListener listener) throws SQLException {
+        return upsert(rows.iterator(), batchSize, listener);
+    }
+
+    /**
+     * Igual que {@link #upsert(Iterable, int)}, pero consumiendo un Stream.
+     */
+    public BatchResult upsert(Stream<T> rows, int batchSize) throws SQLException {
+        return upsert(rows.iterator(), batchSize, (chunk, size, result) -> { });
+    }
+
+    /**
+     * Igual que {@link #upsert(Iterable, int, ChunkListener)}, pero consumiendo un Stream.
+     */
+    public BatchResult upsert(Stream<T> rows, int batchSize, ChunkListener listener) throws SQLException {
+        return upsert(rows.iterator(), batchSize, listener);
+    }
+
+    private BatchResult upsert(Iterator<T> rows, int batchSize, ChunkListener listener) throws SQLException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("El tamaño de lote debe ser positivo");
+        }
+        BatchResult total = BatchResult.EMPTY;
+        List<T> batch = new ArrayList<>(batchSize);
+        long chunks = 0;
+        while (rows.hasNext()) {
+            batch.add(rows.next());
+            if (batch.size() == batchSize) {
+                total = total.add(write(batch, ++chunks, listener));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            total = total.add(write(batch, ++chunks, listener));
+        }
+        log.info("Upsert en {} terminado: {} insertadas, {} actualizadas, {} sin cambios, {} sin detalle",
+                mapping.getTable(), total.inserted(), total.updated(), total.unchanged(), total.merged());
+        return total;
+    }
+
+    private BatchResult write(List<T> batch, long chunk, ChunkListener listener) throws SQLException {
+        BatchResult result = write(batch);
+        listener.written(chunk, batch.size(), result);
+        return result;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        statement.close();
+    }
+
+    /**
+     * Interpreta los contadores devueltos por executeBatch.
+     * En MySQL, ON DUPLICATE KEY UPDATE devuelve 1 si inserta, 2 si actualiza y 0 si la fila no cambia, siempre que
+     * la conexión tenga useAffectedRows=true (las de {@link com.unir.config.MySqlConnector} lo tienen). Sin esa
+     * propiedad una fila sin cambios devuelve 1 y se contaría como insertada.
+     * En Oracle, MERGE devuelve 1 en ambos casos.
+     */
+    private BatchResult count(int[] counts) {
+        long inserted = 0, updated = 0, unchanged = 0, merged = 0;
+        for (int count : counts) {
+            if (dialect == SqlDialect.ORACLE || count == Statement.SUCCESS_NO_INFO) {
+                merged++;
+            } else if (count == 1) {
+                inserted++;
+            } else if (count == 2) {
+                updated++;
+            } else if (count == 0) {
+                unchanged++;
+            } else {
+                merged++;
+            }
+        }
+        return new BatchResult(inserted, updated, unchanged, merged);
+    }
+
+    /**
+     * Enlaza los valores de una fila en el orden de las columnas del mapeo.
+     */
+    static <T> void bind(PreparedStatement statement, TableMapping<T> mapping, T row) throws SQLException {
+        int index = 1;
+        for (TableMapping.Column<T> column : mapping.getColumns()) {
+            Object value = column.getter().apply(row);
+            if (value == null) {
+                statement.setNull(index++, column.sqlType());
+            } else {
+                statement.setObject(index++, value, column.sqlType());
+            }
+        }
+    }
+
+    /**
+     * Genera la sentencia de upsert. Los parámetros siguen siempre el orden de las columnas del mapeo.
+     */
+    static <T> String upsertSql(SqlDialect dialect, TableMapping<T> mapping) {
+        List<String> names = mapping.getColumns().stream().map(TableMapping.Column::name).toList();
+        List<TableMapping.Column<T>> updatable = mapping.updatable();
+
+        return switch (dialect) {
+            case MYSQL -> {
+                // Si no hay columnas que actualizar, reasignamos la clave: la fila no cambia y, con useAffectedRows,
+                // MySQL devuelve 0
+                String updates = updatable.isEmpty()
+                        ? mapping.keys().get(0).name() + " = new." + mapping.keys().get(0).name()
+                        : updatable.stream().map(c -> c.name() + " = new." + c.name()).collect(Collectors.joining(", "));
+                yield "INSERT INTO " + mapping.getTable() + " (" + String.join(", ", names) + ") "
+                        + "VALUES (" + names.stream().map(n -> "?").collect(Collectors.joining(", ")) + ") AS new "
+                        + "ON DUPLICATE KEY UPDATE " + updates;
+            }
+            case ORACLE -> {
+                String source = names.stream().map(n -> "? AS " + n).collect(Collectors.joining(", "));
+                String on = mapping.keys().stream().map(c -> "t." + c.name() + " = s." + c.name())
+                        .collect(Collectors.joining(" AND "));
+                String matched = updatable.isEmpty() ? "" : " WHEN MATCHED THEN UPDATE SET "
+                        + updatable.stream().map(c -> "t." + c.name() + " = s." + c.name()).collect(Collectors.joining(", "));
+                yield "MERGE INTO " + mapping.getTable() + " t "
+                        + "USING (SELECT " + source + " FROM dual) s ON (" + on + ")"
+                        + matched
+                        + " WHEN NOT MATCHED THEN INSERT (" + String.join(", ", names) + ") "
+                        + "VALUES (" + names.stream().map(n -> "s." + n).collect(Collectors.joining(", ")) + ")";
+            }
+        };
+    }
+
+    /**
+     * Aviso del resultado de cada lote de {@link #upsert(Iterable, int, ChunkListener)}.
+     */
+    @FunctionalInterface
+    public interface ChunkListener {
+
+        /**
+         * @param chunk - Número del lote, empezando en 1
+         * @param rows - Filas del lote
+         * @param result - Filas insertadas, actualizadas y sin cambios del lote
+         */
+        void written(long chunk, int rows, BatchResult result);
+    }
+}
@@ -0,0 +1,45 @@
+package com.unir.model;
+
+import com.unir.ingest.TableMapping;
+
+import java.sql.Date;
+import java.sql.Types;
+
+/**
+ * Mapeos de los objetos del modelo a las tablas del schema employees de MySQL.
+ */
+public final class MySqlMappings {
+
+    /**
+     * Fecha de fin que usa el schema employees para indicar que una relación sigue vigente.
+     */
+    public static final Date CURRENT_TO_DATE = Date.valueOf("9999-01-01");
+
+    public static final TableMapping<MySqlEmployee> EMPLOYEES = TableMapping.<MySqlEmployee>builder("employees")
+            .key("emp_no", Types.INTEGER, MySqlEmployee::getEmployeeId)
+            .column("first_name", Types.VARCHAR, MySqlEmployee::getFirstName)
+            .column("last_name", Types.VARCHAR, MySqlEmployee::getLastName)
+            .column("gender", Types.CHAR, MySqlEmployee::getGender)
+            .column("hire_date", Types.DATE, MySqlEmployee::getHireDate)
+            .column("birth_date", Types.DATE, MySqlEmployee::getBirthDate)
+            .build();
+
+    public static final TableMapping<MySQLDepartment> DEPARTMENTS = TableMapping.<MySQLDepartment>builder("departments")
+            .key("dept_no", Types.CHAR, MySQLDepartment::getDpt_no)
+            .column("dept_name", Types.VARCHAR, MySQLDepartment::getDpt_name)
+            .build();
+
+    /**
+     * Relación empleado-departamento a partir de la columna dept_no del CSV de empleados.
+     * Las fechas solo se escriben al crear la relación, para no perder el histórico de las que ya existen.
+     */
+    public static final TableMapping<MySqlEmployee> DEPT_EMP = TableMapping.<MySqlEmployee>builder("dept_emp")
+            .key("emp_no", Types.INTEGER, MySqlEmployee::getEmployeeId)
+            .key("dept_no", Types.CHAR, MySqlEmployee::getDept_no)
+            .insertOnly("from_date", Types.DATE, MySqlEmployee::getHireDate)
+            .insertOnly("to_date", Types.DATE, employee -> CURRENT_TO_DATE)
+            .build();
+
+    private MySqlMappings() {
+    }
+}
@@ -0,0 +1,14 @@
+package com.unir.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import java.sql.Date;
+
+@AllArgsConstructor
+@Getter
+public class MySqlSalary {
+    private int employeeId;
+    private int salary;
+    private Date fromDate;
+    private Date toDate;
+}
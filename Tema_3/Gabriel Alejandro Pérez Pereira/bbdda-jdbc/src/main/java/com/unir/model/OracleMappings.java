@@ -0,0 +1,20 @@
+package com.unir.model;
+
+import com.unir.ingest.TableMapping;
+
+import java.sql.Types;
+
+/**
+ * Mapeos de los objetos del modelo a las tablas del schema HR de Oracle.
+ */
+public final class OracleMappings {
+
+    public static final TableMapping<OracleCountry> COUNTRIES = TableMapping.<OracleCountry>builder("countries")
+            .key("country_id", Types.CHAR, OracleCountry::getCountryId)
+            .column("country_name", Types.VARCHAR, OracleCountry::getCountryName)
+            .column("region_id", Types.INTEGER, OracleCountry::getRegionId)
+            .build();
+
+    private OracleMappings() {
+    }
+}
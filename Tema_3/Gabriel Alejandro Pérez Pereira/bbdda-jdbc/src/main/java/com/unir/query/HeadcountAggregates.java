@@ -0,0 +1,198 @@
+package com.unir.query;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recuentos de empleados por género, por departamento y por cargo, mantenidos en memoria.
+ *
+ * - Se calculan una vez, con un GROUP BY por cada dimensión. Solo cuentan las filas actuales de dept_emp y titles
+ *   (to_date = '9999-01-01').
+ * - Las escrituras los mantienen al día con {@link #added}, {@link #removed} y {@link #moved}, sin volver a contar.
+ * - {@link #reconcile} los recalcula contra la base de datos; con {@link #reconcileEvery} se hace periódicamente
+ *   en segundo plano, por si alguna escritura no se ha anotado o se ha deshecho después de anotarla.
+ *
+ * Las lecturas son O(1) y nunca van a la base de datos. Es seguro entre hilos: los contadores son atómicos
+ * y la reconciliación sustituye todos a la vez.
+ */
+@Slf4j
+public class HeadcountAggregates implements AutoCloseable {
+
+    /**
+     * Dimensiones por las que se cuenta, con la consulta que las calcula.
+     */
+    public enum Dimension {
+        GENDER("SELECT gender, COUNT(*) FROM employees GROUP BY gender"),
+        DEPARTMENT("SELECT dept_no, COUNT(*) FROM dept_emp WHERE to_date = DATE '9999-01-01' GROUP BY dept_no"),
+        TITLE("SELECT title, COUNT(*) FROM titles WHERE to_date = DATE '9999-01-01' GROUP BY title");
+
+        private final String query;
+
+        Dimension(String query) {
+            this.query = query;
+        }
+    }
+
+    private volatile Map<Dimension, ConcurrentHashMap<String, AtomicLong>> counts = empty();
+    private ScheduledExecutorService reconciler;
+
+    private HeadcountAggregates() {
+    }
+
+    /**
+     * Calcula los recuentos de todas las dimensiones.
+     * @param connection - Conexión a la base de datos
+     * @return - Recuentos cargados
+     * @throws SQLException - Error al contar
+     */
+    public static HeadcountAggregates load(Connection connection) throws SQLException {
+        HeadcountAggregates aggregates = new HeadcountAggregates();
+        aggregates.reconcile(connection);
+        return aggregates;
+    }
+
+    /**
+     * Recalcula todos los recuentos contra la base de datos y los sustituye.
+     * Si difieren de los que había, se registra: indica escrituras que no se han anotado.
+     * @param connection - Conexión a la base de datos
+     * @throws SQLException - Error al contar
+     */
+    public void reconcile(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        Map<Dimension, ConcurrentHashMap<String, AtomicLong>> loaded = empty();
+        try (Statement statement = connection.createStatement()) {
+            for (Dimension dimension : Dimension.values()) {
+                try (ResultSet resultSet = statement.executeQuery(dimension.query)) {
+                    while (resultSet.next()) {
+                        loaded.get(dimension).put(resultSet.getString(1), new AtomicLong(resultSet.getLong(2)));
+                    }
+                }
+            }
+        }
+        Map<Dimension, ConcurrentHashMap<String, AtomicLong>> previous = counts;
+        counts = loaded;
+        for (Dimension dimension : Dimension.values()) {
+            Map<String, Long> before = snapshot(previous.get(dimension));
+            Map<String, Long> after = snapshot(loaded.get(dimension));
+            if (!before.isEmpty() && !before.equals(after)) {
+                log.warn("Recuentos por {} corregidos al reconciliar: {} -> {}", dimension, before, after);
+            }
+        }
+        log.debug("Recuentos reconciliados en {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Reconcilia los recuentos periódicamente en segundo plano, con una conexión del pool.
+     * @param dataSource - Pool de conexiones
+     * @param interval - Tiempo entre reconciliaciones
+     * @return - Estos recuentos
+     */
+    public HeadcountAggregates reconcileEvery(DataSource dataSource, Duration interval) {
+        if (reconciler != null) {
+            throw new IllegalStateException("La reconciliación periódica ya está activa");
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "headcount-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try (Connection connection = dataSource.getConnection()) {
+                reconcile(connection);
+            } catch (SQLException e) {
+                log.warn("Error al reconciliar los recuentos; se sigue con los actuales", e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * @return - Empleados con ese valor de la dimensión (género, dept_no o cargo)
+     */
+    public long count(Dimension dimension, String value) {
+        AtomicLong count = counts.get(dimension).get(value);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return - Recuento de cada valor de la dimensión, de mayor a menor
+     */
+    public Map<String, Long> counts(Dimension dimension) {
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        snapshot(counts.get(dimension)).entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .forEachOrdered(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+    /**
+     * Anota que se ha añadido un empleado, una relación con un departamento o un cargo actual.
+     */
+    public void added(Dimension dimension, String value) {
+        add(dimension, value, 1);
+    }
+
+    /**
+     * Anota que se ha eliminado (o cerrado con to_date) un empleado, una relación con un departamento o un cargo.
+     */
+    public void removed(Dimension dimension, String value) {
+        add(dimension, value, -1);
+    }
+
+    /**
+     * Anota un cambio de valor: de género, de departamento o de cargo.
+     */
+    public void moved(Dimension dimension, String from, String to) {
+        if (from == null ? to == null : from.equals(to)) {
+            return;
+        }
+        removed(dimension, from);
+        added(dimension, to);
+    }
+
+    private void add(Dimension dimension, String value, long delta) {
+        if (value != null) {
+            counts.get(dimension).computeIfAbsent(value, v -> new AtomicLong()).addAndGet(delta);
+        }
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> counts) {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        counts.forEach((value, count) -> {
+            if (count.get() != 0) {
+                snapshot.put(value, count.get());
+            }
+        });
+        return snapshot;
+    }
+
+    private static Map<Dimension, ConcurrentHashMap<String, AtomicLong>> empty() {
+        Map<Dimension, ConcurrentHashMap<String, AtomicLong>> counts = new EnumMap<>(Dimension.class);
+        for (Dimension dimension : Dimension.values()) {
+            counts.put(dimension, new ConcurrentHashMap<>());
+        }
+        return counts;
+    }
+
+    @Override
+    public void close() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+    }
+}
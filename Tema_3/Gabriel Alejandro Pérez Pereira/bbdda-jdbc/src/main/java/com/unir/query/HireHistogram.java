@@ -0,0 +1,248 @@
+package com.unir.query;
+
+import com.unir.config.SqlDialect;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de contrataciones por año y mes, en memoria.
+ *
+ * Filtrar con WHERE MONTH(hire_date) = ? no puede usar ningún índice: recorre la tabla employees entera en cada
+ * consulta. Aquí la tabla se recorre una vez, con un GROUP BY por año y mes, y después:
+ * - Las consultas por mes, año o rango de meses se responden en memoria, sin ir a la base de datos.
+ * - Las escrituras de empleados sueltos lo actualizan con {@link #hired}, {@link #moved} y {@link #removed}.
+ * - Tras una carga masiva {@link #reconcile} lo recalcula entero; con {@link #reconcileEvery} se hace además
+ *   periódicamente en segundo plano, por si alguna escritura no se ha anotado o se ha deshecho después de anotarla.
+ *
+ * Opcionalmente (solo MySQL) la tabla employees puede tener una columna generada e indexada hire_ym
+ * (EXTRACT(YEAR_MONTH FROM hire_date), por ejemplo 199506). Con ella el GROUP BY lee solo el índice.
+ *
+ * Es seguro entre hilos: los contadores son atómicos y la reconciliación sustituye todos a la vez.
+ */
+@Slf4j
+public class HireHistogram implements AutoCloseable {
+
+    /** Columna generada con el año y mes de contratación. */
+    public static final String INDEXED_COLUMN = "hire_ym";
+
+    private final SqlDialect dialect;
+    private final boolean indexedColumn;
+    private volatile Counts counts = new Counts();
+    private ScheduledExecutorService reconciler;
+
+    private HireHistogram(SqlDialect dialect, boolean indexedColumn) {
+        this.dialect = dialect;
+        this.indexedColumn = indexedColumn;
+    }
+
+    /**
+     * Construye el histograma recorriendo una vez la tabla employees.
+     * @param connection - Conexión a la base de datos
+     * @param dialect - Dialecto
+     * @param indexedColumn - Si se usa (y se crea si no existe) la columna generada e indexada hire_ym. Solo MySQL.
+     * @return - Histograma cargado
+     * @throws SQLException - Error al leer la tabla o al crear la columna
+     */
+    public static HireHistogram load(Connection connection, SqlDialect dialect, boolean indexedColumn) throws SQLException {
+        if (indexedColumn && dialect != SqlDialect.MYSQL) {
+            throw new IllegalArgumentException("La columna generada hire_ym solo está disponible en MySQL");
+        }
+        HireHistogram histogram = new HireHistogram(dialect, indexedColumn);
+        if (indexedColumn) {
+            createIndexedColumn(connection);
+        }
+        histogram.reconcile(connection);
+        return histogram;
+    }
+
+    /**
+     * Crea la columna generada hire_ym y su índice si no existen.
+     * Es una columna virtual: no ocupa espacio en la tabla, solo en el índice, y MySQL la mantiene al escribir hire_date.
+     */
+    private static void createIndexedColumn(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM information_schema.columns "
+                    + "WHERE table_schema = DATABASE() AND table_name = 'employees' AND column_name = '" + INDEXED_COLUMN + "'")) {
+                resultSet.next();
+                if (resultSet.getInt(1) > 0) {
+                    return;
+                }
+            }
+            log.info("Creando la columna generada {} en employees", INDEXED_COLUMN);
+            statement.execute("ALTER TABLE employees ADD COLUMN " + INDEXED_COLUMN
+                    + " INT GENERATED ALWAYS AS (EXTRACT(YEAR_MONTH FROM hire_date)) VIRTUAL, ADD INDEX idx_employees_"
+                    + INDEXED_COLUMN + " (" + INDEXED_COLUMN + ")");
+        }
+    }
+
+    /**
+     * Recalcula el histograma entero con un único recorrido de la tabla y lo sustituye.
+     * Las anotaciones que lleguen mientras tanto pueden perderse: para eso sirve la reconciliación periódica.
+     * @param connection - Conexión a la base de datos
+     * @throws SQLException - Error al leer la tabla
+     */
+    public void reconcile(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        String sql = indexedColumn
+                ? "SELECT " + INDEXED_COLUMN + " DIV 100, " + INDEXED_COLUMN + " MOD 100, COUNT(*) FROM employees GROUP BY "
+                + INDEXED_COLUMN
+                : "SELECT EXTRACT(YEAR FROM hire_date), EXTRACT(MONTH FROM hire_date), COUNT(*) FROM employees "
+                + "GROUP BY EXTRACT(YEAR FROM hire_date), EXTRACT(MONTH FROM hire_date)";
+        Counts loaded = new Counts();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                loaded.add(resultSet.getInt(1), resultSet.getInt(2), resultSet.getLong(3));
+            }
+        }
+        Counts previous = counts;
+        counts = loaded;
+        log.debug("Histograma de contrataciones ({}) recalculado en {} ms: {} empleados (antes {})", dialect,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), loaded.total(), previous.total());
+    }
+
+    /**
+     * Reconcilia el histograma periódicamente en segundo plano, con una conexión del pool.
+     * @param dataSource - Pool de conexiones
+     * @param interval - Tiempo entre reconciliaciones
+     * @return - Este histograma
+     */
+    public HireHistogram reconcileEvery(DataSource dataSource, Duration interval) {
+        if (reconciler != null) {
+            throw new IllegalStateException("La reconciliación periódica ya está activa");
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hire-histogram-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try (Connection connection = dataSource.getConnection()) {
+                reconcile(connection);
+            } catch (SQLException e) {
+                log.warn("Error al reconciliar el histograma de contrataciones; se sigue con el actual", e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * @param month - Mes, de 1 a 12
+     * @return - Empleados contratados en ese mes de cualquier año (equivale a WHERE MONTH(hire_date) = month)
+     */
+    public long hiredInMonth(int month) {
+        checkMonth(month);
+        return counts.months.get(month - 1);
+    }
+
+    /**
+     * @return - Empleados contratados en ese mes de ese año
+     */
+    public long hiredIn(YearMonth yearMonth) {
+        AtomicLongArray year = counts.years.get(yearMonth.getYear());
+        return year == null ? 0 : year.get(yearMonth.getMonthValue() - 1);
+    }
+
+    /**
+     * @return - Empleados contratados en ese año
+     */
+    public long hiredInYear(int year) {
+        AtomicLongArray months = counts.years.get(year);
+        long total = 0;
+        for (int i = 0; months != null && i < 12; i++) {
+            total += months.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param from - Primer mes, incluido
+     * @param to - Último mes, incluido
+     * @return - Empleados contratados entre esos meses
+     */
+    public long hiredBetween(YearMonth from, YearMonth to) {
+        long total = 0;
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            total += hiredIn(month);
+        }
+        return total;
+    }
+
+    /**
+     * Anota un empleado nuevo.
+     */
+    public void hired(LocalDate hireDate) {
+        if (hireDate != null) {
+            counts.add(hireDate.getYear(), hireDate.getMonthValue(), 1);
+        }
+    }
+
+    /**
+     * Anota un empleado eliminado.
+     */
+    public void removed(LocalDate hireDate) {
+        if (hireDate != null) {
+            counts.add(hireDate.getYear(), hireDate.getMonthValue(), -1);
+        }
+    }
+
+    /**
+     * Anota un cambio de fecha de contratación.
+     */
+    public void moved(LocalDate from, LocalDate to) {
+        if (from != null && to != null && YearMonth.from(from).equals(YearMonth.from(to))) {
+            return;
+        }
+        removed(from);
+        hired(to);
+    }
+
+    @Override
+    public void close() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+    }
+
+    private static void checkMonth(int month) {
+        if (month < 1 || month > 12) {
+            throw new IllegalArgumentException("El mes debe estar entre 1 y 12");
+        }
+    }
+
+    /**
+     * Contadores por año y mes, y por mes de cualquier año para responder en O(1) la consulta más habitual.
+     */
+    private static final class Counts {
+
+        private final ConcurrentHashMap<Integer, AtomicLongArray> years = new ConcurrentHashMap<>();
+        private final AtomicLongArray months = new AtomicLongArray(12);
+
+        private void add(int year, int month, long delta) {
+            checkMonth(month);
+            years.computeIfAbsent(year, y -> new AtomicLongArray(12)).addAndGet(month - 1, delta);
+            months.addAndGet(month - 1, delta);
+        }
+
+        private long total() {
+            long total = 0;
+            for (int i = 0; i < 12; i++) {
+                total += months.get(i);
+            }
+            return total;
+        }
+    }
+}
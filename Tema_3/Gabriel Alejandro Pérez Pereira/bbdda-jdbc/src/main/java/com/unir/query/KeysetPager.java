@@ -0,0 +1,262 @@
+package com.unir.query;
+
+import com.unir.config.ResultStream;
+import com.unir.config.SqlDialect;
+import com.unir.model.MySqlEmployee;
+import com.unir.model.MySqlSalary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Paginación por clave (keyset o seek) de una tabla.
+ *
+ * Con LIMIT/OFFSET la base de datos lee y descarta todas las filas anteriores a la página: la página 1000 cuesta
+ * 1000 veces la primera. Aquí cada página continúa desde la clave de la última fila de la anterior
+ * (WHERE clave > ultima ORDER BY clave), que el índice de la clave primaria resuelve directamente:
+ * cualquier página cuesta lo mismo que la primera.
+ *
+ * La posición se devuelve como un token opaco (Base64) que el cliente envía para pedir la página siguiente.
+ * El token solo sirve para el paginador que lo ha generado.
+ * Las claves deben identificar la fila (clave primaria o única), o se saltarían filas con la misma clave.
+ * Funciona en MySQL y en Oracle (12c o superior, por FETCH FIRST).
+ */
+public class KeysetPager<T> {
+
+    /**
+     * Columna de la clave y su tipo Java: Integer, Long, String o LocalDate.
+     */
+    public record Key(String column, Class<?> type) {
+
+        public Key {
+            if (type != Integer.class && type != Long.class && type != String.class && type != LocalDate.class) {
+                throw new IllegalArgumentException("Tipo de clave no soportado: " + type.getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * Página de filas.
+     * @param rows - Filas de la página, en orden de clave
+     * @param next - Token de la página siguiente, o null si es la última
+     */
+    public record Page<T>(List<T> rows, String next) {
+
+        public boolean hasNext() {
+            return next != null;
+        }
+    }
+
+    private final SqlDialect dialect;
+    private final String table;
+    private final List<Key> keys;
+    private final ResultStream.RowMapper<T> mapper;
+    private final String firstSql;
+    private final String nextSql;
+    private final int fingerprint;
+
+    /**
+     * @param dialect - Dialecto, para limitar el número de filas
+     * @param table - Tabla
+     * @param columns - Columnas que se leen, separadas por comas. Deben incluir las de la clave.
+     * @param keys - Columnas de la clave, en orden
+     * @param mapper - Convierte cada fila del ResultSet en un objeto
+     */
+    public KeysetPager(SqlDialect dialect, String table, String columns, List<Key> keys, ResultStream.RowMapper<T> mapper) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("La paginación necesita al menos una columna de clave");
+        }
+        this.dialect = dialect;
+        this.table = table;
+        this.keys = List.copyOf(keys);
+        this.mapper = mapper;
+        String select = "SELECT " + columns + " FROM " + table;
+        this.firstSql = select + orderAndLimit();
+        this.nextSql = select + " WHERE " + seek() + orderAndLimit();
+        this.fingerprint = (table + keys).hashCode();
+    }
+
+    /**
+     * Empleados por emp_no.
+     */
+    public static KeysetPager<MySqlEmployee> employees(SqlDialect dialect) {
+        return new KeysetPager<>(dialect, "employees", "emp_no, birth_date, first_name, last_name, gender, hire_date",
+                List.of(new Key("emp_no", Integer.class)),
+                resultSet -> new MySqlEmployee(resultSet.getInt("emp_no"),
+                        resultSet.getString("first_name"),
+                        resultSet.getString("last_name"),
+                        resultSet.getString("gender"),
+                        resultSet.getDate("hire_date"),
+                        resultSet.getDate("birth_date"),
+                        null));
+    }
+
+    /**
+     * Salarios por (emp_no, from_date), su clave primaria.
+     */
+    public static KeysetPager<MySqlSalary> salaries(SqlDialect dialect) {
+        return new KeysetPager<>(dialect, "salaries", "emp_no, salary, from_date, to_date",
+                List.of(new Key("emp_no", Integer.class), new Key("from_date", LocalDate.class)),
+                resultSet -> new MySqlSalary(resultSet.getInt("emp_no"),
+                        resultSet.getInt("salary"),
+                        resultSet.getDate("from_date"),
+                        resultSet.getDate("to_date")));
+    }
+
+    /**
+     * Lee una página.
+     * @param connection - Conexión a la base de datos
+     * @param token - Token devuelto con la página anterior, o null para la primera
+     * @param size - Filas por página
+     * @return - Página, con el token de la siguiente
+     * @throws SQLException - Error al ejecutar la consulta
+     * @throws IllegalArgumentException - Si el token no es de este paginador
+     */
+    public Page<T> page(Connection connection, String token, int size) throws SQLException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("El tamaño de página debe ser positivo");
+        }
+        Object[] after = token == null ? null : decode(token);
+        List<T> rows = new ArrayList<>(size);
+        Object[] last = null;
+        boolean more = false;
+        try (PreparedStatement statement = connection.prepareStatement(after == null ? firstSql : nextSql)) {
+            int index = 1;
+            if (after != null) {
+                index = bindSeek(statement, after);
+            }
+            // Se pide una fila de más para saber si hay página siguiente sin otra consulta
+            statement.setInt(index, size + 1);
+            statement.setFetchSize(size + 1);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (rows.size() == size) {
+                        more = true;
+                        break;
+                    }
+                    rows.add(mapper.map(resultSet));
+                    last = key(resultSet);
+                }
+            }
+        }
+        return new Page<>(rows, more ? encode(last) : null);
+    }
+
+    /**
+     * (k1 > ?) OR (k1 = ? AND k2 > ?) OR ... precedido de k1 >= ?, que permite al índice empezar en la clave.
+     * Las comparaciones de tuplas (k1, k2) > (?, ?) no existen en Oracle.
+     */
+    private String seek() {
+        StringBuilder seek = new StringBuilder(keys.get(0).column()).append(" >= ? AND (");
+        for (int i = 0; i < keys.size(); i++) {
+            seek.append(i == 0 ? "(" : " OR (");
+            for (int j = 0; j < i; j++) {
+                seek.append(keys.get(j).column()).append(" = ? AND ");
+            }
+            seek.append(keys.get(i).column()).append(" > ?)");
+        }
+        return seek.append(")").toString();
+    }
+
+    private String orderAndLimit() {
+        StringBuilder order = new StringBuilder(" ORDER BY ");
+        for (int i = 0; i < keys.size(); i++) {
+            order.append(i == 0 ? "" : ", ").append(keys.get(i).column());
+        }
+        return order.append(switch (dialect) {
+            case MYSQL -> " LIMIT ?";
+            case ORACLE -> " FETCH FIRST ? ROWS ONLY";
+        }).toString();
+    }
+
+    /**
+     * Asigna los parámetros de seek() en el mismo orden en que aparecen.
+     * @return - Índice del siguiente parámetro
+     */
+    private int bindSeek(PreparedStatement statement, Object[] after) throws SQLException {
+        int index = 1;
+        statement.setObject(index++, after[0]);
+        for (int i = 0; i < keys.size(); i++) {
+            for (int j = 0; j <= i; j++) {
+                statement.setObject(index++, after[j]);
+            }
+        }
+        return index;
+    }
+
+    private Object[] key(ResultSet resultSet) throws SQLException {
+        Object[] key = new Object[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            key[i] = resultSet.getObject(keys.get(i).column(), keys.get(i).type());
+        }
+        return key;
+    }
+
+    private String encode(Object[] key) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(fingerprint);
+            for (int i = 0; i < keys.size(); i++) {
+                Class<?> type = keys.get(i).type();
+                if (type == Integer.class) {
+                    out.writeInt((Integer) key[i]);
+                } else if (type == Long.class) {
+                    out.writeLong((Long) key[i]);
+                } else if (type == String.class) {
+                    out.writeUTF((String) key[i]);
+                } else {
+                    out.writeLong(((LocalDate) key[i]).toEpochDay());
+                }
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("Error al generar el token de paginación", e);
+        }
+    }
+
+    private Object[] decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Token de paginación no válido", e);
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != fingerprint) {
+                throw new IllegalArgumentException("El token de paginación no es de la tabla " + table);
+            }
+            Object[] key = new Object[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                Class<?> type = keys.get(i).type();
+                if (type == Integer.class) {
+                    key[i] = in.readInt();
+                } else if (type == Long.class) {
+                    key[i] = in.readLong();
+                } else if (type == String.class) {
+                    key[i] = in.readUTF();
+                } else {
+                    key[i] = LocalDate.ofEpochDay(in.readLong());
+                }
+            }
+            if (in.available() > 0) {
+                throw new IllegalArgumentException("Token de paginación no válido");
+            }
+            return key;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Token de paginación no válido", e);
+        }
+    }
+}
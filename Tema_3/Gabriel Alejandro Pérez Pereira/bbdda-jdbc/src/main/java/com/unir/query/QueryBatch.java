@@ -0,0 +1,209 @@
+package com.unir.query;
+
+import com.unir.config.ResultStream;
+import com.unir.config.SqlDialect;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Varias consultas independientes que se envían juntas, cada una con su resultado tipado en un CompletableFuture.
+ *
+ * Un panel que necesita diez números no debería pagar diez viajes a la base de datos. Con {@link #execute(Connection)}
+ * todas las consultas van en una única sentencia y un único viaje:
+ * - MySQL: sentencias separadas por ';' (multi-statement). La conexión necesita la propiedad del driver
+ *   {@link #MYSQL_MULTI_QUERIES}=true. Los parámetros se sustituyen en el cliente, así que siguen protegidos
+ *   contra inyección SQL.
+ *   Conviene que esa conexión sea de un pool propio y pequeño: la propiedad quita a todas las conexiones del pool
+ *   la protección del driver contra varias sentencias en una.
+ * - Oracle: un bloque PL/SQL que abre un cursor por consulta y lo devuelve con DBMS_SQL.RETURN_RESULT
+ *   (resultados implícitos, Oracle 12c o superior).
+ * Con {@link #execute(DataSource, Executor)} cada consulta se ejecuta a la vez en su propia conexión del pool:
+ * no hace falta ninguna configuración, pero cuesta una conexión por consulta.
+ *
+ * Un lote solo se puede ejecutar una vez. Si falla una consulta, su future y los de las consultas que no han llegado
+ * a ejecutarse terminan con la excepción.
+ */
+@Slf4j
+public class QueryBatch {
+
+    /** Propiedad del driver de MySQL que permite varias sentencias separadas por ';'. */
+    public static final String MYSQL_MULTI_QUERIES = "allowMultiQueries";
+
+    /**
+     * Lee el resultado completo de una consulta.
+     */
+    @FunctionalInterface
+    public interface ResultReader<T> {
+        T read(ResultSet resultSet) throws SQLException;
+    }
+
+    private final SqlDialect dialect;
+    private final List<Query<?>> queries = new ArrayList<>();
+    private final AtomicBoolean executed = new AtomicBoolean();
+
+    public QueryBatch(SqlDialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Añade una consulta al lote.
+     * @param sql - Consulta, con parámetros ?. Sin ';' final.
+     * @param reader - Lee el resultado completo
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Resultado, disponible al ejecutar el lote
+     */
+    public <T> CompletableFuture<T> add(String sql, ResultReader<T> reader, Object... parameters) {
+        if (executed.get()) {
+            throw new IllegalStateException("El lote ya se ha ejecutado");
+        }
+        Query<T> query = new Query<>(sql.strip(), reader, parameters, new CompletableFuture<>());
+        queries.add(query);
+        return query.result;
+    }
+
+    /**
+     * Añade una consulta que devuelve un único valor (por ejemplo, un COUNT). Si no devuelve filas, el valor es null.
+     */
+    public <T> CompletableFuture<T> single(String sql, ResultStream.RowMapper<T> mapper, Object... parameters) {
+        return add(sql, resultSet -> resultSet.next() ? mapper.map(resultSet) : null, parameters);
+    }
+
+    /**
+     * Añade una consulta que devuelve una lista de filas.
+     */
+    public <T> CompletableFuture<List<T>> list(String sql, ResultStream.RowMapper<T> mapper, Object... parameters) {
+        return add(sql, resultSet -> {
+            List<T> rows = new ArrayList<>();
+            while (resultSet.next()) {
+                rows.add(mapper.map(resultSet));
+            }
+            return rows;
+        }, parameters);
+    }
+
+    public int size() {
+        return queries.size();
+    }
+
+    /**
+     * Ejecuta todas las consultas en una única sentencia, con un solo viaje a la base de datos.
+     * Al volver, todos los futures están completados.
+     * @param connection - Conexión a la base de datos. En MySQL, con {@link #MYSQL_MULTI_QUERIES}=true (de un pool propio).
+     * @throws SQLException - Error al ejecutar el lote. Los futures pendientes terminan con el mismo error.
+     */
+    public void execute(Connection connection) throws SQLException {
+        start();
+        if (queries.isEmpty()) {
+            return;
+        }
+        int next = 0;
+        try (PreparedStatement statement = connection.prepareStatement(combined())) {
+            int index = 1;
+            for (Query<?> query : queries) {
+                for (Object parameter : query.parameters) {
+                    statement.setObject(index++, parameter);
+                }
+            }
+            long start = System.nanoTime();
+            boolean isResult = statement.execute();
+            for (Query<?> query : queries) {
+                // Oracle devuelve primero el resultado del bloque PL/SQL y después los cursores
+                while (!isResult) {
+                    isResult = statement.getMoreResults();
+                    if (!isResult && statement.getUpdateCount() == -1) {
+                        throw new SQLException("El lote ha devuelto " + next + " resultados de " + queries.size());
+                    }
+                }
+                try (ResultSet resultSet = statement.getResultSet()) {
+                    query.complete(resultSet);
+                }
+                next++;
+                isResult = next < queries.size() && statement.getMoreResults();
+            }
+            log.debug("Lote de {} consultas ejecutado en {} ms", queries.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (SQLException e) {
+            queries.subList(next, queries.size()).forEach(query -> query.result.completeExceptionally(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Ejecuta cada consulta en su propia conexión del pool, todas a la vez.
+     * @param dataSource - Pool de conexiones. Necesita tantas conexiones libres como consultas para no esperar.
+     * @param executor - Hilos en los que se ejecutan las consultas
+     * @return - Se completa cuando han terminado todas las consultas, con error si ha fallado alguna
+     */
+    public CompletableFuture<Void> execute(DataSource dataSource, Executor executor) {
+        start();
+        List<CompletableFuture<?>> all = new ArrayList<>();
+        for (Query<?> query : queries) {
+            all.add(CompletableFuture.runAsync(() -> {
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement statement = connection.prepareStatement(query.sql)) {
+                    for (int i = 0; i < query.parameters.length; i++) {
+                        statement.setObject(i + 1, query.parameters[i]);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        query.complete(resultSet);
+                    }
+                } catch (SQLException e) {
+                    query.result.completeExceptionally(e);
+                }
+            }, executor).thenCompose(ignored -> query.result));
+        }
+        return CompletableFuture.allOf(all.toArray(CompletableFuture[]::new));
+    }
+
+    private void start() {
+        if (!executed.compareAndSet(false, true)) {
+            throw new IllegalStateException("El lote ya se ha ejecutado");
+        }
+    }
+
+    /**
+     * Une las consultas en una sola sentencia, según el dialecto.
+     */
+    private String combined() {
+        StringBuilder sql = new StringBuilder();
+        switch (dialect) {
+            case MYSQL -> sql.append(String.join(";\n", queries.stream().map(Query::sql).toList()));
+            case ORACLE -> {
+                sql.append("DECLARE\n");
+                for (int i = 0; i < queries.size(); i++) {
+                    sql.append("  c").append(i).append(" SYS_REFCURSOR;\n");
+                }
+                sql.append("BEGIN\n");
+                for (int i = 0; i < queries.size(); i++) {
+                    sql.append("  OPEN c").append(i).append(" FOR ").append(queries.get(i).sql).append(";\n")
+                            .append("  DBMS_SQL.RETURN_RESULT(c").append(i).append(");\n");
+                }
+                sql.append("END;");
+            }
+        }
+        return sql.toString();
+    }
+
+    private record Query<T>(String sql, ResultReader<T> reader, Object[] parameters, CompletableFuture<T> result) {
+
+        /**
+         * Lee el resultado. Un error al leerlo solo afecta a esta consulta.
+         */
+        private void complete(ResultSet resultSet) {
+            try {
+                result.complete(reader.read(resultSet));
+            } catch (SQLException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.unir.query;
+
+import com.unir.config.ResultStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Cache de resultados de consultas, por texto SQL y valores de los parámetros.
+ *
+ * - Como mucho maxEntries resultados; al superarlo se descarta el usado hace más tiempo (LRU).
+ * - Cada resultado caduca pasado ttl.
+ * - Cada consulta indica las tablas que lee. Cuando alguien publica en {@link TableChanges} que ha modificado
+ *   una tabla, se descartan todos los resultados que la leen. Si la tabla cambia mientras se ejecuta la consulta,
+ *   su resultado no se guarda: podría no incluir el cambio.
+ *
+ * Así las consultas repetidas se sirven desde memoria sin dejar de ver nuestras propias escrituras.
+ * Los cambios hechos por otros procesos solo se ven al caducar el resultado.
+ * Los resultados se guardan enteros en memoria: no sirve para consultas de tablas completas.
+ * Es segura entre hilos.
+ */
+@Slf4j
+public class QueryCache implements AutoCloseable {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<Key>> byTable = new HashMap<>();
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final Consumer<Set<String>> listener = this::invalidate;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries - Resultados que se guardan como mucho
+     * @param ttl - Tiempo que se guarda cada resultado
+     */
+    public QueryCache(int maxEntries, Duration ttl) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries debe ser positivo");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        TableChanges.subscribe(listener);
+    }
+
+    /**
+     * Devuelve el resultado guardado de la consulta o, si no lo hay, la ejecuta y lo guarda.
+     * @param connection - Conexión con la que se ejecuta la consulta si no está en la cache
+     * @param sql - Consulta, con parámetros ?
+     * @param tables - Tablas que lee la consulta
+     * @param mapper - Convierte cada fila del ResultSet en un objeto
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Filas de la consulta. La lista no se puede modificar.
+     * @throws SQLException - Error al ejecutar la consulta
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> query(Connection connection, String sql, Set<String> tables, ResultStream.RowMapper<T> mapper,
+                             Object... parameters) throws SQLException {
+        // Arrays.asList admite parámetros null, a diferencia de List.of; la copia aísla la clave del array
+        Key key = new Key(sql, Collections.unmodifiableList(Arrays.asList(parameters.clone())));
+        Entry cached = get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return (List<T>) cached.rows;
+        }
+        misses.incrementAndGet();
+
+        Map<String, Long> seen = new HashMap<>();
+        for (String table : tables) {
+            seen.put(table, version(table).get());
+        }
+        List<T> rows = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(mapper.map(resultSet));
+                }
+            }
+        }
+        List<T> result = Collections.unmodifiableList(rows);
+        put(key, new Entry(result, Set.copyOf(tables), System.nanoTime()), seen);
+        return result;
+    }
+
+    /**
+     * Descarta los resultados que leen alguna de las tablas.
+     * @param tables - Tablas modificadas
+     */
+    public void invalidate(Set<String> tables) {
+        lock.lock();
+        try {
+            for (String table : tables) {
+                version(table).incrementAndGet();
+                Set<Key> keys = byTable.remove(table);
+                if (keys != null) {
+                    keys.forEach(this::remove);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry get(Key key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.storedAt > ttlNanos) {
+                remove(key);
+                return null;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(Key key, Entry entry, Map<String, Long> seen) {
+        lock.lock();
+        try {
+            for (Map.Entry<String, Long> table : seen.entrySet()) {
+                if (version(table.getKey()).get() != table.getValue()) {
+                    log.debug("No se guarda el resultado: {} ha cambiado durante la consulta", table.getKey());
+                    return;
+                }
+            }
+            remove(key);
+            entries.put(key, entry);
+            entry.tables.forEach(table -> byTable.computeIfAbsent(table, t -> new HashSet<>()).add(key));
+            Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries) {
+                Map.Entry<Key, Entry> evicted = eldest.next();
+                eldest.remove();
+                untag(evicted.getKey(), evicted.getValue());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Quita un resultado y sus etiquetas. Se llama con el lock tomado.
+     */
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            untag(key, entry);
+        }
+    }
+
+    private void untag(Key key, Entry entry) {
+        for (String table : entry.tables) {
+            Set<Key> keys = byTable.get(table);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    byTable.remove(table);
+                }
+            }
+        }
+    }
+
+    private AtomicLong version(String table) {
+        return versions.computeIfAbsent(table, t -> new AtomicLong());
+    }
+
+    @Override
+    public void close() {
+        TableChanges.unsubscribe(listener);
+    }
+
+    @Override
+    public String toString() {
+        return "Cache de consultas: " + entries.size() + " resultados, " + hits.get() + " aciertos, "
+                + misses.get() + " fallos";
+    }
+
+    private record Key(String sql, List<Object> parameters) {
+    }
+
+    private record Entry(List<?> rows, Set<String> tables, long storedAt) {
+    }
+}
@@ -0,0 +1,207 @@
+package com.unir.query;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Ejecuta consultas independientes a la vez, cada una en un hilo virtual y con su conexión del pool.
+ *
+ * - Un hilo virtual por consulta: esperar a la base de datos no ocupa un hilo del sistema, así que puede haber
+ *   miles de consultas en curso sin miles de hilos.
+ * - Como mucho maxConcurrency consultas a la vez contra la base de datos; el resto espera su turno sin ocupar
+ *   conexión. Conviene que no supere el tamaño del pool.
+ * - Cada consulta tiene un tiempo máximo, contado desde que se envía (incluida la espera de turno). Al superarlo,
+ *   o al cancelar su future, se cancela la sentencia en la base de datos con Statement.cancel.
+ * - Con detectPinning se registran los eventos JFR jdk.VirtualThreadPinned: un hilo virtual que se bloquea dentro de
+ *   un bloque synchronized (por ejemplo, en código del driver) no libera su hilo del sistema y limita la concurrencia
+ *   al número de núcleos. Se registra la pila para localizar el bloque.
+ */
+@Slf4j
+public class QueryExecutor implements AutoCloseable {
+
+    /** Tiempo bloqueado a partir del cual se registra un hilo virtual fijado. */
+    private static final Duration PINNING_THRESHOLD = Duration.ofMillis(20);
+    private static final int PINNING_FRAMES = 8;
+
+    private final DataSource dataSource;
+    private final Semaphore permits;
+    private final Duration defaultTimeout;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("query-", 0).factory());
+    private final RecordingStream pinning;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong pinned = new AtomicLong();
+
+    /**
+     * @param dataSource - Pool de conexiones
+     * @param maxConcurrency - Consultas que se ejecutan a la vez como mucho
+     * @param defaultTimeout - Tiempo máximo de cada consulta, si no se indica otro
+     * @param detectPinning - Si se registran los hilos virtuales fijados a su hilo del sistema
+     */
+    public QueryExecutor(DataSource dataSource, int maxConcurrency, Duration defaultTimeout, boolean detectPinning) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency debe ser positivo");
+        }
+        this.dataSource = dataSource;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.defaultTimeout = defaultTimeout;
+        this.pinning = detectPinning ? startPinningDetection() : null;
+    }
+
+    /**
+     * Envía una consulta con el tiempo máximo por defecto.
+     */
+    public <T> CompletableFuture<T> submit(String sql, QueryBatch.ResultReader<T> reader, Object... parameters) {
+        return submit(sql, defaultTimeout, reader, parameters);
+    }
+
+    /**
+     * Envía una consulta para ejecutarla en cuanto haya turno.
+     * @param sql - Consulta, con parámetros ?
+     * @param timeout - Tiempo máximo, desde ahora
+     * @param reader - Lee el resultado completo
+     * @param parameters - Valores de los parámetros, en orden
+     * @return - Resultado. Termina con TimeoutException si se supera el tiempo; cancelarlo cancela la consulta.
+     */
+    public <T> CompletableFuture<T> submit(String sql, Duration timeout, QueryBatch.ResultReader<T> reader,
+                                           Object... parameters) {
+        submitted.incrementAndGet();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<PreparedStatement> running = new AtomicReference<>();
+        result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, error) -> {
+                    if (error instanceof TimeoutException) {
+                        timedOut.incrementAndGet();
+                        log.warn("Consulta cancelada tras {} ms: {}", timeout.toMillis(), sql);
+                        cancel(running.get());
+                    } else if (result.isCancelled()) {
+                        cancelled.incrementAndGet();
+                        cancel(running.get());
+                    }
+                });
+        executor.execute(() -> run(sql, timeout, reader, parameters, result, running));
+        return result;
+    }
+
+    private <T> void run(String sql, Duration timeout, QueryBatch.ResultReader<T> reader, Object[] parameters,
+                         CompletableFuture<T> result, AtomicReference<PreparedStatement> running) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return;
+        }
+        try {
+            // Puede haber caducado o haberse cancelado mientras esperaba turno
+            if (result.isDone()) {
+                return;
+            }
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                // Respaldo en el servidor por si la cancelación no llega: el driver solo admite segundos
+                statement.setQueryTimeout((int) Math.max(1, (timeout.toMillis() + 999) / 1000));
+                running.set(statement);
+                if (result.isDone()) {
+                    return;
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    result.complete(reader.read(resultSet));
+                } finally {
+                    running.set(null);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (!result.isDone()) {
+                failed.incrementAndGet();
+            }
+            result.completeExceptionally(e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void cancel(PreparedStatement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            log.debug("No se ha podido cancelar la consulta", e);
+        }
+    }
+
+    private RecordingStream startPinningDetection() {
+        RecordingStream stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(PINNING_THRESHOLD).withStackTrace();
+        stream.onEvent("jdk.VirtualThreadPinned", this::pinned);
+        stream.startAsync();
+        return stream;
+    }
+
+    private void pinned(RecordedEvent event) {
+        pinned.incrementAndGet();
+        String frames = event.getStackTrace() == null ? " (sin pila)" : event.getStackTrace().getFrames().stream()
+                .limit(PINNING_FRAMES)
+                .map(QueryExecutor::frame)
+                .collect(Collectors.joining("\n\tat ", "\n\tat ", ""));
+        log.warn("Hilo virtual {} fijado a su hilo del sistema durante {} ms{}",
+                event.getThread() == null ? "?" : event.getThread().getJavaName(),
+                event.getDuration().toMillis(), frames);
+    }
+
+    private static String frame(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+
+    /**
+     * @return - Hilos virtuales fijados detectados desde que se creó el ejecutor
+     */
+    public long getPinned() {
+        return pinned.get();
+    }
+
+    /**
+     * Deja de aceptar consultas y espera a que terminen las que están en curso.
+     */
+    @Override
+    public void close() {
+        executor.close();
+        if (pinning != null) {
+            pinning.close();
+        }
+        log.debug("{}", this);
+    }
+
+    @Override
+    public String toString() {
+        return "Consultas: " + submitted.get() + " enviadas, " + timedOut.get() + " caducadas, " + cancelled.get()
+                + " canceladas, " + failed.get() + " fallidas, " + pinned.get() + " hilos fijados";
+    }
+}
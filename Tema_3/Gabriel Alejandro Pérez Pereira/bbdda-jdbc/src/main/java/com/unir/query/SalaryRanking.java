@@ -0,0 +1,185 @@
+package com.unir.query;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ranking de los empleados mejor pagados de cada departamento, calculado una vez y consultado en memoria.
+ *
+ * - Una única consulta con ROW_NUMBER() OVER (PARTITION BY dept_no ORDER BY salary DESC) calcula los topN
+ *   mejores salarios de todos los departamentos. Solo cuentan los salarios y departamentos actuales
+ *   (to_date = '9999-01-01'). A igualdad de salario, va antes el emp_no menor.
+ * - El resultado se guarda en memoria: cualquier posición de cualquier departamento se consulta en O(1),
+ *   sin ir a la base de datos.
+ * - Tras cambiar salarios se llama a {@link #invalidate()}: la siguiente consulta recalcula el ranking.
+ * - Pasado maxAge, el ranking se recalcula en segundo plano y mientras tanto se sigue sirviendo el anterior.
+ *
+ * La consulta usa la sintaxis común de MySQL 8 y Oracle. Es segura entre hilos: solo un hilo recalcula a la vez.
+ */
+@Slf4j
+public class SalaryRanking {
+
+    private static final String QUERY = "SELECT dept_no, salary_rank, emp_no, first_name, last_name, salary FROM (\n" +
+            "  SELECT de.dept_no, e.emp_no, e.first_name, e.last_name, s.salary,\n" +
+            "         ROW_NUMBER() OVER (PARTITION BY de.dept_no ORDER BY s.salary DESC, e.emp_no) AS salary_rank\n" +
+            "  FROM salaries s\n" +
+            "  JOIN dept_emp de ON de.emp_no = s.emp_no AND de.to_date = DATE '9999-01-01'\n" +
+            "  JOIN employees e ON e.emp_no = s.emp_no\n" +
+            "  WHERE s.to_date = DATE '9999-01-01') ranked\n" +
+            "WHERE salary_rank <= ?\n" +
+            "ORDER BY dept_no, salary_rank";
+
+    private final DataSource dataSource;
+    private final int topN;
+    private final long maxAgeNanos;
+    private final ReentrantLock refresh = new ReentrantLock();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param dataSource - Pool de conexiones
+     * @param topN - Posiciones que se guardan por departamento
+     * @param maxAge - Tiempo tras el que el ranking se recalcula en segundo plano
+     */
+    public SalaryRanking(DataSource dataSource, int topN, Duration maxAge) {
+        if (topN <= 0) {
+            throw new IllegalArgumentException("topN debe ser positivo");
+        }
+        this.dataSource = dataSource;
+        this.topN = topN;
+        this.maxAgeNanos = maxAge.toNanos();
+    }
+
+    /**
+     * @param department - Departamento (dept_no)
+     * @param position - Posición en el ranking, desde 1
+     * @return - Empleado en esa posición, o vacío si el departamento tiene menos empleados
+     * @throws SQLException - Error al calcular el ranking
+     * @throws IllegalArgumentException - Si la posición es mayor que topN
+     */
+    public Optional<RankedEmployee> employee(String department, int position) throws SQLException {
+        if (position < 1 || position > topN) {
+            throw new IllegalArgumentException("La posición debe estar entre 1 y " + topN);
+        }
+        List<RankedEmployee> ranking = current().departments.getOrDefault(department, List.of());
+        return position <= ranking.size() ? Optional.of(ranking.get(position - 1)) : Optional.empty();
+    }
+
+    /**
+     * @param department - Departamento (dept_no)
+     * @return - Los topN empleados mejor pagados del departamento, de mayor a menor salario
+     * @throws SQLException - Error al calcular el ranking
+     */
+    public List<RankedEmployee> top(String department) throws SQLException {
+        return current().departments.getOrDefault(department, List.of());
+    }
+
+    /**
+     * @return - Ranking de todos los departamentos
+     * @throws SQLException - Error al calcular el ranking
+     */
+    public Map<String, List<RankedEmployee>> all() throws SQLException {
+        return current().departments;
+    }
+
+    /**
+     * Descarta el ranking. Se debe llamar tras cambiar salarios o departamentos de empleados.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    private Snapshot current() throws SQLException {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return reload();
+        }
+        if (System.nanoTime() - current.loadedAt > maxAgeNanos && refreshing.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    reload();
+                } catch (SQLException e) {
+                    log.warn("Error al recalcular el ranking de salarios; se sigue usando el anterior", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        return current;
+    }
+
+    /**
+     * Recalcula el ranking. Si varios hilos lo piden a la vez, solo uno ejecuta la consulta.
+     */
+    private Snapshot reload() throws SQLException {
+        Snapshot seen = snapshot;
+        refresh.lock();
+        try {
+            Snapshot current = snapshot;
+            if (current != null && current != seen) {
+                return current;
+            }
+            long start = System.nanoTime();
+            long loading = generation.get();
+            Map<String, List<RankedEmployee>> departments = new HashMap<>();
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(QUERY)) {
+                statement.setInt(1, topN);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        RankedEmployee employee = new RankedEmployee(resultSet.getString("dept_no"),
+                                resultSet.getInt("salary_rank"), resultSet.getInt("emp_no"),
+                                resultSet.getString("first_name"), resultSet.getString("last_name"),
+                                resultSet.getLong("salary"));
+                        departments.computeIfAbsent(employee.department(), d -> new ArrayList<>(topN)).add(employee);
+                    }
+                }
+            }
+            departments.replaceAll((department, employees) -> List.copyOf(employees));
+            current = new Snapshot(Map.copyOf(departments), System.nanoTime());
+            // Si se ha invalidado mientras se calculaba, el resultado puede no incluir el cambio: no se guarda
+            if (generation.get() == loading) {
+                snapshot = current;
+            }
+            log.debug("Ranking de salarios calculado: {} departamentos en {} ms", departments.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return current;
+        } finally {
+            refresh.unlock();
+        }
+    }
+
+    private record Snapshot(Map<String, List<RankedEmployee>> departments, long loadedAt) {
+    }
+
+    /**
+     * Empleado del ranking.
+     * @param department - Departamento (dept_no)
+     * @param position - Posición en el departamento, desde 1
+     * @param employeeId - emp_no
+     * @param firstName - Nombre
+     * @param lastName - Apellido
+     * @param salary - Salario actual
+     */
+    public record RankedEmployee(String department, int position, int employeeId, String firstName, String lastName,
+                                 long salary) {
+    }
+}
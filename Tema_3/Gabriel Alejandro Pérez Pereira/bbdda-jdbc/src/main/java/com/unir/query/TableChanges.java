@@ -0,0 +1,45 @@
+package com.unir.query;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Aviso de las tablas que se han modificado, dentro del mismo proceso.
+ *
+ * Quien escribe publica las tablas que ha modificado después de hacer commit (no antes: hasta el commit,
+ * el resto de conexiones siguen viendo los datos anteriores). Las caches se suscriben para descartar
+ * los resultados que dependen de esas tablas.
+ */
+@Slf4j
+public final class TableChanges {
+
+    private static final List<Consumer<Set<String>>> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private TableChanges() {
+    }
+
+    /**
+     * Publica las tablas modificadas por una transacción que ya ha hecho commit.
+     * @param tables - Nombres de las tablas, en minúsculas
+     */
+    public static void committed(String... tables) {
+        Set<String> changed = Set.of(tables);
+        log.debug("Tablas modificadas: {}", changed);
+        LISTENERS.forEach(listener -> listener.accept(changed));
+    }
+
+    /**
+     * @param listener - Recibe las tablas modificadas tras cada commit publicado
+     */
+    public static void subscribe(Consumer<Set<String>> listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void unsubscribe(Consumer<Set<String>> listener) {
+        LISTENERS.remove(listener);
+    }
+}
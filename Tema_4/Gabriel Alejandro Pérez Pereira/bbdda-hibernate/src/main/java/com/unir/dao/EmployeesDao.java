@@ -3,10 +3,14 @@ package com.unir.dao;
 import com.unir.model.mysql.Employee;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.CacheMode;
 import org.hibernate.Session;
 import org.hibernate.query.Query;
 import java.sql.SQLException;
+import java.util.Date;
 import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
 
 @AllArgsConstructor
 @Slf4j
@@ -17,15 +21,27 @@ public class EmployeesDao {
     /**
      * Consulta de todos los empleados de la base de datos
      * Se puede hacer de dos formas:
-     * 1. Con SQL nativo
+     * 1. Con SQL nativo: session.createNativeQuery("SELECT * FROM employees", Employee.class)
      * 2. Con HQL: https://docs.jboss.org/hibernate/orm/3.5/reference/es-ES/html/queryhql.html
+     *
+     * Los empleados se leen en streaming, a medida que se consumen, en lugar de cargar la tabla entera en una lista:
+     * - Con fetch size Integer.MIN_VALUE, el driver de MySQL lee las filas del socket de una en una.
+     * - Las entidades se leen en modo solo lectura y se separan de la sesión al entregarlas, para que la sesión
+     *   no acumule todas las filas leídas. Por eso sus colecciones perezosas no se pueden recorrer.
+     * El Stream se debe cerrar (try-with-resources); mientras está abierto, la sesión no admite otras consultas.
+     * @return Empleados, a medida que se leen
      * @throws SQLException Excepción en caso de error
      */
-    public List<Employee> findAll() throws SQLException {
-        List<Employee> employees = session.createNativeQuery("SELECT * FROM employees", Employee.class).list();
-        log.debug("Número de empleados: {}", employees.size());
-        session.createQuery("FROM Employee", Employee.class).list();
-        return employees;
+    public Stream<Employee> findAll() throws SQLException {
+        return session.createQuery("FROM Employee", Employee.class)
+                .setFetchSize(Integer.MIN_VALUE)
+                .setReadOnly(true)
+                .setCacheMode(CacheMode.IGNORE)
+                .stream()
+                .map(employee -> {
+                    session.detach(employee);
+                    return employee;
+                });
     }
 
     /**
@@ -62,6 +78,11 @@ public class EmployeesDao {
      */
     public Boolean remove(Employee employee) throws SQLException {
         session.remove(employee);
+        // Sus salarios ya no cuentan en el ranking. Sus departamentos y cargos se borran en cascada: se recuentan.
+        // Todo se aplica al hacer commit: si se descartasen ya, se podrían recalcular con el empleado aún en la tabla
+        SalaryRanking.invalidateOnCommit(session);
+        HireHistogram.onCommit(session, employee.getHireDate(), null);
+        HeadcountAggregates.invalidateOnCommit(session);
         return true;
     }
 
@@ -73,6 +94,8 @@ public class EmployeesDao {
      */
     public Employee save(Employee employee) throws SQLException {
         session.persist(employee);
+        HireHistogram.onCommit(session, null, employee.getHireDate());
+        HeadcountAggregates.onCommit(session, HeadcountAggregates.GENDER, null, gender(employee));
         return employee;
     }
 
@@ -92,49 +115,66 @@ public class EmployeesDao {
      * @throws SQLException Excepción en caso de error
      */
     public Employee saveOrUpdate(Employee employee) throws SQLException {
+        // Merge lee el empleado igualmente: leerlo antes no supone otra consulta
+        Employee previous = session.get(Employee.class, employee.getEmpNo());
+        String previousGender = previous == null ? null : gender(previous);
+        Date previousHireDate = previous == null ? null : previous.getHireDate();
         session.merge(employee);
+        HireHistogram.onCommit(session, previousHireDate, employee.getHireDate());
+        HeadcountAggregates.onCommit(session, HeadcountAggregates.GENDER, previousGender, gender(employee));
         return employee;
     }
 
     // Gabriel Alejandro Pérez Pereira
 
     // Obtener el número de hombres y mujeres de la base de datos. Ordenar de forma descendente.
+    // Se leen de los recuentos en memoria, en lugar de agrupar la tabla employees entera en cada llamada.
     public List<Object[]> countByGender(){
-        Query<Object[]> query = session.createNativeQuery("SELECT gender,count(*) AS total FROM employees.employees GROUP BY gender ORDER BY total DESC", Object[].class);
-        return query.list();
+        return HeadcountAggregates.counts(session, HeadcountAggregates.GENDER);
+    }
+
+    // Número de empleados actuales de cada departamento, de mayor a menor.
+    public List<Object[]> countByDepartment(){
+        return HeadcountAggregates.counts(session, HeadcountAggregates.DEPARTMENT);
+    }
+
+    // Número de empleados con cada cargo actual, de mayor a menor.
+    public List<Object[]> countByTitle(){
+        return HeadcountAggregates.counts(session, HeadcountAggregates.TITLE);
     }
 
     // Mostrar el nombre, apellido y salario de la persona mejor pagada de un departamento concreto (parámetro variable).
     public List<Object[]> bestPaidEmployee(String department){
-        Query<Object[]> query = session.createNativeQuery("SELECT first_name, last_name, salary FROM employees.employees e\n" +
-                "JOIN employees.salaries s ON e.emp_no = s.emp_no\n" +
-                "JOIN employees.dept_emp de ON e.emp_no = de.emp_no\n" +
-                "JOIN employees.departments d ON de.dept_no = d.dept_no\n" +
-                "WHERE d.dept_no = :deptNo\n" +
-                "ORDER BY salary DESC\n" +
-                "LIMIT 1", Object[].class);
-        query.setParameter("deptNo", department);
-        return query.list();
+        return findNthPaidEmployeeInDepartment(department, 1);
     }
 
     // Mostrar el nombre, apellido y salario de la segunda persona mejor pagada de un departamento concreto (parámetro variable).
     public List<Object[]> secondBestPaidEmployee(String department){
-        Query<Object[]> query = session.createNativeQuery("SELECT first_name, last_name, salary FROM employees.employees e\n" +
-                "JOIN employees.salaries s ON e.emp_no = s.emp_no\n" +
-                "JOIN employees.dept_emp de ON e.emp_no = de.emp_no\n" +
-                "JOIN employees.departments d ON de.dept_no = d.dept_no\n" +
-                "WHERE d.dept_no = :deptNo\n" +
-                "ORDER BY salary DESC\n" +
-                "LIMIT 1,1", Object[].class);
-        query.setParameter("deptNo", department);
-        return query.list();
+        return findNthPaidEmployeeInDepartment(department, 2);
+    }
+
+    /**
+     * Nombre, apellido y salario actual del empleado en la posición indicada del ranking de salarios de un departamento.
+     * Se consulta en {@link SalaryRanking}, que calcula una vez el ranking de todos los departamentos,
+     * en lugar de ordenar los salarios del departamento en cada llamada.
+     * @param department - Departamento (dept_no)
+     * @param position - Posición, de 1 a SalaryRanking.TOP_N
+     * @return Lista con el empleado, o vacía si el departamento tiene menos empleados
+     */
+    public List<Object[]> findNthPaidEmployeeInDepartment(String department, int position) {
+        Object[] employee = SalaryRanking.employee(session, department, position);
+        return employee == null ? List.of() : List.<Object[]>of(employee);
     }
 
     // Mostrar el número de empleados contratados en un mes concreto (parámetro variable).
+    // Se consulta en el histograma de contrataciones en memoria, en lugar de recorrer la tabla con MONTH(hire_date).
     public Long employeesHiredInMonth(Integer month) {
-        Query<Long> query = session.createNativeQuery("SELECT count(*) FROM employees.employees WHERE MONTH(hire_date) = :month", Long.class);
-        query.setParameter("month", month);
-        return query.getSingleResult();
+        return HireHistogram.hiredInMonth(session, month);
+    }
+
+    // Employee.Gender no es publico: se convierte a texto sin nombrar el tipo
+    private static String gender(Employee employee) {
+        return Objects.toString(employee.getGender(), null);
     }
 
 }
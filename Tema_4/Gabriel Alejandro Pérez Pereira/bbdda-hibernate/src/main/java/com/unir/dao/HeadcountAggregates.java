@@ -0,0 +1,161 @@
+package com.unir.dao;
+
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Recuentos de empleados por género, por departamento y por cargo, compartidos por todas las sesiones.
+ *
+ * Se calculan una vez con un GROUP BY por dimensión (solo las filas actuales de dept_emp y titles) y se leen
+ * en memoria. Los DAOs anotan sus escrituras con {@link #onCommit}: el cambio se aplica cuando la transacción
+ * hace commit, y se descarta si hace rollback. Cada RECONCILE_EVERY se recalculan contra la base de datos, en una
+ * sesión propia para no ver cambios sin confirmar.
+ */
+@Slf4j
+public final class HeadcountAggregates {
+
+    public static final String GENDER = "SELECT gender, COUNT(*) FROM employees.employees GROUP BY gender";
+    public static final String DEPARTMENT = "SELECT dept_no, COUNT(*) FROM employees.dept_emp " +
+            "WHERE to_date = '9999-01-01' GROUP BY dept_no";
+    public static final String TITLE = "SELECT title, COUNT(*) FROM employees.titles " +
+            "WHERE to_date = '9999-01-01' GROUP BY title";
+
+    private static final Duration RECONCILE_EVERY = Duration.ofMinutes(10);
+    private static final List<String> DIMENSIONS = List.of(GENDER, DEPARTMENT, TITLE);
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static volatile Map<String, Map<String, AtomicLong>> counts;
+    private static volatile long loadedAt;
+
+    private HeadcountAggregates() {
+    }
+
+    /**
+     * @param session - Sesión cuya factoría se usa para recalcular los recuentos si no están en memoria o han caducado
+     * @param dimension - GENDER, DEPARTMENT o TITLE
+     * @return - Pares {valor, total} de mayor a menor total, como los devolvería el GROUP BY ... ORDER BY total DESC
+     */
+    public static List<Object[]> counts(Session session, String dimension) {
+        List<Object[]> rows = new ArrayList<>();
+        current(session).get(dimension).forEach((value, count) -> {
+            if (count.get() != 0) {
+                rows.add(new Object[]{value, count.get()});
+            }
+        });
+        rows.sort(Comparator.comparingLong((Object[] row) -> (Long) row[1]).reversed());
+        return rows;
+    }
+
+    /**
+     * Anota un cambio de valor en una dimensión, que se aplica al hacer commit la transacción actual de la sesión.
+     * Un valor null en from es un alta y en to una baja. Sin transacción activa, los recuentos se descartan.
+     * @param session - Sesión que hace la escritura
+     * @param dimension - GENDER, DEPARTMENT o TITLE
+     * @param from - Valor anterior
+     * @param to - Valor nuevo
+     */
+    public static void onCommit(Session session, String dimension, String from, String to) {
+        if (from == null ? to == null : from.equals(to)) {
+            return;
+        }
+        if (!session.getTransaction().isActive()) {
+            invalidate();
+            return;
+        }
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                Map<String, Map<String, AtomicLong>> current = counts;
+                if (status == Status.STATUS_COMMITTED && current != null) {
+                    add(current.get(dimension), from, -1);
+                    add(current.get(dimension), to, 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Descarta los recuentos cuando hace commit la transacción actual de la sesión. Si se descartasen antes,
+     * otra sesión podría recalcularlos con los datos anteriores al commit, y seguirían así hasta la siguiente
+     * reconciliación.
+     * Sin transacción activa, se descartan ya.
+     * @param session - Sesión que hace la escritura
+     */
+    public static void invalidateOnCommit(Session session) {
+        if (!session.getTransaction().isActive()) {
+            invalidate();
+            return;
+        }
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    invalidate();
+                }
+            }
+        });
+    }
+
+    /**
+     * Descarta los recuentos. La siguiente consulta los recalcula.
+     */
+    public static void invalidate() {
+        counts = null;
+    }
+
+    private static void add(Map<String, AtomicLong> counts, String value, long delta) {
+        if (value != null) {
+            counts.computeIfAbsent(value, v -> new AtomicLong()).addAndGet(delta);
+        }
+    }
+
+    private static Map<String, Map<String, AtomicLong>> current(Session session) {
+        Map<String, Map<String, AtomicLong>> current = counts;
+        if (current != null && System.nanoTime() - loadedAt < RECONCILE_EVERY.toNanos()) {
+            return current;
+        }
+        LOCK.lock();
+        try {
+            if (counts != null && counts != current) {
+                return counts;
+            }
+            // En una sesión nueva: la de quien consulta puede tener escrituras sin confirmar, que su onCommit
+            // volvería a sumar al hacer commit
+            Map<String, Map<String, AtomicLong>> loaded = new ConcurrentHashMap<>();
+            try (Session fresh = session.getSessionFactory().openSession()) {
+                for (String dimension : DIMENSIONS) {
+                    Map<String, AtomicLong> values = new ConcurrentHashMap<>();
+                    for (Object[] row : fresh.createNativeQuery(dimension, Object[].class).list()) {
+                        values.put(String.valueOf(row[0]), new AtomicLong(((Number) row[1]).longValue()));
+                    }
+                    loaded.put(dimension, values);
+                }
+            }
+            log.debug("Recuentos de empleados calculados");
+            loadedAt = System.nanoTime();
+            counts = loaded;
+            return loaded;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+}
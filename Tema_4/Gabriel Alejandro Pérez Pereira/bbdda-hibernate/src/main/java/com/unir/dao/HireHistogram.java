@@ -0,0 +1,156 @@
+package com.unir.dao;
+
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+import java.time.Duration;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Histograma de contrataciones por año y mes, compartido por todas las sesiones.
+ *
+ * Filtrar con WHERE MONTH(hire_date) = ? no puede usar ningún índice y recorre la tabla employees entera.
+ * Aquí la tabla se recorre una vez con un GROUP BY por año y mes, y las consultas se responden en memoria.
+ * Las escrituras de empleados lo actualizan con {@link #onCommit}: el cambio se aplica cuando la transacción hace
+ * commit, y se descarta si hace rollback. Cada RECONCILE_EVERY se recalcula contra la base de datos, en una sesión
+ * propia para no ver cambios sin confirmar.
+ */
+@Slf4j
+public final class HireHistogram {
+
+    /** Primer año del histograma. Los años anteriores se agrupan en él. */
+    private static final int FIRST_YEAR = 1950;
+    private static final int YEARS = 100;
+    private static final Duration RECONCILE_EVERY = Duration.ofMinutes(10);
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static volatile AtomicLongArray counts;
+    private static volatile long loadedAt;
+
+    private HireHistogram() {
+    }
+
+    /**
+     * @param session - Sesión cuya factoría se usa para recalcular el histograma si no está en memoria o ha caducado
+     * @param month - Mes, de 1 a 12
+     * @return - Empleados contratados en ese mes de cualquier año
+     */
+    public static long hiredInMonth(Session session, int month) {
+        if (month < 1 || month > 12) {
+            throw new IllegalArgumentException("El mes debe estar entre 1 y 12");
+        }
+        AtomicLongArray current = current(session);
+        long total = 0;
+        for (int year = 0; year < YEARS; year++) {
+            total += current.get(year * 12 + month - 1);
+        }
+        return total;
+    }
+
+    /**
+     * @return - Empleados contratados en ese mes de ese año
+     */
+    public static long hiredIn(Session session, int year, int month) {
+        return current(session).get(index(year) * 12 + month - 1);
+    }
+
+    /**
+     * Anota un cambio de fecha de contratación, que se aplica al hacer commit la transacción actual de la sesión.
+     * Un valor null en from es un alta y en to una baja. Sin transacción activa, el histograma se descarta.
+     * @param session - Sesión que hace la escritura
+     * @param from - Fecha de contratación anterior
+     * @param to - Fecha de contratación nueva
+     */
+    public static void onCommit(Session session, Date from, Date to) {
+        int previous = bucket(from);
+        int next = bucket(to);
+        if (previous == next) {
+            return;
+        }
+        if (!session.getTransaction().isActive()) {
+            invalidate();
+            return;
+        }
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                AtomicLongArray current = counts;
+                if (status == Status.STATUS_COMMITTED && current != null) {
+                    add(current, previous, -1);
+                    add(current, next, 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Descarta el histograma. La siguiente consulta lo recalcula.
+     */
+    public static void invalidate() {
+        counts = null;
+    }
+
+    private static void add(AtomicLongArray counts, int bucket, long delta) {
+        if (bucket >= 0) {
+            counts.addAndGet(bucket, delta);
+        }
+    }
+
+    private static AtomicLongArray current(Session session) {
+        AtomicLongArray current = counts;
+        if (current != null && System.nanoTime() - loadedAt < RECONCILE_EVERY.toNanos()) {
+            return current;
+        }
+        LOCK.lock();
+        try {
+            if (counts != null && counts != current) {
+                return counts;
+            }
+            // En una sesión nueva: la de quien consulta puede tener escrituras sin confirmar, que su onCommit
+            // volvería a sumar al hacer commit
+            AtomicLongArray loaded = new AtomicLongArray(YEARS * 12);
+            List<Object[]> rows;
+            try (Session fresh = session.getSessionFactory().openSession()) {
+                rows = fresh.createNativeQuery("SELECT YEAR(hire_date), MONTH(hire_date), COUNT(*)\n" +
+                        "FROM employees.employees GROUP BY YEAR(hire_date), MONTH(hire_date)", Object[].class).list();
+            }
+            for (Object[] row : rows) {
+                loaded.addAndGet(index(((Number) row[0]).intValue()) * 12 + ((Number) row[1]).intValue() - 1,
+                        ((Number) row[2]).longValue());
+            }
+            log.debug("Histograma de contrataciones calculado: {} meses con contrataciones", rows.size());
+            loadedAt = System.nanoTime();
+            counts = loaded;
+            return loaded;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * @return - Posición del año y mes de la fecha en el histograma, o -1 si es null
+     */
+    private static int bucket(Date date) {
+        if (date == null) {
+            return -1;
+        }
+        // Calendar admite java.sql.Date, que no se puede convertir con toInstant
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return index(calendar.get(Calendar.YEAR)) * 12 + calendar.get(Calendar.MONTH);
+    }
+
+    private static int index(int year) {
+        return Math.max(0, Math.min(YEARS - 1, year - FIRST_YEAR));
+    }
+}
@@ -0,0 +1,127 @@
+package com.unir.dao;
+
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ranking de los empleados mejor pagados de cada departamento, compartido por todas las sesiones.
+ *
+ * Una única consulta con ROW_NUMBER() OVER (PARTITION BY dept_no ORDER BY salary DESC) calcula los TOP_N
+ * mejores salarios actuales (to_date = '9999-01-01') de todos los departamentos. El resultado se guarda en memoria
+ * y cualquier posición se consulta en O(1). Se recalcula pasado MAX_AGE, o cuando hace commit una transacción
+ * que ha llamado a {@link #invalidateOnCommit}, como deben hacer las que cambian salarios. El cálculo se hace en
+ * una sesión propia para no ver cambios sin confirmar.
+ */
+@Slf4j
+public final class SalaryRanking {
+
+    /** Posiciones que se guardan por departamento. */
+    public static final int TOP_N = 10;
+
+    private static final Duration MAX_AGE = Duration.ofMinutes(5);
+
+    private static final String QUERY = "SELECT dept_no, first_name, last_name, salary FROM (\n" +
+            "  SELECT de.dept_no, e.emp_no, e.first_name, e.last_name, s.salary,\n" +
+            "         ROW_NUMBER() OVER (PARTITION BY de.dept_no ORDER BY s.salary DESC, e.emp_no) AS salary_rank\n" +
+            "  FROM employees.salaries s\n" +
+            "  JOIN employees.dept_emp de ON de.emp_no = s.emp_no AND de.to_date = '9999-01-01'\n" +
+            "  JOIN employees.employees e ON e.emp_no = s.emp_no\n" +
+            "  WHERE s.to_date = '9999-01-01') ranked\n" +
+            "WHERE salary_rank <= :topN\n" +
+            "ORDER BY dept_no, salary_rank";
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static volatile Map<String, List<Object[]>> departments;
+    private static volatile long loadedAt;
+
+    private SalaryRanking() {
+    }
+
+    /**
+     * @param session - Sesión cuya factoría se usa para calcular el ranking si no está en memoria o ha caducado
+     * @param department - Departamento (dept_no)
+     * @param position - Posición, de 1 a TOP_N
+     * @return - Nombre, apellido y salario del empleado en esa posición, o null si el departamento tiene menos empleados
+     */
+    public static Object[] employee(Session session, String department, int position) {
+        if (position < 1 || position > TOP_N) {
+            throw new IllegalArgumentException("La posición debe estar entre 1 y " + TOP_N);
+        }
+        List<Object[]> ranking = current(session).getOrDefault(department, List.of());
+        return position <= ranking.size() ? ranking.get(position - 1) : null;
+    }
+
+    /**
+     * Descarta el ranking cuando hace commit la transacción actual de la sesión. Si se descartase antes,
+     * otra sesión podría recalcularlo con los datos anteriores al commit, y seguiría así hasta pasado MAX_AGE.
+     * Sin transacción activa, se descarta ya.
+     * @param session - Sesión que hace la escritura
+     */
+    public static void invalidateOnCommit(Session session) {
+        if (!session.getTransaction().isActive()) {
+            invalidate();
+            return;
+        }
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    invalidate();
+                }
+            }
+        });
+    }
+
+    /**
+     * Descarta el ranking. La siguiente consulta lo recalcula.
+     */
+    public static void invalidate() {
+        departments = null;
+    }
+
+    private static Map<String, List<Object[]>> current(Session session) {
+        Map<String, List<Object[]>> current = departments;
+        if (current != null && System.nanoTime() - loadedAt < MAX_AGE.toNanos()) {
+            return current;
+        }
+        LOCK.lock();
+        try {
+            // Otro hilo puede haberlo recalculado mientras esperabamos
+            if (departments != null && departments != current) {
+                return departments;
+            }
+            // En una sesión nueva: la de quien consulta puede tener escrituras sin confirmar, que se quedarían
+            // en el ranking aunque después hiciera rollback
+            Map<String, List<Object[]>> loaded = new HashMap<>();
+            List<Object[]> rows;
+            try (Session fresh = session.getSessionFactory().openSession()) {
+                rows = fresh.createNativeQuery(QUERY, Object[].class)
+                        .setParameter("topN", TOP_N)
+                        .list();
+            }
+            for (Object[] row : rows) {
+                loaded.computeIfAbsent((String) row[0], d -> new ArrayList<>(TOP_N))
+                        .add(new Object[]{row[1], row[2], row[3]});
+            }
+            log.debug("Ranking de salarios calculado: {} departamentos", loaded.size());
+            loadedAt = System.nanoTime();
+            departments = loaded;
+            return loaded;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+}
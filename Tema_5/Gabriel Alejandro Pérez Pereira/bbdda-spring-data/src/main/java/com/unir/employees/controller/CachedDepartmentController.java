@@ -1,6 +1,7 @@
 package com.unir.employees.controller;
 
 import com.unir.employees.data.DepartmentRepository;
+import com.unir.employees.data.SalaryRanking;
 import com.unir.employees.model.db.Department;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -9,12 +10,16 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @RestController
 @RequiredArgsConstructor
 @Slf4j
 public class CachedDepartmentController {
 
     private final DepartmentRepository departmentRepository;
+    private final SalaryRanking salaryRanking;
 
     @GetMapping("/api-cached/departments/{name}")
     @Cacheable(value = "department", key = "#deptName")
@@ -22,4 +27,16 @@ public class CachedDepartmentController {
         log.info("Retrieving department {} from database. Not found in cache.", deptName);
         return departmentRepository.findByDeptName(deptName).orElse(null);
     }
+
+    @GetMapping("/api-cached/departments/{deptNo}/ranking")
+    public List<SalaryRanking.RankedEmployee> getSalaryRanking(@PathVariable("deptNo") String deptNo) {
+        return salaryRanking.ranking().getOrDefault(deptNo, new ArrayList<>());
+    }
+
+    @GetMapping("/api-cached/departments/{deptNo}/ranking/{position}")
+    public SalaryRanking.RankedEmployee getRankedEmployee(@PathVariable("deptNo") String deptNo,
+                                                          @PathVariable("position") int position) {
+        List<SalaryRanking.RankedEmployee> ranking = salaryRanking.ranking().getOrDefault(deptNo, new ArrayList<>());
+        return position >= 1 && position <= ranking.size() ? ranking.get(position - 1) : null;
+    }
 }
@@ -3,6 +3,7 @@ package com.unir.employees.data;
 import com.unir.employees.model.db.Employee;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Date;
@@ -51,4 +52,16 @@ public interface EmployeeRepository extends JpaRepository<Employee, Integer> {
 	// Metodo para obtener los diferentes nombres de los empleados, pero solo los 3 nombres más REPETIDOS
 	@Query(value = "SELECT employees.first_name, COUNT(employees.first_name) AS \"empleados\" FROM employees GROUP BY employees.first_name ORDER BY empleados DESC LIMIT 3", nativeQuery = true)
 	List<String> findTop3DistinctFirstNameBy();
+
+	// Metodo para obtener los topN empleados con mayor salario actual de cada departamento, en una sola consulta.
+	// Cada fila: dept_no, posicion, emp_no, first_name, last_name, salary
+	@Query(value = "SELECT dept_no, salary_rank, emp_no, first_name, last_name, salary FROM (" +
+			" SELECT de.dept_no, e.emp_no, e.first_name, e.last_name, s.salary," +
+			" ROW_NUMBER() OVER (PARTITION BY de.dept_no ORDER BY s.salary DESC, e.emp_no) AS salary_rank" +
+			" FROM salaries s" +
+			" JOIN dept_emp de ON de.emp_no = s.emp_no AND de.to_date = '9999-01-01'" +
+			" JOIN employees e ON e.emp_no = s.emp_no" +
+			" WHERE s.to_date = '9999-01-01') ranked" +
+			" WHERE salary_rank <= :topN ORDER BY dept_no, salary_rank", nativeQuery = true)
+	List<Object[]> findTopPaidPerDepartment(@Param("topN") int topN);
 }
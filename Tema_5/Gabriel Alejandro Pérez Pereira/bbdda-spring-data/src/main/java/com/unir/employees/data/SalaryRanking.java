@@ -0,0 +1,58 @@
+package com.unir.employees.data;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Component;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Ranking de los empleados mejor pagados de cada departamento.
+ * Se calcula con una sola consulta para todos los departamentos y se guarda en la cache "salaryRanking",
+ * de modo que cada posicion se consulta sin volver a la base de datos. Caduca con el time-to-live de la cache;
+ * tras cambiar salarios se descarta con {@link #invalidate()}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SalaryRanking {
+
+	/** Posiciones que se guardan por departamento. */
+	public static final int TOP_N = 10;
+
+	private final EmployeeRepository employeeRepository;
+
+	/**
+	 * @return ranking de cada departamento (dept_no), de mayor a menor salario.
+	 */
+	@Cacheable(value = "salaryRanking", key = "'all'")
+	public HashMap<String, ArrayList<RankedEmployee>> ranking() {
+		log.info("Calculating salary ranking. Not found in cache.");
+		HashMap<String, ArrayList<RankedEmployee>> departments = new HashMap<>();
+		for (Object[] row : employeeRepository.findTopPaidPerDepartment(TOP_N)) {
+			RankedEmployee employee = new RankedEmployee((String) row[0], ((Number) row[1]).intValue(),
+					((Number) row[2]).intValue(), (String) row[3], (String) row[4], ((Number) row[5]).intValue());
+			departments.computeIfAbsent(employee.deptNo(), d -> new ArrayList<>(TOP_N)).add(employee);
+		}
+		return departments;
+	}
+
+	/**
+	 * Descarta el ranking. La siguiente consulta lo recalcula.
+	 */
+	@CacheEvict(value = "salaryRanking", allEntries = true)
+	public void invalidate() {
+		log.info("Salary ranking evicted from cache.");
+	}
+
+	/**
+	 * Empleado del ranking. Es Serializable para poder guardarse en Redis.
+	 */
+	public record RankedEmployee(String deptNo, int position, int empNo, String firstName, String lastName,
+								 int salary) implements Serializable {
+	}
+}